@@ -0,0 +1,70 @@
+package ru.macrobit.Benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reference line: the JDK provider (AES-NI intrinsics on HotSpot/x86 and aarch64) on the same payloads and modes.
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g"})
+@State(Scope.Thread)
+public class JceBenchmark {
+
+    @Param({"128", "256"})
+    public int keySize;
+
+    @Param({"16", "1024", "65536", "16777216", "1073741824"})
+    public int payload;
+
+    @Param({"ECB", "CBC", "CTR"})
+    public String mode;
+
+    private Cipher encryptor;
+    private Cipher decryptor;
+    private byte[] input;
+    private byte[] output;
+
+    @Setup
+    public void setUp() throws Exception {
+        Random random = new Random(42);
+        byte[] rawKey = new byte[keySize / 8];
+        random.nextBytes(rawKey);
+        byte[] iv = new byte[16];
+        random.nextBytes(iv);
+        SecretKeySpec keySpec = new SecretKeySpec(rawKey, "AES");
+        encryptor = Cipher.getInstance("AES/" + mode + "/NoPadding");
+        decryptor = Cipher.getInstance("AES/" + mode + "/NoPadding");
+        if (mode.equals("ECB")) {
+            encryptor.init(Cipher.ENCRYPT_MODE, keySpec);
+            decryptor.init(Cipher.DECRYPT_MODE, keySpec);
+        } else {
+            encryptor.init(Cipher.ENCRYPT_MODE, keySpec, new IvParameterSpec(iv));
+            decryptor.init(Cipher.DECRYPT_MODE, keySpec, new IvParameterSpec(iv));
+        }
+        input = new byte[payload];
+        random.nextBytes(input);
+        output = new byte[payload];
+    }
+
+    @Benchmark
+    public byte[] encrypt() throws Exception {
+        encryptor.doFinal(input, 0, payload, output, 0);
+        return output;
+    }
+
+    @Benchmark
+    public byte[] decrypt() throws Exception {
+        decryptor.doFinal(input, 0, payload, output, 0);
+        return output;
+    }
+}
@@ -0,0 +1,78 @@
+package ru.macrobit.Benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ru.macrobit.Engine.ExpandedKey;
+import ru.macrobit.Engine.KeyAgileEngine;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A fresh key per message of a few blocks: ExpandedKey.of followed by the table rounds against KeyAgileEngine,
+ * which derives the round keys inside the round loop. The number of blocks per message from which the
+ * precomputed path wins is the crossover. Keys rotate through a set of 1024, so neither path sees the same key twice in a row.
+ * Scores are nanoseconds per message.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RoundKeyBenchmark {
+
+    private static final int KEYS = 1024;
+
+    @Param({"128", "192", "256"})
+    public int keySize;
+
+    @Param({"1", "2", "3", "4", "8", "16"})
+    public int blocks;
+
+    private byte[][] keys;
+    private byte[] input;
+    private byte[] output;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        keys = new byte[KEYS][keySize / 8];
+        for (byte[] key : keys) {
+            random.nextBytes(key);
+        }
+        input = new byte[16 * blocks];
+        random.nextBytes(input);
+        output = new byte[input.length];
+    }
+
+    private byte[] nextKey() {
+        next = (next + 1) & (KEYS - 1);
+        return keys[next];
+    }
+
+    @Benchmark
+    public byte[] precomputedEncrypt() {
+        ExpandedKey.of(nextKey()).encryptBlocks(input, 0, output, 0, blocks);
+        return output;
+    }
+
+    @Benchmark
+    public byte[] keyAgileEncrypt() {
+        KeyAgileEngine.encryptBlocks(nextKey(), input, 0, output, 0, blocks);
+        return output;
+    }
+
+    @Benchmark
+    public byte[] precomputedDecrypt() {
+        ExpandedKey.of(nextKey()).decryptBlocks(input, 0, output, 0, blocks);
+        return output;
+    }
+
+    @Benchmark
+    public byte[] keyAgileDecrypt() {
+        KeyAgileEngine.decryptBlocks(nextKey(), input, 0, output, 0, blocks);
+        return output;
+    }
+}
@@ -0,0 +1,72 @@
+package ru.macrobit.Benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ru.macrobit.Engine.ExpandedKey;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-threaded block throughput of the paths SequentialAES runs: ECB and CBC over the bulk block API.
+ * Scores are operations per second; multiply by payload for bytes per second.
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g"})
+@State(Scope.Thread)
+public class SequentialBenchmark {
+
+    @Param({"128", "256"})
+    public int keySize;
+
+    @Param({"16", "1024", "65536", "16777216", "1073741824"})
+    public int payload;
+
+    @Param({"ECB", "CBC"})
+    public String mode;
+
+    private ExpandedKey key;
+    private byte[] iv;
+    private byte[] input;
+    private byte[] output;
+    private int blocks;
+    private boolean cbc;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        byte[] rawKey = new byte[keySize / 8];
+        random.nextBytes(rawKey);
+        key = ExpandedKey.of(rawKey);
+        iv = new byte[16];
+        random.nextBytes(iv);
+        input = new byte[payload];
+        random.nextBytes(input);
+        output = new byte[payload];
+        blocks = payload / 16;
+        cbc = mode.equals("CBC");
+    }
+
+    @Benchmark
+    public byte[] encrypt() {
+        if (cbc) {
+            key.encryptBlocksCbc(iv, input, 0, output, 0, blocks);
+        } else {
+            key.encryptBlocks(input, 0, output, 0, blocks);
+        }
+        return output;
+    }
+
+    @Benchmark
+    public byte[] decrypt() {
+        if (cbc) {
+            key.decryptBlocksCbc(iv, input, 0, output, 0, blocks);
+        } else {
+            key.decryptBlocks(input, 0, output, 0, blocks);
+        }
+        return output;
+    }
+}
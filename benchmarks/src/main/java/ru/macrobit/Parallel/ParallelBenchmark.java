@@ -0,0 +1,96 @@
+package ru.macrobit.Parallel;
+
+import org.openjdk.jmh.annotations.*;
+import ru.macrobit.Engine.CipherEngine;
+import ru.macrobit.Engine.CipherEngines;
+import ru.macrobit.Engine.ExpandedKey;
+import ru.macrobit.Engine.GaloisCounterMode;
+import ru.macrobit.Engine.Ghash;
+import ru.macrobit.Sequential.SequentialAES.Mode;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the ParallelAES scheduling path (AesTask over AesThread ranges on a ForkJoinPool) at
+ * varying pool sizes. Lives in ru.macrobit.Parallel to reach the package-private worker classes.
+ * CBC encryption is a single chain and runs on the calling thread, exactly as in ParallelAES.
+ */
+
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g", "--add-modules=jdk.incubator.vector"})
+@State(Scope.Benchmark)
+public class ParallelBenchmark {
+
+    @Param({"1", "2", "4", "8", "16", "32", "64"})
+    public int threads;
+
+    @Param({"128", "256"})
+    public int keySize;
+
+    @Param({"65536", "16777216", "1073741824"})
+    public int payload;
+
+    @Param({"ECB", "CBC", "CTR", "GCM"})
+    public String mode;
+
+    @Param({"table", "bitsliced", "vector", "jce"})
+    public String engine; //Ignored by CBC.
+
+    private ForkJoinPool pool;
+    private ExpandedKey key;
+    private CipherEngine cipherEngine;
+    private Mode cipherMode;
+    private byte[] iv;
+    private Ghash ghash; //GCM: reused, the hash of one invocation is meaningless anyway.
+    private byte[] input;
+    private byte[] output;
+    private final CipherMetrics metrics = new CipherMetrics(); //Recorded as in ParallelAES, never read.
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        byte[] rawKey = new byte[keySize / 8];
+        random.nextBytes(rawKey);
+        key = ExpandedKey.of(rawKey);
+        cipherEngine = CipherEngines.forName(engine);
+        cipherMode = Mode.valueOf(mode);
+        iv = new byte[16];
+        random.nextBytes(iv);
+        if (cipherMode == Mode.GCM) {
+            GaloisCounterMode gcm = new GaloisCounterMode(key, iv);
+            iv = gcm.counter();
+            ghash = gcm.ghash();
+        }
+        input = new byte[payload];
+        random.nextBytes(input);
+        output = new byte[payload];
+        pool = new ForkJoinPool(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public byte[] encrypt() {
+        AesThread work = new AesThread(input, output, 0, payload / 16, 0, "e", cipherMode, iv, key, cipherEngine, ghash, null);
+        if (cipherMode == Mode.CBC) {
+            work.run();
+        } else {
+            pool.invoke(new AesTask(work, metrics, "benchmark"));
+        }
+        return output;
+    }
+
+    @Benchmark
+    public byte[] decrypt() {
+        pool.invoke(new AesTask(new AesThread(input, output, 0, payload / 16, 0, "d", cipherMode, iv, key, cipherEngine, ghash, null), metrics, "benchmark"));
+        return output;
+    }
+}
@@ -0,0 +1,231 @@
+package ru.macrobit.Container;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.macrobit.Engine.CipherEngines;
+import ru.macrobit.Engine.ExpandedKey;
+import ru.macrobit.Engine.GaloisCounterMode;
+import ru.macrobit.Sequential.SequentialAES.Mode;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Round trips through the container format: the header, the key check, the index, the encryption of every
+ * chunk against javax.crypto, reads of any range, and the rejection of damaged containers.
+ */
+
+class ContainerTest {
+
+    private static final int CHUNK_SIZE = 4096;
+    private static final int LENGTH = 5 * CHUNK_SIZE + 1234;
+
+    @TempDir
+    Path directory;
+
+    private final Random random = new Random(6);
+    private final byte[] key = bytes(32);
+    private final byte[] data = bytes(LENGTH);
+
+    @Test
+    void header() throws IOException {
+        for (Mode mode : new Mode[]{Mode.CTR, Mode.GCM}) {
+            Path file = write(mode, data);
+            try (ContainerReader reader = open(file, key)) {
+                ContainerHeader header = reader.getHeader();
+                assertEquals(mode, header.getMode());
+                assertEquals(256, header.getKeyBits());
+                assertEquals(CHUNK_SIZE, header.getChunkSize());
+                assertEquals(LENGTH, header.getLength());
+                assertEquals(LENGTH, reader.length());
+
+                ByteBuffer bytes = ByteBuffer.allocate(ContainerHeader.LENGTH);
+                header.write(bytes);
+                assertArrayEquals(Arrays.copyOf(Files.readAllBytes(file), ContainerHeader.LENGTH), bytes.array());
+                bytes.flip();
+                ContainerHeader again = ContainerHeader.read(bytes);
+                assertEquals(header.getIndexOffset(), again.getIndexOffset());
+                assertTrue(again.matches(ExpandedKey.of(key)));
+            }
+        }
+    }
+
+    @Test
+    void freshNoncePerContainer() throws IOException {
+        byte[] first = Files.readAllBytes(write(Mode.CTR, data));
+        byte[] second = Files.readAllBytes(write(Mode.CTR, data));
+        assertFalse(Arrays.equals(first, second));
+    }
+
+    @Test
+    void keyCheck() throws IOException {
+        Path file = write(Mode.GCM, data);
+        byte[] wrong = key.clone();
+        wrong[0] ^= 1;
+        IOException e = assertThrows(IOException.class, () -> open(file, wrong));
+        assertTrue(e.getMessage().contains("key does not match"), e.getMessage());
+        assertThrows(IOException.class, () -> open(file, Arrays.copyOf(key, 16)));
+    }
+
+    /**
+     * The index follows the chunks and points at each of them; every chunk is the CTR encryption, or the
+     * GCM encryption followed by its tag, of its plaintext under its own counter block.
+     */
+
+    @Test
+    void indexAndChunks() throws Exception {
+        for (Mode mode : new Mode[]{Mode.CTR, Mode.GCM}) {
+            Path file = write(mode, data);
+            byte[] bytes = Files.readAllBytes(file);
+            ContainerHeader header;
+            try (ContainerReader reader = open(file, key)) {
+                header = reader.getHeader();
+            }
+            long chunks = header.chunkCount();
+            assertEquals(6, chunks);
+            assertEquals(bytes.length, header.getIndexOffset() + 8 * chunks);
+            ByteBuffer index = ByteBuffer.wrap(bytes, (int) header.getIndexOffset(), (int) (8 * chunks));
+            long expected = ContainerHeader.LENGTH;
+            for (long i = 0; i < chunks; i++) {
+                long offset = index.getLong();
+                assertEquals(expected, offset, "offset of chunk " + i);
+                int plain = header.chunkLength(i);
+                byte[] stored = Arrays.copyOfRange(bytes, (int) offset, (int) offset + plain + header.overhead());
+                byte[] text = Arrays.copyOfRange(data, (int) i * CHUNK_SIZE, (int) i * CHUNK_SIZE + plain);
+                assertArrayEquals(jce(mode, header.chunkIv(i, i == chunks - 1), text), stored, mode + " chunk " + i);
+                expected += stored.length;
+            }
+            assertEquals(header.getIndexOffset(), expected);
+        }
+    }
+
+    @Test
+    void rangeReads() throws IOException {
+        for (Mode mode : new Mode[]{Mode.CTR, Mode.GCM}) {
+            try (ContainerReader reader = open(write(mode, data), key)) {
+                int[][] ranges = {{0, LENGTH}, {CHUNK_SIZE - 1, 2}, {CHUNK_SIZE - 7, CHUNK_SIZE + 20},
+                        {3, 3 * CHUNK_SIZE}, {LENGTH - 5, 5}, {LENGTH - 5, 100}, {5 * CHUNK_SIZE, 1234}};
+                for (int[] range : ranges) {
+                    assertRead(reader, range[0], range[1]);
+                }
+                for (int i = 0; i < 200; i++) {
+                    assertRead(reader, random.nextInt(LENGTH), 1 + random.nextInt(2 * CHUNK_SIZE + 17));
+                }
+                assertEquals(-1, reader.read(LENGTH, new byte[1], 0, 1));
+
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                reader.transferTo(CHUNK_SIZE + 9, 2 * CHUNK_SIZE + 3, out);
+                assertArrayEquals(Arrays.copyOfRange(data, CHUNK_SIZE + 9, 3 * CHUNK_SIZE + 12), out.toByteArray());
+            }
+        }
+    }
+
+    @Test
+    void emptyAndSingleChunk() throws IOException {
+        for (Mode mode : new Mode[]{Mode.CTR, Mode.GCM}) {
+            for (int length : new int[]{0, 1, CHUNK_SIZE}) {
+                byte[] text = Arrays.copyOf(data, length);
+                try (ContainerReader reader = open(write(mode, text), key)) {
+                    assertEquals(length, reader.length());
+                    assertEquals(1, reader.getHeader().chunkCount());
+                    byte[] back = new byte[length + 1];
+                    assertEquals(length == 0 ? -1 : length, reader.read(0, back, 0, back.length));
+                    assertArrayEquals(text, Arrays.copyOf(back, length));
+                }
+            }
+        }
+    }
+
+    /**
+     * A flipped ciphertext bit or two chunks swapped on disk fail authentication of exactly the affected
+     * chunks; the others still read. A truncated container is not opened at all.
+     */
+
+    @Test
+    void tamperedChunks() throws IOException {
+        byte[] bytes = Files.readAllBytes(write(Mode.GCM, data));
+        int stored = CHUNK_SIZE + GaloisCounterMode.TAG_LENGTH;
+
+        byte[] flipped = bytes.clone();
+        flipped[ContainerHeader.LENGTH + stored + 100] ^= 1;
+        try (ContainerReader reader = open(Files.write(directory.resolve("flipped"), flipped), key)) {
+            assertRead(reader, 0, CHUNK_SIZE);
+            IOException e = assertThrows(IOException.class, () -> reader.read(CHUNK_SIZE + 5, new byte[1], 0, 1));
+            assertTrue(e.getMessage().contains("chunk 1"), e.getMessage());
+            assertRead(reader, 2 * CHUNK_SIZE, CHUNK_SIZE);
+        }
+
+        byte[] swapped = bytes.clone();
+        System.arraycopy(bytes, ContainerHeader.LENGTH, swapped, ContainerHeader.LENGTH + stored, stored);
+        System.arraycopy(bytes, ContainerHeader.LENGTH + stored, swapped, ContainerHeader.LENGTH, stored);
+        try (ContainerReader reader = open(Files.write(directory.resolve("swapped"), swapped), key)) {
+            assertThrows(IOException.class, () -> reader.read(0, new byte[1], 0, 1));
+            assertThrows(IOException.class, () -> reader.read(CHUNK_SIZE, new byte[1], 0, 1));
+            assertRead(reader, 2 * CHUNK_SIZE, CHUNK_SIZE);
+        }
+
+        byte[] truncated = Arrays.copyOf(bytes, bytes.length - 1);
+        assertThrows(IOException.class, () -> open(Files.write(directory.resolve("truncated"), truncated), key));
+    }
+
+    private void assertRead(ContainerReader reader, int position, int length) throws IOException {
+        byte[] b = new byte[length + 2];
+        int n = reader.read(position, b, 1, length);
+        int expected = Math.min(length, LENGTH - position);
+        String name = "read of " + length + " at " + position;
+        assertEquals(expected, n, name);
+        assertArrayEquals(Arrays.copyOfRange(data, position, position + expected), Arrays.copyOfRange(b, 1, 1 + n), name);
+    }
+
+    private Path write(Mode mode, byte[] text) throws IOException {
+        Path file = Files.createTempFile(directory, "container", ".aesc");
+        try (ContainerOutputStream out = new ContainerOutputStream(FileChannel.open(file, StandardOpenOption.WRITE),
+                ExpandedKey.of(key), mode, CHUNK_SIZE, CipherEngines.TABLE)) {
+            for (int off = 0; off < text.length; ) { //Writes of uneven sizes, across chunk boundaries.
+                int n = Math.min(text.length - off, 1 + random.nextInt(3000));
+                out.write(text, off, n);
+                off += n;
+            }
+        }
+        return file;
+    }
+
+    private static ContainerReader open(Path file, byte[] key) throws IOException {
+        return new ContainerReader(FileChannel.open(file, StandardOpenOption.READ), ExpandedKey.of(key), CipherEngines.TABLE);
+    }
+
+    private byte[] jce(Mode mode, byte[] counterBlock, byte[] text) throws Exception {
+        SecretKeySpec spec = new SecretKeySpec(key, "AES");
+        if (mode == Mode.CTR) {
+            Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, spec, new IvParameterSpec(counterBlock));
+            return cipher.doFinal(text);
+        }
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, spec, new GCMParameterSpec(128, counterBlock, 0, GaloisCounterMode.IV_LENGTH));
+        return cipher.doFinal(text);
+    }
+
+    private byte[] bytes(int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,104 @@
+package ru.macrobit.Engine;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The bulk block calls of ExpandedKey, TableEngine and KeyAgileEngine run in caller-owned buffers and must
+ * not allocate. Each call is warmed up until it is compiled, then the bytes the thread allocates over many
+ * more calls are measured with {@link com.sun.management.ThreadMXBean#getCurrentThreadAllocatedBytes()}.
+ */
+
+class AllocationTest {
+
+    private static final int WARMUP = 50_000;
+    private static final int CALLS = 200_000;
+    private static final int BLOCKS = 8;
+
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static ExpandedKey expandedKey;
+    private static int[] encryptionKey;
+    private static int[] decryptionKey;
+    private static final byte[] buffer = new byte[BLOCKS * 16];
+    private static final byte[] iv = new byte[16];
+
+    @BeforeAll
+    static void setUp() {
+        byte[] key = new byte[16];
+        Random random = new Random(42);
+        random.nextBytes(key);
+        random.nextBytes(buffer);
+        expandedKey = ExpandedKey.of(key);
+        encryptionKey = TableEngine.expandEncryptionKey(key);
+        decryptionKey = TableEngine.expandDecryptionKey(encryptionKey);
+    }
+
+    @Test
+    void expandedKeyEcb() {
+        assertNoAllocation("ExpandedKey.encryptBlocks", () -> expandedKey.encryptBlocks(buffer, 0, buffer, 0, BLOCKS));
+        assertNoAllocation("ExpandedKey.decryptBlocks", () -> expandedKey.decryptBlocks(buffer, 0, buffer, 0, BLOCKS));
+    }
+
+    @Test
+    void expandedKeyCbc() {
+        assertNoAllocation("ExpandedKey.encryptBlocksCbc", () -> expandedKey.encryptBlocksCbc(iv, buffer, 0, buffer, 0, BLOCKS));
+        assertNoAllocation("ExpandedKey.decryptBlocksCbc", () -> expandedKey.decryptBlocksCbc(iv, buffer, 0, buffer, 0, BLOCKS));
+    }
+
+    @Test
+    void tableEngineEcb() {
+        assertNoAllocation("TableEngine.encryptBlocks", () -> TableEngine.encryptBlocks(encryptionKey, buffer, 0, buffer, 0, BLOCKS));
+        assertNoAllocation("TableEngine.decryptBlocks", () -> TableEngine.decryptBlocks(decryptionKey, buffer, 0, buffer, 0, BLOCKS));
+    }
+
+    @Test
+    void tableEngineCbc() {
+        assertNoAllocation("TableEngine.encryptBlocksCbc", () -> TableEngine.encryptBlocksCbc(encryptionKey, iv, buffer, 0, buffer, 0, BLOCKS));
+        assertNoAllocation("TableEngine.decryptBlocksCbc", () -> TableEngine.decryptBlocksCbc(decryptionKey, iv, buffer, 0, buffer, 0, BLOCKS));
+    }
+
+    /**
+     * No schedule is stored for any key size, AES-192 included.
+     */
+
+    @Test
+    void keyAgileEngine() {
+        for (int keyLength : new int[]{16, 24, 32}) {
+            byte[] key = Arrays.copyOf(buffer, keyLength);
+            assertNoAllocation("KeyAgileEngine.encryptBlocks, " + keyLength * 8 + "-bit key",
+                    () -> KeyAgileEngine.encryptBlocks(key, buffer, 0, buffer, 0, BLOCKS));
+            assertNoAllocation("KeyAgileEngine.decryptBlocks, " + keyLength * 8 + "-bit key",
+                    () -> KeyAgileEngine.decryptBlocks(key, buffer, 0, buffer, 0, BLOCKS));
+        }
+    }
+
+    /**
+     * The lambda is created once, outside the measured loop; the cost of reading the counter is measured
+     * the same way and taken off.
+     */
+
+    private static void assertNoAllocation(String name, Runnable call) {
+        for (int i = 0; i < WARMUP; i++) {
+            call.run();
+        }
+        long overhead = allocatedBytes(() -> { });
+        long allocated = allocatedBytes(call) - overhead;
+        assertEquals(0, Math.max(0, allocated), name + " allocated " + allocated + " bytes in " + CALLS + " calls");
+    }
+
+    private static long allocatedBytes(Runnable call) {
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < CALLS; i++) {
+            call.run();
+        }
+        return threads.getCurrentThreadAllocatedBytes() - before;
+    }
+}
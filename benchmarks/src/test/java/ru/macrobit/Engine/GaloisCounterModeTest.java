@@ -0,0 +1,214 @@
+package ru.macrobit.Engine;
+
+import org.junit.jupiter.api.Test;
+import ru.macrobit.Sequential.SequentialAES.Mode;
+import ru.macrobit.Stream.BlockChain;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * AES-GCM against the test cases of the GCM specification submitted to NIST (McGrew and Viega, the ones
+ * without additional data) for 128, 192 and 256-bit keys, and against javax.crypto for the lengths that
+ * have no published vector. The segment tests hash the ciphertext in pieces merged out of order, as the
+ * parallel tools do.
+ */
+
+class GaloisCounterModeTest {
+
+    private static final HexFormat hex = HexFormat.of();
+
+    private static final String IV = "cafebabefacedbaddecaf888";
+    private static final String PLAIN = "d9313225f88406e5a55909c5aff5269a86a7a9531534f7da2e4c303d8a318a72"
+            + "1c3c0c95956809532fcf0e2449a6b525b16aedf5aa0de657ba637b391aafd255";
+    private static final String KEY = "feffe9928665731c6d6a8f9467308308feffe9928665731c6d6a8f9467308308";
+
+    private static final String[][] VECTORS = {
+            //key, IV, plaintext, ciphertext, tag
+            {"00000000000000000000000000000000", "000000000000000000000000", "", "",
+                    "58e2fccefa7e3061367f1d57a4e7455a"},
+            {"00000000000000000000000000000000", "000000000000000000000000", "00000000000000000000000000000000",
+                    "0388dace60b6a392f328c2b971b2fe78", "ab6e47d42cec13bdf53a67b21257bddf"},
+            {KEY.substring(0, 32), IV, PLAIN,
+                    "42831ec2217774244b7221b784d0d49ce3aa212f2c02a4e035c17e2329aca12e"
+                            + "21d514b25466931c7d8f6a5aac84aa051ba30b396a0aac973d58e091473f5985",
+                    "4d5c2af327cd64a62cf35abd2ba6fab4"},
+            {"000000000000000000000000000000000000000000000000", "000000000000000000000000", "", "",
+                    "cd33b28ac773f74ba00ed1f312572435"},
+            {"000000000000000000000000000000000000000000000000", "000000000000000000000000",
+                    "00000000000000000000000000000000", "98e7247c07f0fe411c267e4384b0f600",
+                    "2ff58d80033927ab8ef4d4587514f0fb"},
+            {KEY.substring(0, 48), IV, PLAIN,
+                    "3980ca0b3c00e841eb06fac4872a2757859e1ceaa6efd984628593b40ca1e19c"
+                            + "7d773d00c144c525ac619d18c84a3f4718e2448b2fe324d9ccda2710acade256",
+                    "9924a7c8587336bfb118024db8674a14"},
+            {"0000000000000000000000000000000000000000000000000000000000000000", "000000000000000000000000", "", "",
+                    "530f8afbc74536b9a963b4f1c4cb738b"},
+            {"0000000000000000000000000000000000000000000000000000000000000000", "000000000000000000000000",
+                    "00000000000000000000000000000000", "cea7403d4d606b6e074ec5d3baf39d18",
+                    "d0d1c8a799996bf0265b98b5d48ab919"},
+            {KEY, IV, PLAIN,
+                    "522dc1f099567d07f47f37a32a84427d643a8cdcbfe5c0c97598a2bd2555d1aa"
+                            + "8cb08e48590dbb3da7b08b1056828838c5f61e6393ba7a0abcc9f662898015ad",
+                    "b094dac5d93471bdec1a502270e3cc6c"},
+    };
+
+    private static final int[] LENGTHS = {0, 1, 15, 16, 17, 64, 4096 + 5, 3 * 4096};
+    private static final int[] KEY_SIZES = {16, 24, 32};
+
+    @Test
+    void knownAnswers() {
+        for (String[] vector : VECTORS) {
+            byte[] key = hex.parseHex(vector[0]);
+            byte[] iv = hex.parseHex(vector[1]);
+            byte[] plain = hex.parseHex(vector[2]);
+            byte[] expected = concat(hex.parseHex(vector[3]), hex.parseHex(vector[4]));
+            assertArrayEquals(expected, encrypt(key, iv, plain), "AES-" + key.length * 8 + " " + plain.length + " bytes");
+            assertArrayEquals(plain, decrypt(key, iv, expected), "AES-" + key.length * 8 + " " + plain.length + " bytes");
+        }
+    }
+
+    @Test
+    void matchesJce() throws Exception {
+        Random random = new Random(1);
+        for (int keySize : KEY_SIZES) {
+            for (int length : LENGTHS) {
+                byte[] key = bytes(random, keySize);
+                byte[] iv = bytes(random, GaloisCounterMode.IV_LENGTH);
+                byte[] plain = bytes(random, length);
+                byte[] expected = jce(key, iv, plain);
+                String name = "AES-" + keySize * 8 + " " + length + " bytes";
+                assertArrayEquals(expected, encrypt(key, iv, plain), name);
+                assertArrayEquals(plain, decrypt(key, iv, expected), name);
+            }
+        }
+    }
+
+    @Test
+    void segmentsMergedOutOfOrder() throws Exception {
+        Random random = new Random(2);
+        for (int keySize : KEY_SIZES) {
+            for (int length : LENGTHS) {
+                byte[] key = bytes(random, keySize);
+                byte[] iv = bytes(random, GaloisCounterMode.IV_LENGTH);
+                byte[] sealed = jce(key, iv, bytes(random, length));
+                byte[] cipher = Arrays.copyOf(sealed, length);
+                byte[] tag = Arrays.copyOfRange(sealed, length, sealed.length);
+
+                GaloisCounterMode gcm = new GaloisCounterMode(ExpandedKey.of(key), iv);
+                int[] bounds = segmentBounds(random, length);
+                for (int s = bounds.length - 2; s >= 0; s--) {
+                    Ghash segment = gcm.ghash().segment();
+                    segment.update(cipher, bounds[s], bounds[s + 1] - bounds[s]);
+                    gcm.ghash().merge(bounds[s] / 16, segment);
+                }
+                String name = "AES-" + keySize * 8 + " " + length + " bytes in " + (bounds.length - 1) + " segments";
+                assertArrayEquals(tag, gcm.tag(length), name);
+                assertTrue(gcm.verify(tag, length), name);
+            }
+        }
+    }
+
+    /**
+     * The ByteBuffer hash, which mmap GCM uses, must give the same tag for heap and direct buffers of
+     * either byte order.
+     */
+
+    @Test
+    void byteBufferHash() throws Exception {
+        Random random = new Random(3);
+        byte[] key = bytes(random, 16);
+        byte[] iv = bytes(random, GaloisCounterMode.IV_LENGTH);
+        for (int length : LENGTHS) {
+            byte[] sealed = jce(key, iv, bytes(random, length));
+            byte[] tag = Arrays.copyOfRange(sealed, length, sealed.length);
+            for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+                for (ByteBuffer buffer : new ByteBuffer[]{ByteBuffer.allocate(length + 3), ByteBuffer.allocateDirect(length + 3)}) {
+                    buffer.order(order).position(3);
+                    buffer.put(sealed, 0, length);
+                    GaloisCounterMode gcm = new GaloisCounterMode(ExpandedKey.of(key), iv);
+                    gcm.ghash().update(buffer, 3, length);
+                    assertArrayEquals(tag, gcm.tag(length), length + " bytes, " + order + (buffer.isDirect() ? ", direct" : ", heap"));
+                }
+            }
+        }
+    }
+
+    @Test
+    void rejectsTamperedTag() throws Exception {
+        Random random = new Random(4);
+        byte[] key = bytes(random, 16);
+        byte[] iv = bytes(random, GaloisCounterMode.IV_LENGTH);
+        byte[] sealed = jce(key, iv, bytes(random, 100));
+        sealed[7] ^= 1;
+        BlockChain chain = new BlockChain(ExpandedKey.of(key), Mode.GCM, Arrays.copyOf(iv, 16), false);
+        byte[] text = Arrays.copyOf(sealed, 100);
+        chain.finish(text, 0, text.length);
+        assertFalse(chain.verify(Arrays.copyOfRange(sealed, 100, sealed.length)));
+    }
+
+    private static byte[] encrypt(byte[] key, byte[] iv, byte[] plain) {
+        BlockChain chain = new BlockChain(ExpandedKey.of(key), Mode.GCM, Arrays.copyOf(iv, 16), true);
+        byte[] text = plain.clone();
+        int whole = text.length & ~15;
+        chain.process(text, 0, whole / 16);
+        chain.finish(text, whole, text.length - whole);
+        return concat(text, chain.tag());
+    }
+
+    /**
+     * @return the plaintext, or null if the tag does not match
+     */
+
+    private static byte[] decrypt(byte[] key, byte[] iv, byte[] sealed) {
+        int length = sealed.length - GaloisCounterMode.TAG_LENGTH;
+        BlockChain chain = new BlockChain(ExpandedKey.of(key), Mode.GCM, Arrays.copyOf(iv, 16), false);
+        byte[] text = Arrays.copyOf(sealed, length);
+        int whole = length & ~15;
+        chain.process(text, 0, whole / 16);
+        chain.finish(text, whole, length - whole);
+        return chain.verify(Arrays.copyOfRange(sealed, length, sealed.length)) ? text : null;
+    }
+
+    private static byte[] jce(byte[] key, byte[] iv, byte[] plain) throws Exception {
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new GCMParameterSpec(128, iv));
+        return cipher.doFinal(plain);
+    }
+
+    /**
+     * Random block-aligned cuts; only the last segment may end in a partial block.
+     */
+
+    private static int[] segmentBounds(Random random, int length) {
+        int blocks = (length + 15) / 16;
+        int[] bounds = new int[Math.min(blocks, 5) + 1];
+        for (int i = 1; i < bounds.length - 1; i++) {
+            bounds[i] = Math.min(length, bounds[i - 1] + 16 * (1 + random.nextInt(Math.max(1, blocks / bounds.length))));
+        }
+        bounds[bounds.length - 1] = length;
+        return bounds;
+    }
+
+    private static byte[] bytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] c = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, c, a.length, b.length);
+        return c;
+    }
+}
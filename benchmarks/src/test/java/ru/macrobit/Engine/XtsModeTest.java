@@ -0,0 +1,138 @@
+package ru.macrobit.Engine;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * XTS-AES-128 against the test vectors of IEEE 1619 (vectors 1 to 4, and 15 to 18 with ciphertext stealing),
+ * on every available engine, through the array and the ByteBuffer variants. A data unit is one sector.
+ */
+
+class XtsModeTest {
+
+    private static final HexFormat hex = HexFormat.of();
+
+    private static final String[][] VECTORS = {
+            //vector, key 1, key 2, data unit sequence number, plaintext, ciphertext
+            {"1", "00000000000000000000000000000000", "00000000000000000000000000000000", "0",
+                    "0000000000000000000000000000000000000000000000000000000000000000",
+                    "917cf69ebd68b2ec9b9fe9a3eadda692cd43d2f59598ed858c02c2652fbf922e"},
+            {"2", "11111111111111111111111111111111", "22222222222222222222222222222222", "3333333333",
+                    "4444444444444444444444444444444444444444444444444444444444444444",
+                    "c454185e6a16936e39334038acef838bfb186fff7480adc4289382ecd6d394f0"},
+            {"3", "fffefdfcfbfaf9f8f7f6f5f4f3f2f1f0", "22222222222222222222222222222222", "3333333333",
+                    "4444444444444444444444444444444444444444444444444444444444444444",
+                    "af85336b597afc1a900b2eb21ec949d292df4c047e0b21532186a5971a227a89"},
+            {"4", "27182818284590452353602874713526", "31415926535897932384626433832795", "0",
+                    counting(512),
+                    "27a7479befa1d476489f308cd4cfa6e2a96e4bbe3208ff25287dd3819616e89c"
+                            + "c78cf7f5e543445f8333d8fa7f56000005279fa5d8b5e4ad40e736ddb4d35412"
+                            + "328063fd2aab53e5ea1e0a9f332500a5df9487d07a5c92cc512c8866c7e860ce"
+                            + "93fdf166a24912b422976146ae20ce846bb7dc9ba94a767aaef20c0d61ad0265"
+                            + "5ea92dc4c4e41a8952c651d33174be51a10c421110e6d81588ede82103a252d8"
+                            + "a750e8768defffed9122810aaeb99f9172af82b604dc4b8e51bcb08235a6f434"
+                            + "1332e4ca60482a4ba1a03b3e65008fc5da76b70bf1690db4eae29c5f1badd03c"
+                            + "5ccf2a55d705ddcd86d449511ceb7ec30bf12b1fa35b913f9f747a8afd1b130e"
+                            + "94bff94effd01a91735ca1726acd0b197c4e5b03393697e126826fb6bbde8ecc"
+                            + "1e08298516e2c9ed03ff3c1b7860f6de76d4cecd94c8119855ef5297ca67e9f3"
+                            + "e7ff72b1e99785ca0a7e7720c5b36dc6d72cac9574c8cbbc2f801e23e56fd344"
+                            + "b07f22154beba0f08ce8891e643ed995c94d9a69c9f1b5f499027a78572aeebd"
+                            + "74d20cc39881c213ee770b1010e4bea718846977ae119f7a023ab58cca0ad752"
+                            + "afe656bb3c17256a9f6e9bf19fdd5a38fc82bbe872c5539edb609ef4f79c203e"
+                            + "bb140f2e583cb2ad15b4aa5b655016a8449277dbd477ef2c8d6c017db738b18d"
+                            + "eb4a427d1923ce3ff262735779a418f20a282df920147beabe421ee5319d0568"},
+            {"15", "fffefdfcfbfaf9f8f7f6f5f4f3f2f1f0", "bfbebdbcbbbab9b8b7b6b5b4b3b2b1b0", "123456789a",
+                    counting(17), "6c1625db4671522d3d7599601de7ca09ed"},
+            {"16", "fffefdfcfbfaf9f8f7f6f5f4f3f2f1f0", "bfbebdbcbbbab9b8b7b6b5b4b3b2b1b0", "123456789a",
+                    counting(18), "d069444b7a7e0cab09e24447d24deb1fedbf"},
+            {"17", "fffefdfcfbfaf9f8f7f6f5f4f3f2f1f0", "bfbebdbcbbbab9b8b7b6b5b4b3b2b1b0", "123456789a",
+                    counting(19), "e5df1351c0544ba1350b3363cd8ef4beedbf9d"},
+            {"18", "fffefdfcfbfaf9f8f7f6f5f4f3f2f1f0", "bfbebdbcbbbab9b8b7b6b5b4b3b2b1b0", "123456789a",
+                    counting(20), "9d84c813f719aa2c7be3f66171c7c5c2edbf9dac"},
+    };
+
+    @Test
+    void ieeeVectors() {
+        for (CipherEngine engine : CipherEngines.available()) {
+            for (String[] vector : VECTORS) {
+                byte[] plain = hex.parseHex(vector[4]);
+                byte[] cipher = hex.parseHex(vector[5]);
+                long sector = Long.parseLong(vector[3], 16);
+                XtsMode xts = new XtsMode(ExpandedKey.of(hex.parseHex(vector[1])), ExpandedKey.of(hex.parseHex(vector[2])),
+                        (plain.length + 15) & ~15, engine);
+                String name = "vector " + vector[0] + ", " + engine.getName();
+
+                byte[] out = new byte[plain.length];
+                xts.encrypt(sector, plain, 0, out, 0, plain.length);
+                assertArrayEquals(cipher, out, name);
+                xts.decrypt(sector, out, 0, out, 0, out.length);
+                assertArrayEquals(plain, out, name);
+
+                ByteBuffer buffer = ByteBuffer.allocateDirect(plain.length).put(plain);
+                xts.encrypt(sector, buffer, 0, buffer, 0, plain.length);
+                assertArrayEquals(cipher, contents(buffer), name + ", direct buffer");
+                xts.decrypt(sector, buffer, 0, buffer, 0, plain.length);
+                assertArrayEquals(plain, contents(buffer), name + ", direct buffer");
+            }
+        }
+    }
+
+    /**
+     * Several batches of sectors and a short last one: the ByteBuffer variants, which encipher whole sectors
+     * between the buffers, must give the bytes of the array variant for any buffer kind and byte order.
+     */
+
+    @Test
+    void byteBuffersMatchArrays() {
+        Random random = new Random(5);
+        byte[] key1 = new byte[32];
+        byte[] key2 = new byte[32];
+        random.nextBytes(key1);
+        random.nextBytes(key2);
+        XtsMode xts = new XtsMode(ExpandedKey.of(key1), ExpandedKey.of(key2), XtsMode.DEFAULT_SECTOR_SIZE, CipherEngines.TABLE);
+        int length = 300 * XtsMode.DEFAULT_SECTOR_SIZE + 37;
+        byte[] plain = new byte[length];
+        random.nextBytes(plain);
+        byte[] expected = new byte[length];
+        xts.encrypt(7, plain, 0, expected, 0, length);
+
+        for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            ByteBuffer in = ByteBuffer.allocateDirect(length + 5).order(order);
+            ByteBuffer out = ByteBuffer.allocate(length + 11).order(order == ByteOrder.BIG_ENDIAN ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+            in.put(5, plain);
+            xts.encrypt(7, in, 5, out, 11, length);
+            assertArrayEquals(expected, Arrays.copyOfRange(out.array(), 11, 11 + length), order.toString());
+            xts.decrypt(7, out, 11, in, 5, length);
+            byte[] back = new byte[length];
+            in.get(5, back);
+            assertArrayEquals(plain, back, order.toString());
+            assertEquals(0, in.position());
+        }
+    }
+
+    private static byte[] contents(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.capacity()];
+        buffer.get(0, bytes);
+        return bytes;
+    }
+
+    /**
+     * The bytes 00 01 02 ... of the IEEE plaintexts, counting modulo 256.
+     */
+
+    private static String counting(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) i;
+        }
+        return hex.formatHex(bytes);
+    }
+}
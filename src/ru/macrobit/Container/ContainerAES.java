@@ -0,0 +1,153 @@
+package ru.macrobit.Container;
+
+import ru.macrobit.Engine.CipherEngine;
+import ru.macrobit.Engine.CipherEngines;
+import ru.macrobit.Engine.ExpandedKey;
+import ru.macrobit.Engine.KeyScheduleCache;
+import ru.macrobit.Sequential.SequentialAES.Mode;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Encrypts a file into a seekable container (see {@link ContainerHeader}) and decrypts all of it or any byte range.
+ * The keyFile holds only the key: the container keeps its own nonce, and the mode and chunk size are read back
+ * from the header when decrypting.
+ */
+
+public class ContainerAES {
+
+    private static final String newline = System.getProperty("line.separator");
+
+    private static byte[] key;
+    private static Mode mode = Mode.GCM;
+    private static int chunkSize = ContainerHeader.DEFAULT_CHUNK_SIZE;
+    private static long rangeOffset;
+    private static long rangeLength = -1; //The whole data unless -range is given.
+    private static String engineName = "auto";
+    private static CipherEngine engine;
+    private static String fileName = "";
+    private static String fileExtension = "";
+    private static String inputFile;
+    private static int keyFileIndex = 1;
+
+    /**
+     * args[0] should be either "e" or "d"
+     * followed by the optional arguments, in any order:
+     * -length => "128" or "256"
+     * -mode => "gcm" (default, every chunk carries a tag) or "ctr"; used when encrypting
+     * -chunk => plaintext bytes per chunk, a multiple of 16, defaults to 65536; used when encrypting
+     * -range => offset and length of the bytes to decrypt, e.g. "-range 1048576 4096"
+     * -engine => "auto" (default), "table", "bitsliced", "vector" or "jce", as in ParallelAES
+     * then the keyFile and the inputFile. "e" writes name_enc.ext, "d" reads name_enc.ext and writes name_dec.ext.
+     */
+
+    public static void main(String[] args) throws IOException {
+
+        long start = System.nanoTime();
+
+        getArgumentsFromCommandLine(args);
+        ExpandedKey expandedKey = KeyScheduleCache.shared().get(key);
+        if (args[0].equalsIgnoreCase("e")) {
+            encryption(expandedKey);
+        } else {
+            decryption(expandedKey);
+        }
+
+        long finish = System.nanoTime();
+        long nanoSeconds = finish - start;
+        double seconds = nanoSeconds / 1000000000.0;
+        System.out.println(String.format("Done: %.3f", seconds));
+    }
+
+    private static void encryption(ExpandedKey expandedKey) throws IOException {
+        Path outputFile = Paths.get(fileName + "_enc." + fileExtension);
+        try (InputStream inputStream = new FileInputStream(inputFile);
+             OutputStream outputStream = new ContainerOutputStream(FileChannel.open(outputFile, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE), expandedKey, mode, chunkSize, engine)) {
+            inputStream.transferTo(outputStream);
+        }
+    }
+
+    private static void decryption(ExpandedKey expandedKey) throws IOException {
+        Path outputFile = Paths.get(fileName + "_dec." + fileExtension);
+        try (ContainerReader reader = new ContainerReader(FileChannel.open(Paths.get(inputFile)), expandedKey, engine)) {
+            long length = rangeLength < 0 ? reader.length() : rangeLength;
+            try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(outputFile.toFile()))) {
+                reader.transferTo(rangeOffset, length, outputStream);
+            } catch (IOException e) {
+                Files.deleteIfExists(outputFile); //Unauthenticated plaintext must not be left behind.
+                throw e;
+            }
+        } catch (IOException e) {
+            System.err.println(e.getMessage() + newline);
+            System.exit(1);
+        }
+    }
+
+    private static void getArgumentsFromCommandLine(String[] args) {
+        int keySizeCheck = 128; //User's intended key size.
+        try {
+            if (!args[0].equalsIgnoreCase("e") && !args[0].equalsIgnoreCase("d")) {
+                throw new Exception("Usage: java ContainerAES e|d [-length n] [-mode gcm|ctr] [-chunk n] [-range offset length] [-engine name] keyFile inputFile");
+            }
+            while (args[keyFileIndex].startsWith("-")) { //Optional arguments precede the keyFile.
+                if (args[keyFileIndex].equals("-length")) {
+                    keySizeCheck = Integer.parseInt(args[keyFileIndex + 1]);
+                    keyFileIndex += 2;
+                } else if (args[keyFileIndex].equals("-mode")) {
+                    mode = Mode.valueOf(args[keyFileIndex + 1].toUpperCase());
+                    keyFileIndex += 2;
+                } else if (args[keyFileIndex].equals("-chunk")) {
+                    chunkSize = Integer.parseInt(args[keyFileIndex + 1]);
+                    keyFileIndex += 2;
+                } else if (args[keyFileIndex].equals("-range")) {
+                    rangeOffset = Long.parseLong(args[keyFileIndex + 1]);
+                    rangeLength = Long.parseLong(args[keyFileIndex + 2]);
+                    keyFileIndex += 3;
+                } else if (args[keyFileIndex].equals("-engine")) {
+                    engineName = args[keyFileIndex + 1].toLowerCase();
+                    keyFileIndex += 2;
+                } else {
+                    throw new Exception("Error: Unknown option " + args[keyFileIndex]);
+                }
+            }
+            if (mode != Mode.GCM && mode != Mode.CTR) {
+                throw new Exception("Error: A container holds gcm or ctr chunks.");
+            }
+            if (chunkSize <= 0 || chunkSize % 16 != 0 || chunkSize > ContainerHeader.MAX_CHUNK_SIZE) {
+                throw new Exception("Error: -chunk must be a positive multiple of 16 up to " + ContainerHeader.MAX_CHUNK_SIZE + ".");
+            }
+            if (rangeOffset < 0 || (rangeLength < 0 && rangeOffset != 0)) {
+                throw new Exception("Error: -range needs a non-negative offset and length.");
+            }
+            key = Files.readAllBytes(Paths.get(args[keyFileIndex]));
+            if (key.length * 8 != keySizeCheck) //Check to see if user's intended key size matches the size of key in file.
+            {
+                throw new Exception("Error: Attempting to use a " + key.length * 8 + "-bit key with AES-" + keySizeCheck);
+            }
+
+            fileName += args[keyFileIndex + 1];
+            int beginIndex = fileName.lastIndexOf(".");
+            fileExtension = fileName.substring(beginIndex + 1, fileName.length());
+            fileName = fileName.substring(0, beginIndex);
+
+            inputFile = args[0].equalsIgnoreCase("e") ? fileName + "." + fileExtension : fileName + "_enc." + fileExtension;
+            if (!Files.isRegularFile(Paths.get(inputFile))) {
+                throw new Exception("Error: There is no file " + inputFile);
+            }
+            try {
+                engine = CipherEngines.forName(engineName);
+            } catch (IllegalArgumentException e) {
+                throw new Exception("Error: " + e.getMessage());
+            }
+        } catch (Exception e) {
+            System.err.println(e.getMessage() + newline);
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package ru.macrobit.Container;
+
+import ru.macrobit.Engine.ExpandedKey;
+import ru.macrobit.Engine.GaloisCounterMode;
+import ru.macrobit.Sequential.SequentialAES.Mode;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+/**
+ * The fixed-size header at the start of a container, all numbers big-endian:
+ * <pre>
+ *  0  4  magic "AESC"
+ *  4  1  format version
+ *  5  1  mode: 1 = CTR, 2 = GCM
+ *  6  2  key size in bits
+ *  8  4  chunk size: plaintext bytes per chunk, a multiple of 16
+ * 12  8  length of the original data
+ * 20  8  offset of the index
+ * 28  8  nonce, random per container
+ * 36  8  key check value
+ * </pre>
+ * The chunks follow the header, each the ciphertext of chunkSize plaintext bytes (less for the last one)
+ * followed by its tag in GCM. The index at the end of the file holds the 8-byte offset of every chunk.
+ * An empty input still has one, empty, chunk.
+ * <p>
+ * Chunk i is encrypted on its own from the counter block nonce || i' || 0, where i' is i with the top bit set
+ * for the last chunk. In GCM the first 12 bytes of that block are the IV, so a chunk that is moved, or a
+ * container cut short at a chunk boundary, fails authentication. The key check value is the first 8 bytes of
+ * E(K, nonce || FFFFFFFF || 0), a block no chunk ever uses.
+ */
+
+public final class ContainerHeader {
+
+    public static final int LENGTH = 44;
+    public static final int VERSION = 1;
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    public static final int MAX_CHUNK_SIZE = 1 << 30;
+
+    static final long MAX_CHUNKS = 0x7FFFFFFFL; //The chunk number has 31 bits; the top bit marks the last chunk.
+
+    private static final int MAGIC = 0x41455343; //"AESC"
+    private static final int KEY_CHECK_LENGTH = 8;
+    private static final int FINAL_CHUNK = 0x80000000;
+    private static final int KEY_CHECK_CHUNK = 0xFFFFFFFF;
+
+    private final Mode mode;
+    private final int keyBits;
+    private final int chunkSize;
+    private final long length;
+    private final long indexOffset;
+    private final byte[] nonce;
+    private final byte[] keyCheck;
+
+    private ContainerHeader(Mode mode, int keyBits, int chunkSize, long length, long indexOffset, byte[] nonce, byte[] keyCheck) {
+        this.mode = mode;
+        this.keyBits = keyBits;
+        this.chunkSize = chunkSize;
+        this.length = length;
+        this.indexOffset = indexOffset;
+        this.nonce = nonce;
+        this.keyCheck = keyCheck;
+    }
+
+    /**
+     * A header for a new container, with a fresh nonce; the length and the index offset are filled in
+     * by {@link #complete} once all the data is written.
+     */
+
+    static ContainerHeader create(ExpandedKey key, Mode mode, int chunkSize) {
+        if (mode != Mode.CTR && mode != Mode.GCM) {
+            throw new IllegalArgumentException("A container holds ctr or gcm chunks, not " + mode);
+        }
+        if (chunkSize <= 0 || chunkSize % 16 != 0 || chunkSize > MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Chunk size must be a positive multiple of 16 up to " + MAX_CHUNK_SIZE + ": " + chunkSize);
+        }
+        byte[] nonce = new byte[8];
+        new SecureRandom().nextBytes(nonce);
+        return new ContainerHeader(mode, 8 * key.getKeyLength(), chunkSize, 0, 0, nonce, keyCheck(key, nonce));
+    }
+
+    ContainerHeader complete(long length, long indexOffset) {
+        return new ContainerHeader(mode, keyBits, chunkSize, length, indexOffset, nonce, keyCheck);
+    }
+
+    /**
+     * @throws IOException if the bytes are not a header of a supported version
+     */
+
+    static ContainerHeader read(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < LENGTH || buffer.getInt() != MAGIC) {
+            throw new IOException("Error: The input is not an AES container.");
+        }
+        int version = buffer.get();
+        if (version != VERSION) {
+            throw new IOException("Error: Unsupported container version " + version + ".");
+        }
+        int code = buffer.get();
+        Mode mode = code == 1 ? Mode.CTR : code == 2 ? Mode.GCM : null;
+        int keyBits = buffer.getShort() & 0xFFFF;
+        int chunkSize = buffer.getInt();
+        long length = buffer.getLong();
+        long indexOffset = buffer.getLong();
+        byte[] nonce = new byte[8];
+        buffer.get(nonce);
+        byte[] keyCheck = new byte[KEY_CHECK_LENGTH];
+        buffer.get(keyCheck);
+        if (mode == null || chunkSize <= 0 || chunkSize % 16 != 0 || chunkSize > MAX_CHUNK_SIZE || length < 0
+                || indexOffset < LENGTH || (length + chunkSize - 1) / chunkSize > MAX_CHUNKS) {
+            throw new IOException("Error: The container header is corrupt.");
+        }
+        return new ContainerHeader(mode, keyBits, chunkSize, length, indexOffset, nonce, keyCheck);
+    }
+
+    void write(ByteBuffer buffer) {
+        buffer.putInt(MAGIC);
+        buffer.put((byte) VERSION);
+        buffer.put((byte) (mode == Mode.CTR ? 1 : 2));
+        buffer.putShort((short) keyBits);
+        buffer.putInt(chunkSize);
+        buffer.putLong(length);
+        buffer.putLong(indexOffset);
+        buffer.put(nonce);
+        buffer.put(keyCheck);
+    }
+
+    /**
+     * Compares the key check values in constant time; a wrong key is noticed before any chunk is read.
+     */
+
+    public boolean matches(ExpandedKey key) {
+        return 8 * key.getKeyLength() == keyBits && MessageDigest.isEqual(keyCheck, keyCheck(key, nonce));
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public int getKeyBits() {
+        return keyBits;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @return length of the original data
+     */
+
+    public long getLength() {
+        return length;
+    }
+
+    long getIndexOffset() {
+        return indexOffset;
+    }
+
+    long chunkCount() {
+        return Math.max(1, (length + chunkSize - 1) / chunkSize);
+    }
+
+    /**
+     * @return plaintext bytes in the chunk
+     */
+
+    int chunkLength(long chunk) {
+        return (int) Math.min(chunkSize, length - chunk * chunkSize);
+    }
+
+    /**
+     * @return bytes added to every chunk: the tag in GCM
+     */
+
+    int overhead() {
+        return mode == Mode.GCM ? GaloisCounterMode.TAG_LENGTH : 0;
+    }
+
+    /**
+     * The initial counter block of the chunk, also its GCM IV (first 12 bytes).
+     */
+
+    byte[] chunkIv(long chunk, boolean last) {
+        return counterBlock(nonce, (int) chunk | (last ? FINAL_CHUNK : 0));
+    }
+
+    private static byte[] keyCheck(ExpandedKey key, byte[] nonce) {
+        byte[] block = counterBlock(nonce, KEY_CHECK_CHUNK);
+        key.encryptBlocks(block, 0, block, 0, 1);
+        byte[] keyCheck = new byte[KEY_CHECK_LENGTH];
+        System.arraycopy(block, 0, keyCheck, 0, KEY_CHECK_LENGTH);
+        return keyCheck;
+    }
+
+    private static byte[] counterBlock(byte[] nonce, int chunk) {
+        return ByteBuffer.allocate(16).put(nonce).putInt(chunk).array();
+    }
+}
@@ -0,0 +1,136 @@
+package ru.macrobit.Container;
+
+import ru.macrobit.Engine.CipherEngine;
+import ru.macrobit.Engine.CounterMode;
+import ru.macrobit.Engine.ExpandedKey;
+import ru.macrobit.Engine.GaloisCounterMode;
+import ru.macrobit.Sequential.SequentialAES.Mode;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Writes a container (see {@link ContainerHeader}) to a file: the data is cut into chunks that are encrypted
+ * one by one as they fill up. A full chunk is held back until more data arrives, as the last chunk is
+ * encrypted differently. The index and the final header are written by {@link #close()}, which also closes
+ * the channel; a container that was not closed cannot be read.
+ */
+
+public class ContainerOutputStream extends OutputStream {
+
+    private final FileChannel out;
+    private final ExpandedKey key;
+    private final CipherEngine engine;
+    private final GaloisCounterMode gcm;
+    private ContainerHeader header;
+    private final byte[] chunk;
+    private int filled;
+    private long chunks;
+    private long length;
+    private long position = ContainerHeader.LENGTH;
+    private long[] offsets = new long[16];
+    private boolean closed;
+
+    /**
+     * @param out       an empty file, written from offset 0
+     * @param mode      CTR or GCM
+     * @param chunkSize plaintext bytes per chunk, a multiple of 16; {@link ContainerHeader#DEFAULT_CHUNK_SIZE}
+     *                  suits random reads of a few KB
+     * @param engine    engine that generates the keystream
+     */
+
+    public ContainerOutputStream(FileChannel out, ExpandedKey key, Mode mode, int chunkSize, CipherEngine engine) throws IOException {
+        this.out = out;
+        this.key = key;
+        this.engine = engine;
+        this.header = ContainerHeader.create(key, mode, chunkSize);
+        this.gcm = mode == Mode.GCM ? new GaloisCounterMode(key, new byte[GaloisCounterMode.IV_LENGTH]) : null;
+        this.chunk = new byte[chunkSize + header.overhead()];
+        writeFully(ByteBuffer.allocate(ContainerHeader.LENGTH), 0); //Placeholder until close().
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Error: The container is closed.");
+        }
+        while (len > 0) {
+            if (filled == header.getChunkSize()) {
+                seal(false);
+            }
+            int n = Math.min(len, header.getChunkSize() - filled);
+            System.arraycopy(b, off, chunk, filled, n);
+            filled += n;
+            length += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            seal(true);
+            long indexOffset = position;
+            ByteBuffer index = ByteBuffer.allocate(8 * (int) Math.min(chunks, 1 << 16));
+            for (long i = 0; i < chunks; i++) {
+                index.putLong(offsets[(int) i]);
+                if (!index.hasRemaining() || i == chunks - 1) {
+                    index.flip();
+                    writeFully(index, position);
+                    position += index.limit();
+                    index.clear();
+                }
+            }
+            header = header.complete(length, indexOffset);
+            ByteBuffer bytes = ByteBuffer.allocate(ContainerHeader.LENGTH);
+            header.write(bytes);
+            bytes.flip();
+            writeFully(bytes, 0);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void seal(boolean last) throws IOException {
+        if (chunks == ContainerHeader.MAX_CHUNKS) {
+            throw new IOException("Error: The input needs more than " + ContainerHeader.MAX_CHUNKS + " chunks, use a larger chunk size.");
+        }
+        byte[] iv = header.chunkIv(chunks, last);
+        int stored = filled;
+        if (gcm != null) {
+            GaloisCounterMode chunkGcm = gcm.withIv(iv);
+            new CounterMode(key, chunkGcm.counter(), engine).process(0, chunk, 0, chunk, 0, filled);
+            chunkGcm.ghash().update(chunk, 0, filled);
+            System.arraycopy(chunkGcm.tag(filled), 0, chunk, filled, GaloisCounterMode.TAG_LENGTH);
+            stored += GaloisCounterMode.TAG_LENGTH;
+        } else {
+            new CounterMode(key, iv, engine).process(0, chunk, 0, chunk, 0, filled);
+        }
+        if (chunks == offsets.length) {
+            offsets = Arrays.copyOf(offsets, 2 * offsets.length);
+        }
+        offsets[(int) chunks++] = position;
+        writeFully(ByteBuffer.wrap(chunk, 0, stored), position);
+        position += stored;
+        filled = 0;
+    }
+
+    private void writeFully(ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            offset += out.write(buffer, offset);
+        }
+    }
+}
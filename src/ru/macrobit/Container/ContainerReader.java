@@ -0,0 +1,169 @@
+package ru.macrobit.Container;
+
+import ru.macrobit.Engine.CipherEngine;
+import ru.macrobit.Engine.CounterMode;
+import ru.macrobit.Engine.ExpandedKey;
+import ru.macrobit.Engine.GaloisCounterMode;
+import ru.macrobit.Sequential.SequentialAES.Mode;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Random access to the original data of a container (see {@link ContainerHeader}). A read touches only the
+ * chunks that cover the requested range: in CTR only the requested bytes are read from the file, in GCM the
+ * whole chunk is read and authenticated before any of it is returned. Reads use positional I/O and may come
+ * from several threads at once.
+ */
+
+public class ContainerReader implements Closeable {
+
+    private final FileChannel in;
+    private final ExpandedKey key;
+    private final CipherEngine engine;
+    private final ContainerHeader header;
+    private final GaloisCounterMode gcm;
+    private final ThreadLocal<byte[]> chunk;
+
+    /**
+     * Reads the header and checks the key against it.
+     *
+     * @throws IOException if the file is not a complete container or the key does not match
+     */
+
+    public ContainerReader(FileChannel in, ExpandedKey key, CipherEngine engine) throws IOException {
+        this.in = in;
+        this.key = key;
+        this.engine = engine;
+        ByteBuffer bytes = ByteBuffer.allocate(ContainerHeader.LENGTH);
+        readFully(bytes, 0);
+        bytes.flip();
+        this.header = ContainerHeader.read(bytes);
+        if (!header.matches(key)) {
+            throw new IOException("Error: The key does not match the container.");
+        }
+        if (in.size() != header.getIndexOffset() + 8 * header.chunkCount()) {
+            throw new IOException("Error: The container is truncated or corrupt.");
+        }
+        this.gcm = header.getMode() == Mode.GCM ? new GaloisCounterMode(key, new byte[GaloisCounterMode.IV_LENGTH]) : null;
+        int chunkSize = header.getChunkSize() + header.overhead();
+        this.chunk = ThreadLocal.withInitial(() -> new byte[chunkSize]);
+    }
+
+    public ContainerHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * @return length of the original data
+     */
+
+    public long length() {
+        return header.getLength();
+    }
+
+    /**
+     * Decrypts up to {@code len} bytes of the original data starting at {@code position}.
+     *
+     * @return the number of bytes read, less than {@code len} only at the end of the data, or -1 if
+     * {@code position} is at or past the end
+     * @throws IOException if a GCM chunk fails authentication or the index is inconsistent
+     */
+
+    public int read(long position, byte[] b, int off, int len) throws IOException {
+        if (position < 0) {
+            throw new IllegalArgumentException("Negative position " + position);
+        }
+        if (position >= header.getLength()) {
+            return len == 0 ? 0 : -1;
+        }
+        len = (int) Math.min(len, header.getLength() - position);
+        int chunkSize = header.getChunkSize();
+        int done = 0;
+        while (done < len) {
+            long chunkIndex = (position + done) / chunkSize;
+            int from = (int) ((position + done) % chunkSize);
+            int n = Math.min(len - done, chunkSize - from);
+            readChunk(chunkIndex, from, b, off + done, n);
+            done += n;
+        }
+        return len;
+    }
+
+    /**
+     * Decrypts {@code length} bytes starting at {@code position} to {@code out}, one chunk at a time.
+     *
+     * @throws EOFException if the range goes past the end of the data
+     */
+
+    public void transferTo(long position, long length, OutputStream out) throws IOException {
+        if (position + length > header.getLength()) {
+            throw new EOFException("Error: The range ends past the end of the data (" + header.getLength() + " bytes).");
+        }
+        byte[] buffer = new byte[header.getChunkSize()];
+        while (length > 0) {
+            int n = read(position, buffer, 0, (int) Math.min(buffer.length, length));
+            out.write(buffer, 0, n);
+            position += n;
+            length -= n;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void readChunk(long chunkIndex, int from, byte[] b, int off, int n) throws IOException {
+        boolean last = chunkIndex == header.chunkCount() - 1;
+        int plain = header.chunkLength(chunkIndex);
+        long start = chunkOffset(chunkIndex, plain);
+        byte[] iv = header.chunkIv(chunkIndex, last);
+        if (gcm == null) {
+            ByteBuffer range = ByteBuffer.wrap(b, off, n);
+            readFully(range, start + from);
+            new CounterMode(key, iv, engine).process(from, b, off, b, off, n);
+            return;
+        }
+        byte[] stored = chunk.get();
+        readFully(ByteBuffer.wrap(stored, 0, plain + GaloisCounterMode.TAG_LENGTH), start);
+        GaloisCounterMode chunkGcm = gcm.withIv(iv);
+        chunkGcm.ghash().update(stored, 0, plain);
+        byte[] tag = new byte[GaloisCounterMode.TAG_LENGTH];
+        System.arraycopy(stored, plain, tag, 0, GaloisCounterMode.TAG_LENGTH);
+        if (!chunkGcm.verify(tag, plain)) {
+            throw new IOException("Error: GCM authentication failed for chunk " + chunkIndex + ", the container is corrupt or the key is wrong.");
+        }
+        new CounterMode(key, chunkGcm.counter(), engine).process(from, stored, from, b, off, n);
+    }
+
+    /**
+     * Looks the chunk up in the index and checks that its stored length is the expected one.
+     */
+
+    private long chunkOffset(long chunkIndex, int plain) throws IOException {
+        boolean last = chunkIndex == header.chunkCount() - 1;
+        ByteBuffer entries = ByteBuffer.allocate(last ? 8 : 16);
+        readFully(entries, header.getIndexOffset() + 8 * chunkIndex);
+        long start = entries.getLong(0);
+        long end = last ? header.getIndexOffset() : entries.getLong(8);
+        if (start < ContainerHeader.LENGTH || end - start != plain + header.overhead()) {
+            throw new IOException("Error: The container index is corrupt at chunk " + chunkIndex + ".");
+        }
+        return start;
+    }
+
+    private void readFully(ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = in.read(buffer, offset);
+            if (n < 0) {
+                throw new EOFException("Error: The container is truncated.");
+            }
+            offset += n;
+        }
+    }
+}
@@ -0,0 +1,505 @@
+package ru.macrobit.Engine;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Constant-time bitsliced AES. 64 blocks are transposed into 128 long words, one word per bit of the
+ * 16-byte state, with bit k of every word belonging to block k. SubBytes is evaluated as a boolean
+ * circuit (Boyar-Peralta), ShiftRows is a re-indexing and MixColumns is XORs on bit planes, so no
+ * memory access and no branch depends on key or data.
+ * <p>
+ * Within a state byte the eight planes are stored most significant bit first: plane {@code 8 * byte + i}
+ * holds bit {@code 7 - i}. Groups shorter than 64 blocks are padded with zero blocks, which costs as much
+ * as a full group.
+ */
+
+public final class BitslicedEngine {
+
+    public static final int PARALLEL_BLOCKS = 64;
+
+    /**
+     * Source byte of each state byte after ShiftRows and InvShiftRows (byte index = row + 4 * column).
+     */
+
+    private static final int[] SHIFT_ROWS = new int[16];
+    private static final int[] INV_SHIFT_ROWS = new int[16];
+    private static final int[] NO_SHIFT = new int[16];
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private static final long[] ZERO_KEY = new long[128];
+
+    private static final ThreadLocal<long[]> SCRATCH = ThreadLocal.withInitial(() -> new long[256]);
+
+    static {
+        for (int r = 0; r < 4; r++) {
+            for (int c = 0; c < 4; c++) {
+                SHIFT_ROWS[r + 4 * c] = r + 4 * ((c + r) & 3);
+                INV_SHIFT_ROWS[r + 4 * c] = r + 4 * ((c - r) & 3);
+                NO_SHIFT[r + 4 * c] = r + 4 * c;
+            }
+        }
+    }
+
+    private BitslicedEngine() {
+    }
+
+    public static void encryptBlocks(ExpandedKey key, byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+        long[] rk = key.bitslicedKey();
+        long[] s = SCRATCH.get();
+        while (blocks > 0) {
+            int n = Math.min(blocks, PARALLEL_BLOCKS);
+            load(s, in, inOff, n);
+            encrypt(rk, s);
+            store(s, out, outOff, n);
+            inOff += 16 * n;
+            outOff += 16 * n;
+            blocks -= n;
+        }
+    }
+
+    public static void decryptBlocks(ExpandedKey key, byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+        long[] rk = key.bitslicedKey();
+        long[] s = SCRATCH.get();
+        while (blocks > 0) {
+            int n = Math.min(blocks, PARALLEL_BLOCKS);
+            load(s, in, inOff, n);
+            decrypt(rk, s);
+            store(s, out, outOff, n);
+            inOff += 16 * n;
+            outOff += 16 * n;
+            blocks -= n;
+        }
+    }
+
+    /**
+     * Buffer variants work at absolute indices; positions and limits are not used.
+     */
+
+    public static void encryptBlocks(ExpandedKey key, ByteBuffer in, int inOff, ByteBuffer out, int outOff, int blocks) {
+        long[] rk = key.bitslicedKey();
+        long[] s = SCRATCH.get();
+        while (blocks > 0) {
+            int n = Math.min(blocks, PARALLEL_BLOCKS);
+            load(s, in, inOff, n);
+            encrypt(rk, s);
+            store(s, out, outOff, n);
+            inOff += 16 * n;
+            outOff += 16 * n;
+            blocks -= n;
+        }
+    }
+
+    public static void decryptBlocks(ExpandedKey key, ByteBuffer in, int inOff, ByteBuffer out, int outOff, int blocks) {
+        long[] rk = key.bitslicedKey();
+        long[] s = SCRATCH.get();
+        while (blocks > 0) {
+            int n = Math.min(blocks, PARALLEL_BLOCKS);
+            load(s, in, inOff, n);
+            decrypt(rk, s);
+            store(s, out, outOff, n);
+            inOff += 16 * n;
+            outOff += 16 * n;
+            blocks -= n;
+        }
+    }
+
+    /**
+     * Broadcasts every bit of the encryption round keys to a full word: 128 words per round key.
+     */
+
+    static long[] bitsliceKey(int[] encryptionKey) {
+        final int rounds = encryptionKey.length / 4 - 1;
+        long[] rk = new long[128 * (rounds + 1)];
+        for (int round = 0; round <= rounds; round++) {
+            for (int c = 0; c < 4; c++) {
+                int w = encryptionKey[4 * round + c];
+                for (int r = 0; r < 4; r++) {
+                    int b = (w >>> (24 - 8 * r)) & 0xff;
+                    int base = 128 * round + 8 * (r + 4 * c);
+                    for (int i = 0; i < 8; i++) {
+                        rk[base + i] = -(long) ((b >>> (7 - i)) & 1);
+                    }
+                }
+            }
+        }
+        return rk;
+    }
+
+    private static void encrypt(long[] rk, long[] s) {
+        final int rounds = rk.length / 128 - 1;
+        addRoundKey(s, 0, rk, 0);
+        int cur = 0;
+        for (int round = 1; round < rounds; round++) {
+            subBytes(s, cur);
+            mixColumns(s, cur, s, 128 - cur, SHIFT_ROWS, rk, 128 * round);
+            cur = 128 - cur;
+        }
+        subBytes(s, cur);
+        shiftRows(s, cur, s, 128 - cur, SHIFT_ROWS);
+        cur = 128 - cur;
+        addRoundKey(s, cur, rk, rounds);
+        if (cur != 0) {
+            System.arraycopy(s, cur, s, 0, 128);
+        }
+    }
+
+    private static void decrypt(long[] rk, long[] s) {
+        final int rounds = rk.length / 128 - 1;
+        addRoundKey(s, 0, rk, rounds);
+        for (int round = rounds - 1; round > 0; round--) {
+            shiftRows(s, 0, s, 128, INV_SHIFT_ROWS);
+            invSubBytes(s, 128);
+            addRoundKey(s, 128, rk, round);
+            invMixColumns(s, 128, s, 0);
+        }
+        shiftRows(s, 0, s, 128, INV_SHIFT_ROWS);
+        invSubBytes(s, 128);
+        addRoundKey(s, 128, rk, 0);
+        System.arraycopy(s, 128, s, 0, 128);
+    }
+
+    private static void addRoundKey(long[] s, int off, long[] rk, int round) {
+        int k = 128 * round;
+        for (int i = 0; i < 128; i++) {
+            s[off + i] ^= rk[k + i];
+        }
+    }
+
+    private static void shiftRows(long[] src, int srcOff, long[] dst, int dstOff, int[] shift) {
+        for (int b = 0; b < 16; b++) {
+            System.arraycopy(src, srcOff + 8 * shift[b], dst, dstOff + 8 * b, 8);
+        }
+    }
+
+    /**
+     * ShiftRows (as given by {@code shift}), MixColumns and AddRoundKey with rk[rkOff..], from src into dst.
+     */
+
+    private static void mixColumns(long[] src, int srcOff, long[] dst, int dstOff, int[] shift, long[] rk, int rkOff) {
+        for (int c = 0; c < 4; c++) {
+            int a0 = srcOff + 8 * shift[4 * c];
+            int a1 = srcOff + 8 * shift[4 * c + 1];
+            int a2 = srcOff + 8 * shift[4 * c + 2];
+            int a3 = srcOff + 8 * shift[4 * c + 3];
+            int d = 32 * c;
+            mixRow(src, a0, a1, a2, a3, dst, dstOff + d, rk, rkOff + d);
+            mixRow(src, a1, a2, a3, a0, dst, dstOff + d + 8, rk, rkOff + d + 8);
+            mixRow(src, a2, a3, a0, a1, dst, dstOff + d + 16, rk, rkOff + d + 16);
+            mixRow(src, a3, a0, a1, a2, dst, dstOff + d + 24, rk, rkOff + d + 24);
+        }
+    }
+
+    /**
+     * One output byte of MixColumns: xtime(a ^ b) ^ b ^ c ^ d, plus the round key byte.
+     */
+
+    private static void mixRow(long[] s, int a, int b, int c, int d, long[] dst, int o, long[] rk, int k) {
+        long t0 = s[a] ^ s[b];
+        dst[o] = s[a + 1] ^ s[b + 1] ^ s[b] ^ s[c] ^ s[d] ^ rk[k];
+        dst[o + 1] = s[a + 2] ^ s[b + 2] ^ s[b + 1] ^ s[c + 1] ^ s[d + 1] ^ rk[k + 1];
+        dst[o + 2] = s[a + 3] ^ s[b + 3] ^ s[b + 2] ^ s[c + 2] ^ s[d + 2] ^ rk[k + 2];
+        dst[o + 3] = s[a + 4] ^ s[b + 4] ^ t0 ^ s[b + 3] ^ s[c + 3] ^ s[d + 3] ^ rk[k + 3];
+        dst[o + 4] = s[a + 5] ^ s[b + 5] ^ t0 ^ s[b + 4] ^ s[c + 4] ^ s[d + 4] ^ rk[k + 4];
+        dst[o + 5] = s[a + 6] ^ s[b + 6] ^ s[b + 5] ^ s[c + 5] ^ s[d + 5] ^ rk[k + 5];
+        dst[o + 6] = s[a + 7] ^ s[b + 7] ^ t0 ^ s[b + 6] ^ s[c + 6] ^ s[d + 6] ^ rk[k + 6];
+        dst[o + 7] = t0 ^ s[b + 7] ^ s[c + 7] ^ s[d + 7] ^ rk[k + 7];
+    }
+
+    /**
+     * InvMixColumns as a preprocessing step followed by MixColumns:
+     * a0 ^= u, a2 ^= u, a1 ^= v, a3 ^= v with u = xtime^2(a0 ^ a2), v = xtime^2(a1 ^ a3).
+     */
+
+    private static void invMixColumns(long[] src, int srcOff, long[] dst, int dstOff) {
+        for (int c = 0; c < 4; c++) {
+            int a0 = srcOff + 32 * c;
+            xtime2(src, a0, a0 + 16);
+            xtime2(src, a0 + 8, a0 + 24);
+        }
+        mixColumns(src, srcOff, dst, dstOff, NO_SHIFT, ZERO_KEY, 0);
+    }
+
+    /**
+     * u = xtime(xtime(s[a] ^ s[b])), XORed into both s[a] and s[b].
+     */
+
+    private static void xtime2(long[] s, int a, int b) {
+        long t0 = s[a] ^ s[b], t1 = s[a + 1] ^ s[b + 1], t2 = s[a + 2] ^ s[b + 2], t3 = s[a + 3] ^ s[b + 3];
+        long t4 = s[a + 4] ^ s[b + 4], t5 = s[a + 5] ^ s[b + 5], t6 = s[a + 6] ^ s[b + 6], t7 = s[a + 7] ^ s[b + 7];
+        //Planes are MSB first: xtime shifts towards index 0 and folds t0 back in at 3, 4, 6 and 7.
+        long u0 = t2, u1 = t3, u2 = t4 ^ t0, u3 = t5 ^ t1 ^ t0, u4 = t6 ^ t1, u5 = t7 ^ t0;
+        long u6 = t0 ^ t1, u7 = t1;
+        s[a] ^= u0;
+        s[b] ^= u0;
+        s[a + 1] ^= u1;
+        s[b + 1] ^= u1;
+        s[a + 2] ^= u2;
+        s[b + 2] ^= u2;
+        s[a + 3] ^= u3;
+        s[b + 3] ^= u3;
+        s[a + 4] ^= u4;
+        s[b + 4] ^= u4;
+        s[a + 5] ^= u5;
+        s[b + 5] ^= u5;
+        s[a + 6] ^= u6;
+        s[b + 6] ^= u6;
+        s[a + 7] ^= u7;
+        s[b + 7] ^= u7;
+    }
+
+    private static void subBytes(long[] s, int off) {
+        for (int b = 0; b < 16; b++) {
+            sbox(s, off + 8 * b);
+        }
+    }
+
+    /**
+     * S^-1(x) = B(S(B(x ^ 0x63)) ^ 0x63), where B is the inverse of the affine map of the S-box.
+     */
+
+    private static void invSubBytes(long[] s, int off) {
+        for (int b = 0; b < 16; b++) {
+            int p = off + 8 * b;
+            invAffine(s, p);
+            sbox(s, p);
+            invAffine(s, p);
+        }
+    }
+
+    /**
+     * x -> B(x ^ 0x63) on MSB-first planes.
+     */
+
+    private static void invAffine(long[] s, int p) {
+        long q0 = ~s[p + 7], q1 = ~s[p + 6], q2 = s[p + 5], q3 = s[p + 4];
+        long q4 = s[p + 3], q5 = ~s[p + 2], q6 = ~s[p + 1], q7 = s[p];
+        s[p] = q1 ^ q4 ^ q6;
+        s[p + 1] = q0 ^ q3 ^ q5;
+        s[p + 2] = q7 ^ q2 ^ q4;
+        s[p + 3] = q6 ^ q1 ^ q3;
+        s[p + 4] = q5 ^ q0 ^ q2;
+        s[p + 5] = q4 ^ q7 ^ q1;
+        s[p + 6] = q3 ^ q6 ^ q0;
+        s[p + 7] = q2 ^ q5 ^ q7;
+    }
+
+    /**
+     * Boyar-Peralta S-box circuit (113 gates) on the eight planes of one state byte, x0 = most significant bit.
+     */
+
+    private static void sbox(long[] s, int p) {
+        long x0 = s[p], x1 = s[p + 1], x2 = s[p + 2], x3 = s[p + 3];
+        long x4 = s[p + 4], x5 = s[p + 5], x6 = s[p + 6], x7 = s[p + 7];
+
+        //Top linear transformation.
+        long y14 = x3 ^ x5;
+        long y13 = x0 ^ x6;
+        long y9 = x0 ^ x3;
+        long y8 = x0 ^ x5;
+        long t0 = x1 ^ x2;
+        long y1 = t0 ^ x7;
+        long y4 = y1 ^ x3;
+        long y12 = y13 ^ y14;
+        long y2 = y1 ^ x0;
+        long y5 = y1 ^ x6;
+        long y3 = y5 ^ y8;
+        long t1 = x4 ^ y12;
+        long y15 = t1 ^ x5;
+        long y20 = t1 ^ x1;
+        long y6 = y15 ^ x7;
+        long y10 = y15 ^ t0;
+        long y11 = y20 ^ y9;
+        long y7 = x7 ^ y11;
+        long y17 = y10 ^ y11;
+        long y19 = y10 ^ y8;
+        long y16 = t0 ^ y11;
+        long y21 = y13 ^ y16;
+        long y18 = x0 ^ y16;
+
+        //Non-linear section.
+        long t2 = y12 & y15;
+        long t3 = y3 & y6;
+        long t4 = t3 ^ t2;
+        long t5 = y4 & x7;
+        long t6 = t5 ^ t2;
+        long t7 = y13 & y16;
+        long t8 = y5 & y1;
+        long t9 = t8 ^ t7;
+        long t10 = y2 & y7;
+        long t11 = t10 ^ t7;
+        long t12 = y9 & y11;
+        long t13 = y14 & y17;
+        long t14 = t13 ^ t12;
+        long t15 = y8 & y10;
+        long t16 = t15 ^ t12;
+        long t17 = t4 ^ t14;
+        long t18 = t6 ^ t16;
+        long t19 = t9 ^ t14;
+        long t20 = t11 ^ t16;
+        long t21 = t17 ^ y20;
+        long t22 = t18 ^ y19;
+        long t23 = t19 ^ y21;
+        long t24 = t20 ^ y18;
+
+        long t25 = t21 ^ t22;
+        long t26 = t21 & t23;
+        long t27 = t24 ^ t26;
+        long t28 = t25 & t27;
+        long t29 = t28 ^ t22;
+        long t30 = t23 ^ t24;
+        long t31 = t22 ^ t26;
+        long t32 = t31 & t30;
+        long t33 = t32 ^ t24;
+        long t34 = t23 ^ t33;
+        long t35 = t27 ^ t33;
+        long t36 = t24 & t35;
+        long t37 = t36 ^ t34;
+        long t38 = t27 ^ t36;
+        long t39 = t29 & t38;
+        long t40 = t25 ^ t39;
+
+        long t41 = t40 ^ t37;
+        long t42 = t29 ^ t33;
+        long t43 = t29 ^ t40;
+        long t44 = t33 ^ t37;
+        long t45 = t42 ^ t41;
+        long z0 = t44 & y15;
+        long z1 = t37 & y6;
+        long z2 = t33 & x7;
+        long z3 = t43 & y16;
+        long z4 = t40 & y1;
+        long z5 = t29 & y7;
+        long z6 = t42 & y11;
+        long z7 = t45 & y17;
+        long z8 = t41 & y10;
+        long z9 = t44 & y12;
+        long z10 = t37 & y3;
+        long z11 = t33 & y4;
+        long z12 = t43 & y13;
+        long z13 = t40 & y5;
+        long z14 = t29 & y2;
+        long z15 = t42 & y9;
+        long z16 = t45 & y14;
+        long z17 = t41 & y8;
+
+        //Bottom linear transformation.
+        long t46 = z15 ^ z16;
+        long t47 = z10 ^ z11;
+        long t48 = z5 ^ z13;
+        long t49 = z9 ^ z10;
+        long t50 = z2 ^ z12;
+        long t51 = z2 ^ z5;
+        long t52 = z7 ^ z8;
+        long t53 = z0 ^ z3;
+        long t54 = z6 ^ z7;
+        long t55 = z16 ^ z17;
+        long t56 = z12 ^ t48;
+        long t57 = t50 ^ t53;
+        long t58 = z4 ^ t46;
+        long t59 = z3 ^ t54;
+        long t60 = t46 ^ t57;
+        long t61 = z14 ^ t57;
+        long t62 = t52 ^ t58;
+        long t63 = t49 ^ t58;
+        long t64 = z4 ^ t59;
+        long t65 = t61 ^ t62;
+        long t66 = z1 ^ t63;
+        long s0 = t59 ^ t63;
+        long s6 = t56 ^ ~t62;
+        long s7 = t48 ^ ~t60;
+        long t67 = t64 ^ t65;
+        long s3 = t53 ^ t66;
+        long s4 = t51 ^ t66;
+        long s5 = t47 ^ t65;
+        long s1 = t64 ^ ~s3;
+        long s2 = t55 ^ ~t67;
+
+        s[p] = s0;
+        s[p + 1] = s1;
+        s[p + 2] = s2;
+        s[p + 3] = s3;
+        s[p + 4] = s4;
+        s[p + 5] = s5;
+        s[p + 6] = s6;
+        s[p + 7] = s7;
+    }
+
+    /**
+     * Reads n blocks as 64 x 64 bit matrices (first and second half of each block) and transposes them,
+     * so s[c] (and s[64 + c]) collects bit c, counted from the most significant, of every block.
+     */
+
+    private static void load(long[] s, byte[] in, int inOff, int n) {
+        for (int k = 0; k < n; k++) {
+            s[k] = (long) LONGS.get(in, inOff + 16 * k);
+            s[64 + k] = (long) LONGS.get(in, inOff + 16 * k + 8);
+        }
+        for (int k = n; k < 64; k++) {
+            s[k] = 0;
+            s[64 + k] = 0;
+        }
+        transpose(s, 0);
+        transpose(s, 64);
+    }
+
+    private static void store(long[] s, byte[] out, int outOff, int n) {
+        transpose(s, 0);
+        transpose(s, 64);
+        for (int k = 0; k < n; k++) {
+            LONGS.set(out, outOff + 16 * k, s[k]);
+            LONGS.set(out, outOff + 16 * k + 8, s[64 + k]);
+        }
+    }
+
+    private static void load(long[] s, ByteBuffer in, int inOff, int n) {
+        boolean swap = in.order() != ByteOrder.BIG_ENDIAN;
+        for (int k = 0; k < n; k++) {
+            long hi = in.getLong(inOff + 16 * k);
+            long lo = in.getLong(inOff + 16 * k + 8);
+            s[k] = swap ? Long.reverseBytes(hi) : hi;
+            s[64 + k] = swap ? Long.reverseBytes(lo) : lo;
+        }
+        for (int k = n; k < 64; k++) {
+            s[k] = 0;
+            s[64 + k] = 0;
+        }
+        transpose(s, 0);
+        transpose(s, 64);
+    }
+
+    private static void store(long[] s, ByteBuffer out, int outOff, int n) {
+        transpose(s, 0);
+        transpose(s, 64);
+        boolean swap = out.order() != ByteOrder.BIG_ENDIAN;
+        for (int k = 0; k < n; k++) {
+            out.putLong(outOff + 16 * k, swap ? Long.reverseBytes(s[k]) : s[k]);
+            out.putLong(outOff + 16 * k + 8, swap ? Long.reverseBytes(s[64 + k]) : s[64 + k]);
+        }
+    }
+
+    /**
+     * In-place transpose of the 64 x 64 bit matrix a[off..off + 63], bit 63 being column 0 (Hacker's Delight 7-3),
+     * one pass per swap width so the shifts and masks are constants.
+     */
+
+    private static void transpose(long[] a, int off) {
+        swap(a, off, 32, 0x00000000FFFFFFFFL);
+        swap(a, off, 16, 0x0000FFFF0000FFFFL);
+        swap(a, off, 8, 0x00FF00FF00FF00FFL);
+        swap(a, off, 4, 0x0F0F0F0F0F0F0F0FL);
+        swap(a, off, 2, 0x3333333333333333L);
+        swap(a, off, 1, 0x5555555555555555L);
+    }
+
+    private static void swap(long[] a, int off, int j, long m) {
+        for (int k = off; k < off + 64; k = ((k - off + j + 1) & ~j) + off) {
+            long t = (a[k] ^ (a[k + j] >>> j)) & m;
+            a[k] ^= t;
+            a[k + j] ^= t << j;
+        }
+    }
+}
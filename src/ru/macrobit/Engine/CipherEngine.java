@@ -0,0 +1,39 @@
+package ru.macrobit.Engine;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A backend for the AES block function over runs of whole 16-byte blocks (ECB). Counter mode and the ECB
+ * paths of the tools are built on top of it; CBC always runs on the table code of ExpandedKey.
+ * Implementations keep no per-call state, or keep it per thread, so one instance serves any number of threads.
+ *
+ * @see CipherEngines
+ */
+
+public interface CipherEngine {
+
+    /**
+     * @return the name the tools accept after -engine
+     */
+
+    String getName();
+
+    /**
+     * Number of blocks the engine processes per pass. Callers that batch their input, like CounterMode,
+     * should use at least this many blocks per call.
+     */
+
+    int parallelBlocks();
+
+    void encryptBlocks(ExpandedKey key, byte[] in, int inOff, byte[] out, int outOff, int blocks);
+
+    void decryptBlocks(ExpandedKey key, byte[] in, int inOff, byte[] out, int outOff, int blocks);
+
+    /**
+     * Buffer variants work at absolute indices; positions and limits are neither used nor changed.
+     */
+
+    void encryptBlocks(ExpandedKey key, ByteBuffer in, int inOff, ByteBuffer out, int outOff, int blocks);
+
+    void decryptBlocks(ExpandedKey key, ByteBuffer in, int inOff, ByteBuffer out, int outOff, int blocks);
+}
@@ -0,0 +1,216 @@
+package ru.macrobit.Engine;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The available cipher engines, looked up by name or picked by a short calibration run on the current host.
+ * <ul>
+ * <li>"table": the T-table code of ExpandedKey</li>
+ * <li>"bitsliced": BitslicedEngine, constant-time</li>
+ * <li>"vector": VectorEngine, constant-time; bitsliced unless jdk.incubator.vector is loaded</li>
+ * <li>"jce": javax.crypto, using AES-NI through the HotSpot intrinsics</li>
+ * </ul>
+ */
+
+public final class CipherEngines {
+
+    public static final CipherEngine TABLE = new Table();
+    public static final CipherEngine BITSLICED = new Bitsliced();
+    public static final CipherEngine VECTOR = new Vector();
+    public static final CipherEngine JCE = new JceEngine();
+
+    private static final int CALIBRATION_BLOCKS = 512; //8 KB per call, one pass of the widest vector kernel.
+    private static final long SLICE_NANOS = 10_000_000L;
+    private static final long BUDGET_NANOS = 150_000_000L; //Per engine; the JIT compiles the hot loops meanwhile.
+    private static final int STALLED_SLICES = 5; //Slices without a 10% gain after which the engine counts as warm.
+
+    private static CipherEngine fastest;
+
+    private CipherEngines() {
+    }
+
+    /**
+     * Engines that can run here: "vector" only when the Vector API module is present and "jce" only when
+     * the platform provides AES/ECB/NoPadding.
+     */
+
+    public static List<CipherEngine> available() {
+        List<CipherEngine> engines = new ArrayList<>();
+        engines.add(TABLE);
+        engines.add(BITSLICED);
+        if (VectorEngine.isAvailable()) {
+            engines.add(VECTOR);
+        }
+        if (JceEngine.isAvailable()) {
+            engines.add(JCE);
+        }
+        return Collections.unmodifiableList(engines);
+    }
+
+    /**
+     * @param name an engine name, or "auto" for {@link #fastest()}
+     * @throws IllegalArgumentException if no engine has that name
+     */
+
+    public static CipherEngine forName(String name) {
+        if (name.equalsIgnoreCase("auto")) {
+            return fastest();
+        }
+        for (CipherEngine engine : new CipherEngine[]{TABLE, BITSLICED, VECTOR, JCE}) {
+            if (engine.getName().equalsIgnoreCase(name)) {
+                return engine;
+            }
+        }
+        throw new IllegalArgumentException("Unknown engine " + name);
+    }
+
+    /**
+     * The engine with the highest ECB encryption throughput in a short single-threaded run, measured once
+     * per JVM and remembered. Engines that need longer than the calibration budget to get compiled, like the
+     * Vector API kernel, are measured at their early speed.
+     */
+
+    public static synchronized CipherEngine fastest() {
+        if (fastest == null) {
+            List<CipherEngine> engines = new ArrayList<>(available());
+            Collections.reverse(engines); //jce first: on small hosts the vector kernel keeps the JIT busy for a while.
+            double best = -1;
+            for (CipherEngine engine : engines) {
+                double throughput = measure(engine);
+                if (throughput > best) {
+                    best = throughput;
+                    fastest = engine;
+                }
+            }
+        }
+        return fastest;
+    }
+
+    /**
+     * Runs the engine in short slices until its speed stops improving or the budget is spent.
+     *
+     * @return blocks per second in the fastest slice
+     */
+
+    static double measure(CipherEngine engine) {
+        ExpandedKey key = ExpandedKey.of(new byte[16]);
+        byte[] buffer = new byte[16 * CALIBRATION_BLOCKS];
+        double best = 0;
+        int stalled = 0;
+        long end = System.nanoTime() + BUDGET_NANOS;
+        while (stalled < STALLED_SLICES && System.nanoTime() < end) {
+            long start = System.nanoTime();
+            long blocks = 0;
+            do {
+                engine.encryptBlocks(key, buffer, 0, buffer, 0, CALIBRATION_BLOCKS);
+                blocks += CALIBRATION_BLOCKS;
+            } while (System.nanoTime() - start < SLICE_NANOS);
+            double throughput = blocks / ((System.nanoTime() - start) / 1e9);
+            stalled = throughput > 1.1 * best ? 0 : stalled + 1;
+            best = Math.max(best, throughput);
+        }
+        return best;
+    }
+
+    private static final class Table implements CipherEngine {
+
+        @Override
+        public String getName() {
+            return "table";
+        }
+
+        @Override
+        public int parallelBlocks() {
+            return 1;
+        }
+
+        @Override
+        public void encryptBlocks(ExpandedKey key, byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+            key.encryptBlocks(in, inOff, out, outOff, blocks);
+        }
+
+        @Override
+        public void decryptBlocks(ExpandedKey key, byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+            key.decryptBlocks(in, inOff, out, outOff, blocks);
+        }
+
+        @Override
+        public void encryptBlocks(ExpandedKey key, ByteBuffer in, int inOff, ByteBuffer out, int outOff, int blocks) {
+            key.encryptBlocks(in, inOff, out, outOff, blocks);
+        }
+
+        @Override
+        public void decryptBlocks(ExpandedKey key, ByteBuffer in, int inOff, ByteBuffer out, int outOff, int blocks) {
+            key.decryptBlocks(in, inOff, out, outOff, blocks);
+        }
+    }
+
+    private static final class Bitsliced implements CipherEngine {
+
+        @Override
+        public String getName() {
+            return "bitsliced";
+        }
+
+        @Override
+        public int parallelBlocks() {
+            return BitslicedEngine.PARALLEL_BLOCKS;
+        }
+
+        @Override
+        public void encryptBlocks(ExpandedKey key, byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+            BitslicedEngine.encryptBlocks(key, in, inOff, out, outOff, blocks);
+        }
+
+        @Override
+        public void decryptBlocks(ExpandedKey key, byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+            BitslicedEngine.decryptBlocks(key, in, inOff, out, outOff, blocks);
+        }
+
+        @Override
+        public void encryptBlocks(ExpandedKey key, ByteBuffer in, int inOff, ByteBuffer out, int outOff, int blocks) {
+            BitslicedEngine.encryptBlocks(key, in, inOff, out, outOff, blocks);
+        }
+
+        @Override
+        public void decryptBlocks(ExpandedKey key, ByteBuffer in, int inOff, ByteBuffer out, int outOff, int blocks) {
+            BitslicedEngine.decryptBlocks(key, in, inOff, out, outOff, blocks);
+        }
+    }
+
+    private static final class Vector implements CipherEngine {
+
+        @Override
+        public String getName() {
+            return "vector";
+        }
+
+        @Override
+        public int parallelBlocks() {
+            return VectorEngine.parallelBlocks();
+        }
+
+        @Override
+        public void encryptBlocks(ExpandedKey key, byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+            VectorEngine.encryptBlocks(key, in, inOff, out, outOff, blocks);
+        }
+
+        @Override
+        public void decryptBlocks(ExpandedKey key, byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+            VectorEngine.decryptBlocks(key, in, inOff, out, outOff, blocks);
+        }
+
+        @Override
+        public void encryptBlocks(ExpandedKey key, ByteBuffer in, int inOff, ByteBuffer out, int outOff, int blocks) {
+            VectorEngine.encryptBlocks(key, in, inOff, out, outOff, blocks);
+        }
+
+        @Override
+        public void decryptBlocks(ExpandedKey key, ByteBuffer in, int inOff, ByteBuffer out, int outOff, int blocks) {
+            VectorEngine.decryptBlocks(key, in, inOff, out, outOff, blocks);
+        }
+    }
+}
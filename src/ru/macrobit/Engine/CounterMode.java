@@ -0,0 +1,138 @@
+package ru.macrobit.Engine;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * AES in counter (CTR) mode. The counter block for block i of the stream is the 128-bit big-endian
+ * sum of the initial counter and i, so any byte position can be processed without touching the bytes
+ * before it. Encryption and decryption are the same operation.
+ * <p>
+ * The keystream is generated in batches of counter blocks by a {@link CipherEngine}, the lookup tables
+ * unless another engine is given. An instance keeps its scratch blocks and must not be shared between threads.
+ */
+
+public final class CounterMode {
+
+    private static final int BATCH_BLOCKS = BitslicedEngine.PARALLEL_BLOCKS;
+
+    private static final VarHandle BIG_ENDIAN = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle LITTLE_ENDIAN = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final ExpandedKey key;
+    private final long ivHigh;
+    private final long ivLow;
+    private final CipherEngine engine;
+    private final int batchBlocks;
+    private final byte[] counterBlocks;
+    private final byte[] keystream;
+
+    /**
+     * @param key expanded AES key
+     * @param iv  16-byte initial counter block
+     */
+
+    public CounterMode(ExpandedKey key, byte[] iv) {
+        this(key, iv, CipherEngines.TABLE);
+    }
+
+    /**
+     * @param engine engine that generates the keystream
+     */
+
+    public CounterMode(ExpandedKey key, byte[] iv, CipherEngine engine) {
+        this.key = key;
+        this.ivHigh = getLong(iv, 0);
+        this.ivLow = getLong(iv, 8);
+        this.engine = engine;
+        this.batchBlocks = Math.max(BATCH_BLOCKS, engine.parallelBlocks());
+        this.counterBlocks = new byte[16 * batchBlocks];
+        this.keystream = new byte[16 * batchBlocks];
+    }
+
+    /**
+     * XORs {@code length} bytes with the keystream starting at stream byte {@code position}.
+     * {@code in} and {@code out} may be the same range.
+     *
+     * @param position offset of in[inOff] from the start of the stream
+     */
+
+    public void process(long position, byte[] in, int inOff, byte[] out, int outOff, int length) {
+        long blockIndex = position >>> 4;
+        int skip = (int) (position & 15);
+        while (length > 0) {
+            int blocks = (int) Math.min(batchBlocks, (skip + (long) length + 15) >>> 4);
+            keystreamBlocks(blockIndex, blocks);
+            blockIndex += blocks;
+            int n = Math.min(16 * blocks - skip, length);
+            for (int i = 0; i < n; i++) {
+                out[outOff + i] = (byte) (in[inOff + i] ^ keystream[skip + i]);
+            }
+            inOff += n;
+            outOff += n;
+            length -= n;
+            skip = 0;
+        }
+    }
+
+    /**
+     * Same as the array variant, between buffers at absolute indices. Positions and limits are not used.
+     * Direct buffers are read and written in place, eight bytes at a time.
+     */
+
+    public void process(long position, ByteBuffer in, int inOff, ByteBuffer out, int outOff, int length) {
+        long blockIndex = position >>> 4;
+        int skip = (int) (position & 15);
+        while (length > 0) {
+            int blocks = (int) Math.min(batchBlocks, (skip + (long) length + 15) >>> 4);
+            keystreamBlocks(blockIndex, blocks);
+            blockIndex += blocks;
+            int n = Math.min(16 * blocks - skip, length);
+            xor(in, inOff, out, outOff, skip, n);
+            inOff += n;
+            outOff += n;
+            length -= n;
+            skip = 0;
+        }
+    }
+
+    private void keystreamBlocks(long blockIndex, int blocks) {
+        for (int b = 0; b < blocks; b++) {
+            long low = ivLow + blockIndex + b;
+            long high = Long.compareUnsigned(low, ivLow) < 0 ? ivHigh + 1 : ivHigh; //carry into the upper half
+            putLong(high, counterBlocks, 16 * b);
+            putLong(low, counterBlocks, 16 * b + 8);
+        }
+        engine.encryptBlocks(key, counterBlocks, 0, keystream, 0, blocks);
+    }
+
+    private void xor(ByteBuffer in, int inOff, ByteBuffer out, int outOff, int skip, int n) {
+        int i = 0;
+        if (in.order() == out.order()) {
+            VarHandle longs = in.order() == ByteOrder.BIG_ENDIAN ? BIG_ENDIAN : LITTLE_ENDIAN;
+            for (; i + 8 <= n; i += 8) {
+                out.putLong(outOff + i, in.getLong(inOff + i) ^ (long) longs.get(keystream, skip + i));
+            }
+        }
+        for (; i < n; i++) {
+            out.put(outOff + i, (byte) (in.get(inOff + i) ^ keystream[skip + i]));
+        }
+    }
+
+    private static long getLong(byte[] b, int off) {
+        long v = 0;
+        for (int i = 0; i < 8; i++) {
+            v = (v << 8) | (b[off + i] & 0xFF);
+        }
+        return v;
+    }
+
+    private static void putLong(long v, byte[] b, int off) {
+        for (int i = 7; i >= 0; i--) {
+            b[off + i] = (byte) v;
+            v >>>= 8;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package ru.macrobit.Engine;
+
+import ru.macrobit.Events.KeyExpansionEvent;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Immutable AES key schedule. Holds the encryption round keys and the round keys of the
+ * equivalent inverse cipher as flat int arrays, so one instance can be shared by any number of threads.
+ */
+
+public final class ExpandedKey {
+
+    private final int keyLength;
+    private final int[] encryptionKey;
+    private final int[] decryptionKey;
+    private volatile long[] bitslicedKey; //Built on first use by BitslicedEngine.
+
+    private ExpandedKey(int keyLength, int[] encryptionKey, int[] decryptionKey) {
+        this.keyLength = keyLength;
+        this.encryptionKey = encryptionKey;
+        this.decryptionKey = decryptionKey;
+    }
+
+    /**
+     * Runs the key expansion for the given key. The key bytes are not retained.
+     *
+     * @param key 16, 24 or 32 byte AES key
+     * @return the expanded key
+     */
+
+    public static ExpandedKey of(byte[] key) {
+        KeyExpansionEvent event = new KeyExpansionEvent();
+        event.begin();
+        int[] encryptionKey = TableEngine.expandEncryptionKey(key);
+        ExpandedKey expandedKey = new ExpandedKey(key.length, encryptionKey, TableEngine.expandDecryptionKey(encryptionKey));
+        event.commit(key.length * 8);
+        return expandedKey;
+    }
+
+    public int getKeyLength() {
+        return keyLength;
+    }
+
+    public int getRounds() {
+        return encryptionKey.length / 4 - 1;
+    }
+
+    public void encryptBlock(byte[] in, int inOff, byte[] out, int outOff) {
+        TableEngine.encryptBlock(encryptionKey, in, inOff, out, outOff);
+    }
+
+    public void decryptBlock(byte[] in, int inOff, byte[] out, int outOff) {
+        TableEngine.decryptBlock(decryptionKey, in, inOff, out, outOff);
+    }
+
+    /**
+     * Allocation-free ECB encryption of {@code blocks} consecutive 16-byte blocks.
+     */
+
+    public void encryptBlocks(byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+        TableEngine.encryptBlocks(encryptionKey, in, inOff, out, outOff, blocks);
+    }
+
+    public void decryptBlocks(byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+        TableEngine.decryptBlocks(decryptionKey, in, inOff, out, outOff, blocks);
+    }
+
+    /**
+     * Allocation-free CBC encryption. {@code iv} is updated to the last ciphertext block, so consecutive
+     * calls continue the same chain.
+     */
+
+    public void encryptBlocksCbc(byte[] iv, byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+        TableEngine.encryptBlocksCbc(encryptionKey, iv, in, inOff, out, outOff, blocks);
+    }
+
+    public void decryptBlocksCbc(byte[] iv, byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+        TableEngine.decryptBlocksCbc(decryptionKey, iv, in, inOff, out, outOff, blocks);
+    }
+
+    /**
+     * ECB encryption between two buffers at absolute indices, without copying through the heap.
+     * Positions and limits of the buffers are neither used nor changed.
+     */
+
+    public void encryptBlocks(ByteBuffer in, int inOff, ByteBuffer out, int outOff, int blocks) {
+        TableEngine.encryptBlocks(encryptionKey, bigEndian(in), inOff, bigEndian(out), outOff, blocks);
+    }
+
+    public void decryptBlocks(ByteBuffer in, int inOff, ByteBuffer out, int outOff, int blocks) {
+        TableEngine.decryptBlocks(decryptionKey, bigEndian(in), inOff, bigEndian(out), outOff, blocks);
+    }
+
+    public void encryptBlocksCbc(byte[] iv, ByteBuffer in, int inOff, ByteBuffer out, int outOff, int blocks) {
+        TableEngine.encryptBlocksCbc(encryptionKey, iv, bigEndian(in), inOff, bigEndian(out), outOff, blocks);
+    }
+
+    public void decryptBlocksCbc(byte[] iv, ByteBuffer in, int inOff, ByteBuffer out, int outOff, int blocks) {
+        TableEngine.decryptBlocksCbc(decryptionKey, iv, bigEndian(in), inOff, bigEndian(out), outOff, blocks);
+    }
+
+    private static ByteBuffer bigEndian(ByteBuffer buffer) {
+        return buffer.order() == ByteOrder.BIG_ENDIAN ? buffer : buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+    }
+
+    int[] encryptionKey() {
+        return encryptionKey;
+    }
+
+    int[] decryptionKey() {
+        return decryptionKey;
+    }
+
+    /**
+     * The cipher key for engines that run their own key schedule. It is not stored, but it is the first
+     * Nk words of the encryption round keys.
+     */
+
+    byte[] keyBytes() {
+        byte[] key = new byte[keyLength];
+        for (int i = 0; i < keyLength; i++) {
+            key[i] = (byte) (encryptionKey[i >> 2] >>> (24 - 8 * (i & 3)));
+        }
+        return key;
+    }
+
+    /**
+     * Round keys broadcast to bit planes for BitslicedEngine. Racing threads may each build a copy, which is harmless.
+     */
+
+    long[] bitslicedKey() {
+        long[] key = bitslicedKey;
+        if (key == null) {
+            key = BitslicedEngine.bitsliceKey(encryptionKey);
+            bitslicedKey = key;
+        }
+        return key;
+    }
+}
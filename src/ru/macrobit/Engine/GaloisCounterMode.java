@@ -0,0 +1,110 @@
+package ru.macrobit.Engine;
+
+import java.security.MessageDigest;
+
+/**
+ * The parts of AES-GCM (NIST SP 800-38D) around counter mode: the counter block J0 built from a 96-bit IV,
+ * the GHASH of the ciphertext and the 16-byte tag. There is no additional authenticated data, so the output
+ * is the CTR ciphertext followed by the tag, the same bytes as javax.crypto's "AES/GCM/NoPadding".
+ * <p>
+ * The payload is encrypted with {@link CounterMode} from {@link #counter()}. GCM only increments the low 32
+ * bits of the counter, but a GCM message is at most 2^32 - 2 blocks ({@link #MAX_LENGTH}, checked by
+ * {@link #checkLength}), so the 128-bit increment of CounterMode never carries out of them.
+ * <p>
+ * An IV must never repeat under one key: a repeated one gives away the hash key and with it the power to
+ * forge tags. Callers draw a random one for every message.
+ */
+
+public final class GaloisCounterMode {
+
+    public static final int IV_LENGTH = 12;
+    public static final int TAG_LENGTH = 16;
+    public static final long MAX_LENGTH = ((1L << 32) - 2) * 16;
+
+    private final ExpandedKey key;
+    private final byte[] counter;
+    private final byte[] tagMask;
+    private final Ghash ghash;
+
+    /**
+     * @param iv the first 12 bytes are the GCM IV; the rest is ignored
+     */
+
+    public GaloisCounterMode(ExpandedKey key, byte[] iv) {
+        this(key, iv, null);
+    }
+
+    private GaloisCounterMode(ExpandedKey key, byte[] iv, Ghash sameKey) {
+        byte[] j0 = new byte[16];
+        System.arraycopy(iv, 0, j0, 0, IV_LENGTH);
+        j0[15] = 1;
+        this.key = key;
+        this.tagMask = new byte[16];
+        key.encryptBlocks(j0, 0, tagMask, 0, 1);
+        if (sameKey != null) {
+            this.ghash = sameKey.segment();
+        } else {
+            byte[] hashKey = new byte[16];
+            key.encryptBlocks(hashKey, 0, hashKey, 0, 1);
+            this.ghash = new Ghash(hashKey);
+        }
+        j0[15] = 2;
+        this.counter = j0;
+    }
+
+    /**
+     * Another message under the same key. The GHASH tables are shared instead of being built again,
+     * which matters when the messages are short.
+     */
+
+    public GaloisCounterMode withIv(byte[] iv) {
+        return new GaloisCounterMode(key, iv, ghash);
+    }
+
+    /**
+     * @return the counter block of the first payload block, to start CounterMode with
+     */
+
+    public byte[] counter() {
+        return counter.clone();
+    }
+
+    /**
+     * The hash of the whole ciphertext: updated in order by a single thread, or merged from segments.
+     */
+
+    public Ghash ghash() {
+        return ghash;
+    }
+
+    /**
+     * @throws IllegalArgumentException if a message of {@code length} bytes would wrap the 32-bit counter
+     */
+
+    public static void checkLength(long length) {
+        if (length > MAX_LENGTH) {
+            throw new IllegalArgumentException("Error: A GCM message is at most " + MAX_LENGTH + " bytes, not " + length);
+        }
+    }
+
+    /**
+     * @param length ciphertext length in bytes, all of it given to {@link #ghash()}
+     */
+
+    public byte[] tag(long length) {
+        checkLength(length);
+        byte[] tag = ghash.digest(length);
+        for (int i = 0; i < TAG_LENGTH; i++) {
+            tag[i] ^= tagMask[i];
+        }
+        return tag;
+    }
+
+    /**
+     * Compares in constant time.
+     */
+
+    public boolean verify(byte[] tag, long length) {
+        return MessageDigest.isEqual(tag, tag(length));
+    }
+}
@@ -0,0 +1,335 @@
+package ru.macrobit.Engine;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * GHASH, the universal hash of GCM (NIST SP 800-38D), keyed with H = E(K, 0^128). Field elements are kept
+ * as two big-endian longs in the reflected bit order of the standard: the top bit of the first long is
+ * the coefficient of x^0.
+ * <p>
+ * Multiplication by a fixed power of H goes through an 8-bit Shoup table of its 256 multiples. Four blocks
+ * at a time are folded with H^4, H^3, H^2 and H, so each step is four independent multiplications:
+ * Y' = (Y + X1)H^4 + X2 H^3 + X3 H^2 + X4 H.
+ * <p>
+ * A message can also be hashed in parallel: every worker hashes its range into a {@link #segment()} and
+ * {@link #merge}s it into the hash of the whole message, in any order. An instance is either updated in
+ * order or receives merged segments, not both. Updates are not thread-safe, merges are.
+ */
+
+public final class Ghash {
+
+    public static final int BLOCK_SIZE = 16;
+
+    private static final long R = 0xE100000000000000L; //x^128 = 1 + x + x^2 + x^7
+    private static final long ONE = 0x8000000000000000L; //High half of the element 1.
+    private static final long[] REDUCE = new long[256]; //Reduction of the 8 coefficients shifted out by a multiplication by x^8.
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private static final int H4 = 0;
+    private static final int H3 = 512;
+    private static final int H2 = 1024;
+    private static final int H1 = 1536;
+
+    static {
+        for (int b = 0; b < 256; b++) {
+            long r = 0;
+            for (int j = 0; j < 8; j++) {
+                if ((b & (0x80 >>> j)) != 0) {
+                    r ^= R >>> j;
+                }
+            }
+            REDUCE[b] = r;
+        }
+    }
+
+    private final long hashKeyHi;
+    private final long hashKeyLo;
+    private final long[] tables; //Multiples of H^4, H^3, H^2 and H, {hi, lo} per entry.
+
+    private long yHi; //Hash of the blocks given to update().
+    private long yLo;
+    private long blocks;
+    private long sumHi; //Result of mulAdd().
+    private long sumLo;
+
+    private long mergedHi; //Sum of the merged segments, each weighted with H^-(end of segment).
+    private long mergedLo;
+    private long end; //Number of blocks covered by the merged segments.
+    private long[] inversePowers; //H^-(2^k), {hi, lo} per k; built on the first merge.
+
+    /**
+     * @param hashKey the 16-byte hash subkey H
+     */
+
+    public Ghash(byte[] hashKey) {
+        this.hashKeyHi = (long) LONGS.get(hashKey, 0);
+        this.hashKeyLo = (long) LONGS.get(hashKey, 8);
+        long[] h2 = multiply(hashKeyHi, hashKeyLo, hashKeyHi, hashKeyLo);
+        long[] h3 = multiply(h2[0], h2[1], hashKeyHi, hashKeyLo);
+        long[] h4 = multiply(h3[0], h3[1], hashKeyHi, hashKeyLo);
+        this.tables = new long[2048];
+        fillTable(tables, H4, h4[0], h4[1]);
+        fillTable(tables, H3, h3[0], h3[1]);
+        fillTable(tables, H2, h2[0], h2[1]);
+        fillTable(tables, H1, hashKeyHi, hashKeyLo);
+    }
+
+    private Ghash(Ghash parent) {
+        this.hashKeyHi = parent.hashKeyHi;
+        this.hashKeyLo = parent.hashKeyLo;
+        this.tables = parent.tables;
+    }
+
+    /**
+     * @return an empty hash with the same key, for a range of the message hashed on another thread
+     */
+
+    public Ghash segment() {
+        return new Ghash(this);
+    }
+
+    /**
+     * Starts over for another message under the same key, e.g. the next of many short records, without
+     * allocating a new instance.
+     */
+
+    public void reset() {
+        yHi = 0;
+        yLo = 0;
+        blocks = 0;
+        mergedHi = 0;
+        mergedLo = 0;
+        end = 0;
+    }
+
+    /**
+     * Hashes {@code length} bytes in order. A trailing partial block is padded with zeros, so only the
+     * last update of the message may have a length that is not a multiple of 16.
+     */
+
+    public void update(byte[] in, int off, int length) {
+        int whole = length >>> 4;
+        int i = 0;
+        for (; i + 4 <= whole; i += 4) {
+            int p = off + 16 * i;
+            sumHi = 0;
+            sumLo = 0;
+            mulAdd(yHi ^ (long) LONGS.get(in, p), yLo ^ (long) LONGS.get(in, p + 8), H4);
+            mulAdd((long) LONGS.get(in, p + 16), (long) LONGS.get(in, p + 24), H3);
+            mulAdd((long) LONGS.get(in, p + 32), (long) LONGS.get(in, p + 40), H2);
+            mulAdd((long) LONGS.get(in, p + 48), (long) LONGS.get(in, p + 56), H1);
+            yHi = sumHi;
+            yLo = sumLo;
+        }
+        for (; i < whole; i++) {
+            int p = off + 16 * i;
+            absorb((long) LONGS.get(in, p), (long) LONGS.get(in, p + 8));
+        }
+        int left = length & 15;
+        if (left != 0) {
+            byte[] last = new byte[16];
+            System.arraycopy(in, off + 16 * whole, last, 0, left);
+            absorb((long) LONGS.get(last, 0), (long) LONGS.get(last, 8));
+        }
+        blocks += (length + 15) >>> 4;
+    }
+
+    /**
+     * Same as the array variant, at absolute indices of the buffer. Position and limit are not used.
+     */
+
+    public void update(ByteBuffer in, int off, int length) {
+        boolean swap = in.order() != ByteOrder.BIG_ENDIAN;
+        int whole = length >>> 4;
+        int i = 0;
+        for (; i + 4 <= whole; i += 4) {
+            int p = off + 16 * i;
+            sumHi = 0;
+            sumLo = 0;
+            mulAdd(yHi ^ bigEndianLong(in, p, swap), yLo ^ bigEndianLong(in, p + 8, swap), H4);
+            mulAdd(bigEndianLong(in, p + 16, swap), bigEndianLong(in, p + 24, swap), H3);
+            mulAdd(bigEndianLong(in, p + 32, swap), bigEndianLong(in, p + 40, swap), H2);
+            mulAdd(bigEndianLong(in, p + 48, swap), bigEndianLong(in, p + 56, swap), H1);
+            yHi = sumHi;
+            yLo = sumLo;
+        }
+        for (; i < whole; i++) {
+            int p = off + 16 * i;
+            absorb(bigEndianLong(in, p, swap), bigEndianLong(in, p + 8, swap));
+        }
+        int left = length & 15;
+        if (left != 0) {
+            byte[] last = new byte[16];
+            in.get(off + 16 * whole, last, 0, left);
+            absorb((long) LONGS.get(last, 0), (long) LONGS.get(last, 8));
+        }
+        blocks += (length + 15) >>> 4;
+    }
+
+    /**
+     * Adds a segment hashed on its own to this hash of the whole message. A segment that covers blocks
+     * s..e-1 contributes its hash times H^(n-e) to the hash of n blocks; as n is not known yet, the
+     * contribution is kept as hash times H^-e and multiplied by H^n in {@link #digest}.
+     *
+     * @param firstBlock index of the first block of the segment in the message
+     */
+
+    public void merge(long firstBlock, Ghash segment) {
+        long segmentEnd = firstBlock + segment.blocks;
+        long[] weight = inversePower(segmentEnd);
+        long[] contribution = multiply(segment.yHi, segment.yLo, weight[0], weight[1]);
+        synchronized (this) {
+            mergedHi ^= contribution[0];
+            mergedLo ^= contribution[1];
+            end = Math.max(end, segmentEnd);
+        }
+    }
+
+    /**
+     * Finishes the hash with the length block of a message without additional authenticated data.
+     *
+     * @param length length of the hashed text in bytes
+     */
+
+    public synchronized byte[] digest(long length) {
+        long hi = yHi;
+        long lo = yLo;
+        if (end != 0) {
+            long[] weight = power(hashKeyHi, hashKeyLo, end);
+            long[] merged = multiply(mergedHi, mergedLo, weight[0], weight[1]);
+            hi ^= merged[0];
+            lo ^= merged[1];
+        }
+        long[] y = multiply(hi, lo ^ (8 * length), hashKeyHi, hashKeyLo);
+        byte[] digest = new byte[16];
+        LONGS.set(digest, 0, y[0]);
+        LONGS.set(digest, 8, y[1]);
+        return digest;
+    }
+
+    private static long bigEndianLong(ByteBuffer in, int index, boolean swap) {
+        long value = in.getLong(index);
+        return swap ? Long.reverseBytes(value) : value;
+    }
+
+    private void absorb(long hi, long lo) {
+        sumHi = 0;
+        sumLo = 0;
+        mulAdd(yHi ^ hi, yLo ^ lo, H1);
+        yHi = sumHi;
+        yLo = sumLo;
+    }
+
+    /**
+     * Adds X times the power of H whose table starts at {@code table} to (sumHi, sumLo). Horner over the
+     * bytes of X from the last one: Z = Z * x^8 + byte * H^k.
+     */
+
+    private void mulAdd(long xHi, long xLo, int table) {
+        long zHi = 0;
+        long zLo = 0;
+        for (int shift = 0; shift < 64; shift += 8) {
+            int b = table + 2 * ((int) (xLo >>> shift) & 0xFF);
+            int r = (int) zLo & 0xFF;
+            zLo = (zLo >>> 8 | zHi << 56) ^ tables[b + 1];
+            zHi = (zHi >>> 8) ^ REDUCE[r] ^ tables[b];
+        }
+        for (int shift = 0; shift < 64; shift += 8) {
+            int b = table + 2 * ((int) (xHi >>> shift) & 0xFF);
+            int r = (int) zLo & 0xFF;
+            zLo = (zLo >>> 8 | zHi << 56) ^ tables[b + 1];
+            zHi = (zHi >>> 8) ^ REDUCE[r] ^ tables[b];
+        }
+        sumHi ^= zHi;
+        sumLo ^= zLo;
+    }
+
+    private synchronized long[] inversePowers() {
+        if (inversePowers == null) {
+            //H^-1 = H^(2^128 - 2): 127 one bits and a zero bit.
+            long[] inverse = {ONE, 0};
+            for (int i = 0; i < 127; i++) {
+                inverse = multiply(inverse[0], inverse[1], inverse[0], inverse[1]);
+                inverse = multiply(inverse[0], inverse[1], hashKeyHi, hashKeyLo);
+            }
+            inverse = multiply(inverse[0], inverse[1], inverse[0], inverse[1]);
+            long[] powers = new long[128];
+            powers[0] = inverse[0];
+            powers[1] = inverse[1];
+            for (int k = 1; k < 64; k++) {
+                long[] square = multiply(powers[2 * k - 2], powers[2 * k - 1], powers[2 * k - 2], powers[2 * k - 1]);
+                powers[2 * k] = square[0];
+                powers[2 * k + 1] = square[1];
+            }
+            inversePowers = powers;
+        }
+        return inversePowers;
+    }
+
+    private long[] inversePower(long e) {
+        long[] powers = inversePowers();
+        long[] p = {ONE, 0};
+        for (int k = 0; e != 0; k++, e >>>= 1) {
+            if ((e & 1) != 0) {
+                p = multiply(p[0], p[1], powers[2 * k], powers[2 * k + 1]);
+            }
+        }
+        return p;
+    }
+
+    private static long[] power(long hi, long lo, long e) {
+        long[] p = {ONE, 0};
+        for (int k = 63 - Long.numberOfLeadingZeros(e); k >= 0; k--) {
+            p = multiply(p[0], p[1], p[0], p[1]);
+            if ((e >>> k & 1) != 0) {
+                p = multiply(p[0], p[1], hi, lo);
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Bit by bit multiplication (SP 800-38D, Algorithm 1) for the few products that have no table.
+     */
+
+    static long[] multiply(long xHi, long xLo, long yHi, long yLo) {
+        long zHi = 0;
+        long zLo = 0;
+        long vHi = yHi;
+        long vLo = yLo;
+        for (int i = 0; i < 128; i++) {
+            long bit = (i < 64 ? xHi << i : xLo << (i - 64)) >> 63;
+            zHi ^= vHi & bit;
+            zLo ^= vLo & bit;
+            long carry = vLo << 63 >> 63;
+            vLo = vLo >>> 1 | vHi << 63;
+            vHi = (vHi >>> 1) ^ (carry & R);
+        }
+        return new long[]{zHi, zLo};
+    }
+
+    /**
+     * Entry b is b * H^k, where the top bit of b is the coefficient of x^0.
+     */
+
+    private static void fillTable(long[] tables, int offset, long hi, long lo) {
+        for (int bit = 0x80; bit != 0; bit >>>= 1) {
+            tables[offset + 2 * bit] = hi;
+            tables[offset + 2 * bit + 1] = lo;
+            long carry = lo << 63 >> 63;
+            lo = lo >>> 1 | hi << 63;
+            hi = (hi >>> 1) ^ (carry & R);
+        }
+        for (int b = 3; b < 256; b++) {
+            int high = Integer.highestOneBit(b);
+            if (b != high) {
+                tables[offset + 2 * b] = tables[offset + 2 * high] ^ tables[offset + 2 * (b ^ high)];
+                tables[offset + 2 * b + 1] = tables[offset + 2 * high + 1] ^ tables[offset + 2 * (b ^ high) + 1];
+            }
+        }
+    }
+}
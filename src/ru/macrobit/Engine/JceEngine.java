@@ -0,0 +1,110 @@
+package ru.macrobit.Engine;
+
+import javax.crypto.Cipher;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+/**
+ * Runs the blocks through the platform's "AES/ECB/NoPadding" cipher, which HotSpot compiles to the AES-NI
+ * (or ARMv8 AES) instructions where the CPU has them. javax.crypto ciphers are neither thread-safe nor cheap
+ * to initialise, so every thread keeps its own pair, re-initialised only when the key changes.
+ */
+
+final class JceEngine implements CipherEngine {
+
+    private static final String TRANSFORMATION = "AES/ECB/NoPadding";
+
+    private static final ThreadLocal<Ciphers> CIPHERS = ThreadLocal.withInitial(Ciphers::new);
+
+    /**
+     * The ciphers of one thread and the key they were initialised with.
+     */
+
+    private static final class Ciphers {
+        private ExpandedKey key;
+        private Cipher encrypt;
+        private Cipher decrypt;
+    }
+
+    static boolean isAvailable() {
+        try {
+            Cipher.getInstance(TRANSFORMATION);
+            return true;
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "jce";
+    }
+
+    @Override
+    public int parallelBlocks() {
+        return 1;
+    }
+
+    @Override
+    public void encryptBlocks(ExpandedKey key, byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+        update(cipher(key, true), in, inOff, out, outOff, blocks);
+    }
+
+    @Override
+    public void decryptBlocks(ExpandedKey key, byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+        update(cipher(key, false), in, inOff, out, outOff, blocks);
+    }
+
+    @Override
+    public void encryptBlocks(ExpandedKey key, ByteBuffer in, int inOff, ByteBuffer out, int outOff, int blocks) {
+        update(cipher(key, true), in, inOff, out, outOff, blocks);
+    }
+
+    @Override
+    public void decryptBlocks(ExpandedKey key, ByteBuffer in, int inOff, ByteBuffer out, int outOff, int blocks) {
+        update(cipher(key, false), in, inOff, out, outOff, blocks);
+    }
+
+    private static Cipher cipher(ExpandedKey key, boolean encrypt) {
+        Ciphers ciphers = CIPHERS.get();
+        if (ciphers.key != key) {
+            try {
+                SecretKeySpec spec = new SecretKeySpec(key.keyBytes(), "AES");
+                ciphers.encrypt = Cipher.getInstance(TRANSFORMATION);
+                ciphers.encrypt.init(Cipher.ENCRYPT_MODE, spec);
+                ciphers.decrypt = Cipher.getInstance(TRANSFORMATION);
+                ciphers.decrypt.init(Cipher.DECRYPT_MODE, spec);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(TRANSFORMATION + " is not usable", e);
+            }
+            ciphers.key = key;
+        }
+        return encrypt ? ciphers.encrypt : ciphers.decrypt;
+    }
+
+    /**
+     * With NoPadding and whole blocks, update() returns every block at once and keeps nothing buffered.
+     */
+
+    private static void update(Cipher cipher, byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+        try {
+            cipher.update(in, inOff, 16 * blocks, out, outOff);
+        } catch (ShortBufferException e) {
+            throw new IndexOutOfBoundsException(e.getMessage());
+        }
+    }
+
+    private static void update(Cipher cipher, ByteBuffer in, int inOff, ByteBuffer out, int outOff, int blocks) {
+        ByteBuffer input = in.duplicate();
+        input.limit(inOff + 16 * blocks).position(inOff);
+        ByteBuffer output = out.duplicate();
+        output.limit(outOff + 16 * blocks).position(outOff);
+        try {
+            cipher.update(input, output);
+        } catch (ShortBufferException e) {
+            throw new IndexOutOfBoundsException(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,390 @@
+package ru.macrobit.Engine;
+
+import ru.macrobit.Tables.AesTables;
+
+import static ru.macrobit.Engine.TableEngine.INV_SBOX;
+import static ru.macrobit.Engine.TableEngine.SBOX;
+import static ru.macrobit.Engine.TableEngine.TD0;
+import static ru.macrobit.Engine.TableEngine.TD1;
+import static ru.macrobit.Engine.TableEngine.TD2;
+import static ru.macrobit.Engine.TableEngine.TD3;
+import static ru.macrobit.Engine.TableEngine.TE0;
+import static ru.macrobit.Engine.TableEngine.TE1;
+import static ru.macrobit.Engine.TableEngine.TE2;
+import static ru.macrobit.Engine.TableEngine.TE3;
+
+/**
+ * Key-agile AES on the T-tables of {@link TableEngine}: every call takes the raw key and derives each round
+ * key just in time inside the round loop, from the last Nk words of the schedule and AesTables.rcon(). Those
+ * words live in local variables for every key size, so nothing is allocated. No schedule is built or stored,
+ * so a message of one or two blocks under a fresh key costs no more than the rounds themselves, where the
+ * precomputed path first runs the full expansion of both schedules.
+ * <p>
+ * The price is paid per block: every block derives the round keys again, and decryption first runs the
+ * schedule forward to the last round key and then backwards, applying InvMixColumns to the middle round keys
+ * on the way. For more than a few blocks under one key, ExpandedKey is faster; RoundKeyBenchmark measures
+ * the crossover.
+ */
+
+public final class KeyAgileEngine {
+
+    private KeyAgileEngine() {
+    }
+
+    /**
+     * Encrypts one 16-byte block. {@code in} and {@code out} may be the same array and overlap exactly.
+     *
+     * @param key 16, 24 or 32 byte AES key
+     */
+
+    public static void encryptBlock(byte[] key, byte[] in, int inOff, byte[] out, int outOff) {
+        if (key.length == 16) {
+            encrypt128(key, in, inOff, out, outOff);
+        } else if (key.length == 32) {
+            encrypt256(key, in, inOff, out, outOff);
+        } else if (key.length == 24) {
+            encrypt192(key, in, inOff, out, outOff);
+        } else {
+            TableEngine.rounds(key.length); //Throws for an unsupported length.
+        }
+    }
+
+    /**
+     * Decrypts one 16-byte block with the equivalent inverse cipher.
+     *
+     * @param key 16, 24 or 32 byte AES key
+     */
+
+    public static void decryptBlock(byte[] key, byte[] in, int inOff, byte[] out, int outOff) {
+        if (key.length == 16) {
+            decrypt128(key, in, inOff, out, outOff);
+        } else if (key.length == 32) {
+            decrypt256(key, in, inOff, out, outOff);
+        } else if (key.length == 24) {
+            decrypt192(key, in, inOff, out, outOff);
+        } else {
+            TableEngine.rounds(key.length); //Throws for an unsupported length.
+        }
+    }
+
+    /**
+     * AES-128: a round key is the one before it, updated in four locals.
+     */
+
+    private static void encrypt128(byte[] key, byte[] in, int inOff, byte[] out, int outOff) {
+        int k0 = TableEngine.getInt(key, 0);
+        int k1 = TableEngine.getInt(key, 4);
+        int k2 = TableEngine.getInt(key, 8);
+        int k3 = TableEngine.getInt(key, 12);
+        int s0 = TableEngine.getInt(in, inOff) ^ k0;
+        int s1 = TableEngine.getInt(in, inOff + 4) ^ k1;
+        int s2 = TableEngine.getInt(in, inOff + 8) ^ k2;
+        int s3 = TableEngine.getInt(in, inOff + 12) ^ k3;
+        for (int r = 1; r < 10; r++) {
+            k0 ^= TableEngine.subWord(Integer.rotateLeft(k3, 8)) ^ (AesTables.rcon(r) << 24);
+            k1 ^= k0;
+            k2 ^= k1;
+            k3 ^= k2;
+            int t0 = TE0[s0 >>> 24] ^ TE1[(s1 >>> 16) & 0xff] ^ TE2[(s2 >>> 8) & 0xff] ^ TE3[s3 & 0xff] ^ k0;
+            int t1 = TE0[s1 >>> 24] ^ TE1[(s2 >>> 16) & 0xff] ^ TE2[(s3 >>> 8) & 0xff] ^ TE3[s0 & 0xff] ^ k1;
+            int t2 = TE0[s2 >>> 24] ^ TE1[(s3 >>> 16) & 0xff] ^ TE2[(s0 >>> 8) & 0xff] ^ TE3[s1 & 0xff] ^ k2;
+            int t3 = TE0[s3 >>> 24] ^ TE1[(s0 >>> 16) & 0xff] ^ TE2[(s1 >>> 8) & 0xff] ^ TE3[s2 & 0xff] ^ k3;
+            s0 = t0;
+            s1 = t1;
+            s2 = t2;
+            s3 = t3;
+        }
+        k0 ^= TableEngine.subWord(Integer.rotateLeft(k3, 8)) ^ (AesTables.rcon(10) << 24);
+        k1 ^= k0;
+        k2 ^= k1;
+        k3 ^= k2;
+        finalEncryptionRound(s0, s1, s2, s3, k0, k1, k2, k3, out, outOff);
+    }
+
+    /**
+     * AES-256: the even round keys are derived in a0..a3 and the odd ones in b0..b3, each from the two before it.
+     */
+
+    private static void encrypt256(byte[] key, byte[] in, int inOff, byte[] out, int outOff) {
+        int a0 = TableEngine.getInt(key, 0);
+        int a1 = TableEngine.getInt(key, 4);
+        int a2 = TableEngine.getInt(key, 8);
+        int a3 = TableEngine.getInt(key, 12);
+        int b0 = TableEngine.getInt(key, 16);
+        int b1 = TableEngine.getInt(key, 20);
+        int b2 = TableEngine.getInt(key, 24);
+        int b3 = TableEngine.getInt(key, 28);
+        int s0 = TableEngine.getInt(in, inOff) ^ a0;
+        int s1 = TableEngine.getInt(in, inOff + 4) ^ a1;
+        int s2 = TableEngine.getInt(in, inOff + 8) ^ a2;
+        int s3 = TableEngine.getInt(in, inOff + 12) ^ a3;
+        for (int r = 1; ; r += 2) {
+            int t0 = TE0[s0 >>> 24] ^ TE1[(s1 >>> 16) & 0xff] ^ TE2[(s2 >>> 8) & 0xff] ^ TE3[s3 & 0xff] ^ b0;
+            int t1 = TE0[s1 >>> 24] ^ TE1[(s2 >>> 16) & 0xff] ^ TE2[(s3 >>> 8) & 0xff] ^ TE3[s0 & 0xff] ^ b1;
+            int t2 = TE0[s2 >>> 24] ^ TE1[(s3 >>> 16) & 0xff] ^ TE2[(s0 >>> 8) & 0xff] ^ TE3[s1 & 0xff] ^ b2;
+            int t3 = TE0[s3 >>> 24] ^ TE1[(s0 >>> 16) & 0xff] ^ TE2[(s1 >>> 8) & 0xff] ^ TE3[s2 & 0xff] ^ b3;
+            a0 ^= TableEngine.subWord(Integer.rotateLeft(b3, 8)) ^ (AesTables.rcon((r + 1) / 2) << 24);
+            a1 ^= a0;
+            a2 ^= a1;
+            a3 ^= a2;
+            if (r == 13) {
+                finalEncryptionRound(t0, t1, t2, t3, a0, a1, a2, a3, out, outOff);
+                return;
+            }
+            s0 = TE0[t0 >>> 24] ^ TE1[(t1 >>> 16) & 0xff] ^ TE2[(t2 >>> 8) & 0xff] ^ TE3[t3 & 0xff] ^ a0;
+            s1 = TE0[t1 >>> 24] ^ TE1[(t2 >>> 16) & 0xff] ^ TE2[(t3 >>> 8) & 0xff] ^ TE3[t0 & 0xff] ^ a1;
+            s2 = TE0[t2 >>> 24] ^ TE1[(t3 >>> 16) & 0xff] ^ TE2[(t0 >>> 8) & 0xff] ^ TE3[t1 & 0xff] ^ a2;
+            s3 = TE0[t3 >>> 24] ^ TE1[(t0 >>> 16) & 0xff] ^ TE2[(t1 >>> 8) & 0xff] ^ TE3[t2 & 0xff] ^ a3;
+            b0 ^= TableEngine.subWord(a3);
+            b1 ^= b0;
+            b2 ^= b1;
+            b3 ^= b2;
+        }
+    }
+
+    /**
+     * AES-128 decryption: runs the key forward to the last round key, then each round steps it back by one.
+     */
+
+    private static void decrypt128(byte[] key, byte[] in, int inOff, byte[] out, int outOff) {
+        int k0 = TableEngine.getInt(key, 0);
+        int k1 = TableEngine.getInt(key, 4);
+        int k2 = TableEngine.getInt(key, 8);
+        int k3 = TableEngine.getInt(key, 12);
+        for (int r = 1; r <= 10; r++) {
+            k0 ^= TableEngine.subWord(Integer.rotateLeft(k3, 8)) ^ (AesTables.rcon(r) << 24);
+            k1 ^= k0;
+            k2 ^= k1;
+            k3 ^= k2;
+        }
+        int s0 = TableEngine.getInt(in, inOff) ^ k0;
+        int s1 = TableEngine.getInt(in, inOff + 4) ^ k1;
+        int s2 = TableEngine.getInt(in, inOff + 8) ^ k2;
+        int s3 = TableEngine.getInt(in, inOff + 12) ^ k3;
+        for (int r = 9; r >= 0; r--) {
+            k3 ^= k2; //Round key r + 1 back to round key r.
+            k2 ^= k1;
+            k1 ^= k0;
+            k0 ^= TableEngine.subWord(Integer.rotateLeft(k3, 8)) ^ (AesTables.rcon(r + 1) << 24);
+            if (r == 0) {
+                break;
+            }
+            int t0 = TD0[s0 >>> 24] ^ TD1[(s3 >>> 16) & 0xff] ^ TD2[(s2 >>> 8) & 0xff] ^ TD3[s1 & 0xff] ^ invMixColumn(k0);
+            int t1 = TD0[s1 >>> 24] ^ TD1[(s0 >>> 16) & 0xff] ^ TD2[(s3 >>> 8) & 0xff] ^ TD3[s2 & 0xff] ^ invMixColumn(k1);
+            int t2 = TD0[s2 >>> 24] ^ TD1[(s1 >>> 16) & 0xff] ^ TD2[(s0 >>> 8) & 0xff] ^ TD3[s3 & 0xff] ^ invMixColumn(k2);
+            int t3 = TD0[s3 >>> 24] ^ TD1[(s2 >>> 16) & 0xff] ^ TD2[(s1 >>> 8) & 0xff] ^ TD3[s0 & 0xff] ^ invMixColumn(k3);
+            s0 = t0;
+            s1 = t1;
+            s2 = t2;
+            s3 = t3;
+        }
+        finalDecryptionRound(s0, s1, s2, s3, k0, k1, k2, k3, out, outOff);
+    }
+
+    /**
+     * AES-256 decryption: a0..a3 and b0..b3 are run forward to round keys 14 and 13, then stepped back two
+     * rounds at a time.
+     */
+
+    private static void decrypt256(byte[] key, byte[] in, int inOff, byte[] out, int outOff) {
+        int a0 = TableEngine.getInt(key, 0);
+        int a1 = TableEngine.getInt(key, 4);
+        int a2 = TableEngine.getInt(key, 8);
+        int a3 = TableEngine.getInt(key, 12);
+        int b0 = TableEngine.getInt(key, 16);
+        int b1 = TableEngine.getInt(key, 20);
+        int b2 = TableEngine.getInt(key, 24);
+        int b3 = TableEngine.getInt(key, 28);
+        for (int j = 1; ; j++) {
+            a0 ^= TableEngine.subWord(Integer.rotateLeft(b3, 8)) ^ (AesTables.rcon(j) << 24);
+            a1 ^= a0;
+            a2 ^= a1;
+            a3 ^= a2;
+            if (j == 7) {
+                break;
+            }
+            b0 ^= TableEngine.subWord(a3);
+            b1 ^= b0;
+            b2 ^= b1;
+            b3 ^= b2;
+        }
+        int s0 = TableEngine.getInt(in, inOff) ^ a0;
+        int s1 = TableEngine.getInt(in, inOff + 4) ^ a1;
+        int s2 = TableEngine.getInt(in, inOff + 8) ^ a2;
+        int s3 = TableEngine.getInt(in, inOff + 12) ^ a3;
+        for (int r = 13; ; r -= 2) {
+            int t0 = TD0[s0 >>> 24] ^ TD1[(s3 >>> 16) & 0xff] ^ TD2[(s2 >>> 8) & 0xff] ^ TD3[s1 & 0xff] ^ invMixColumn(b0);
+            int t1 = TD0[s1 >>> 24] ^ TD1[(s0 >>> 16) & 0xff] ^ TD2[(s3 >>> 8) & 0xff] ^ TD3[s2 & 0xff] ^ invMixColumn(b1);
+            int t2 = TD0[s2 >>> 24] ^ TD1[(s1 >>> 16) & 0xff] ^ TD2[(s0 >>> 8) & 0xff] ^ TD3[s3 & 0xff] ^ invMixColumn(b2);
+            int t3 = TD0[s3 >>> 24] ^ TD1[(s2 >>> 16) & 0xff] ^ TD2[(s1 >>> 8) & 0xff] ^ TD3[s0 & 0xff] ^ invMixColumn(b3);
+            a3 ^= a2; //Round key r + 1 back to round key r - 1.
+            a2 ^= a1;
+            a1 ^= a0;
+            a0 ^= TableEngine.subWord(Integer.rotateLeft(b3, 8)) ^ (AesTables.rcon((r + 1) / 2) << 24);
+            if (r == 1) {
+                finalDecryptionRound(t0, t1, t2, t3, a0, a1, a2, a3, out, outOff);
+                return;
+            }
+            s0 = TD0[t0 >>> 24] ^ TD1[(t3 >>> 16) & 0xff] ^ TD2[(t2 >>> 8) & 0xff] ^ TD3[t1 & 0xff] ^ invMixColumn(a0);
+            s1 = TD0[t1 >>> 24] ^ TD1[(t0 >>> 16) & 0xff] ^ TD2[(t3 >>> 8) & 0xff] ^ TD3[t2 & 0xff] ^ invMixColumn(a1);
+            s2 = TD0[t2 >>> 24] ^ TD1[(t1 >>> 16) & 0xff] ^ TD2[(t0 >>> 8) & 0xff] ^ TD3[t3 & 0xff] ^ invMixColumn(a2);
+            s3 = TD0[t3 >>> 24] ^ TD1[(t2 >>> 16) & 0xff] ^ TD2[(t1 >>> 8) & 0xff] ^ TD3[t0 & 0xff] ^ invMixColumn(a3);
+            b3 ^= b2; //Round key r back to round key r - 2.
+            b2 ^= b1;
+            b1 ^= b0;
+            b0 ^= TableEngine.subWord(a3);
+        }
+    }
+
+    /**
+     * AES-192: k0..k5 hold six schedule words, which span one and a half round keys. Every two steps of the
+     * schedule give three rounds: the first takes k4, k5 from before the step and k0, k1 from after it.
+     */
+
+    private static void encrypt192(byte[] key, byte[] in, int inOff, byte[] out, int outOff) {
+        int k0 = TableEngine.getInt(key, 0);
+        int k1 = TableEngine.getInt(key, 4);
+        int k2 = TableEngine.getInt(key, 8);
+        int k3 = TableEngine.getInt(key, 12);
+        int k4 = TableEngine.getInt(key, 16);
+        int k5 = TableEngine.getInt(key, 20);
+        int s0 = TableEngine.getInt(in, inOff) ^ k0;
+        int s1 = TableEngine.getInt(in, inOff + 4) ^ k1;
+        int s2 = TableEngine.getInt(in, inOff + 8) ^ k2;
+        int s3 = TableEngine.getInt(in, inOff + 12) ^ k3;
+        for (int j = 1; ; j += 2) {
+            int p4 = k4;
+            int p5 = k5;
+            k0 ^= TableEngine.subWord(Integer.rotateLeft(k5, 8)) ^ (AesTables.rcon(j) << 24);
+            k1 ^= k0;
+            k2 ^= k1;
+            k3 ^= k2;
+            k4 ^= k3;
+            k5 ^= k4;
+            int t0 = TE0[s0 >>> 24] ^ TE1[(s1 >>> 16) & 0xff] ^ TE2[(s2 >>> 8) & 0xff] ^ TE3[s3 & 0xff] ^ p4;
+            int t1 = TE0[s1 >>> 24] ^ TE1[(s2 >>> 16) & 0xff] ^ TE2[(s3 >>> 8) & 0xff] ^ TE3[s0 & 0xff] ^ p5;
+            int t2 = TE0[s2 >>> 24] ^ TE1[(s3 >>> 16) & 0xff] ^ TE2[(s0 >>> 8) & 0xff] ^ TE3[s1 & 0xff] ^ k0;
+            int t3 = TE0[s3 >>> 24] ^ TE1[(s0 >>> 16) & 0xff] ^ TE2[(s1 >>> 8) & 0xff] ^ TE3[s2 & 0xff] ^ k1;
+            s0 = TE0[t0 >>> 24] ^ TE1[(t1 >>> 16) & 0xff] ^ TE2[(t2 >>> 8) & 0xff] ^ TE3[t3 & 0xff] ^ k2;
+            s1 = TE0[t1 >>> 24] ^ TE1[(t2 >>> 16) & 0xff] ^ TE2[(t3 >>> 8) & 0xff] ^ TE3[t0 & 0xff] ^ k3;
+            s2 = TE0[t2 >>> 24] ^ TE1[(t3 >>> 16) & 0xff] ^ TE2[(t0 >>> 8) & 0xff] ^ TE3[t1 & 0xff] ^ k4;
+            s3 = TE0[t3 >>> 24] ^ TE1[(t0 >>> 16) & 0xff] ^ TE2[(t1 >>> 8) & 0xff] ^ TE3[t2 & 0xff] ^ k5;
+            k0 ^= TableEngine.subWord(Integer.rotateLeft(k5, 8)) ^ (AesTables.rcon(j + 1) << 24);
+            k1 ^= k0;
+            k2 ^= k1;
+            k3 ^= k2;
+            k4 ^= k3;
+            k5 ^= k4;
+            if (j == 7) {
+                finalEncryptionRound(s0, s1, s2, s3, k0, k1, k2, k3, out, outOff);
+                return;
+            }
+            t0 = TE0[s0 >>> 24] ^ TE1[(s1 >>> 16) & 0xff] ^ TE2[(s2 >>> 8) & 0xff] ^ TE3[s3 & 0xff] ^ k0;
+            t1 = TE0[s1 >>> 24] ^ TE1[(s2 >>> 16) & 0xff] ^ TE2[(s3 >>> 8) & 0xff] ^ TE3[s0 & 0xff] ^ k1;
+            t2 = TE0[s2 >>> 24] ^ TE1[(s3 >>> 16) & 0xff] ^ TE2[(s0 >>> 8) & 0xff] ^ TE3[s1 & 0xff] ^ k2;
+            t3 = TE0[s3 >>> 24] ^ TE1[(s0 >>> 16) & 0xff] ^ TE2[(s1 >>> 8) & 0xff] ^ TE3[s2 & 0xff] ^ k3;
+            s0 = t0;
+            s1 = t1;
+            s2 = t2;
+            s3 = t3;
+        }
+    }
+
+    /**
+     * AES-192 decryption: k0..k5 are run forward to words 48..53, then stepped back six words at a time,
+     * giving the round keys of encrypt192 in reverse.
+     */
+
+    private static void decrypt192(byte[] key, byte[] in, int inOff, byte[] out, int outOff) {
+        int k0 = TableEngine.getInt(key, 0);
+        int k1 = TableEngine.getInt(key, 4);
+        int k2 = TableEngine.getInt(key, 8);
+        int k3 = TableEngine.getInt(key, 12);
+        int k4 = TableEngine.getInt(key, 16);
+        int k5 = TableEngine.getInt(key, 20);
+        for (int j = 1; j <= 8; j++) {
+            k0 ^= TableEngine.subWord(Integer.rotateLeft(k5, 8)) ^ (AesTables.rcon(j) << 24);
+            k1 ^= k0;
+            k2 ^= k1;
+            k3 ^= k2;
+            k4 ^= k3;
+            k5 ^= k4;
+        }
+        int s0 = TableEngine.getInt(in, inOff) ^ k0;
+        int s1 = TableEngine.getInt(in, inOff + 4) ^ k1;
+        int s2 = TableEngine.getInt(in, inOff + 8) ^ k2;
+        int s3 = TableEngine.getInt(in, inOff + 12) ^ k3;
+        for (int j = 8; ; j -= 2) {
+            k5 ^= k4; //Words 6j..6j+5 back to 6j-6..6j-1.
+            k4 ^= k3;
+            k3 ^= k2;
+            k2 ^= k1;
+            k1 ^= k0;
+            k0 ^= TableEngine.subWord(Integer.rotateLeft(k5, 8)) ^ (AesTables.rcon(j) << 24);
+            int t0 = TD0[s0 >>> 24] ^ TD1[(s3 >>> 16) & 0xff] ^ TD2[(s2 >>> 8) & 0xff] ^ TD3[s1 & 0xff] ^ invMixColumn(k2);
+            int t1 = TD0[s1 >>> 24] ^ TD1[(s0 >>> 16) & 0xff] ^ TD2[(s3 >>> 8) & 0xff] ^ TD3[s2 & 0xff] ^ invMixColumn(k3);
+            int t2 = TD0[s2 >>> 24] ^ TD1[(s1 >>> 16) & 0xff] ^ TD2[(s0 >>> 8) & 0xff] ^ TD3[s3 & 0xff] ^ invMixColumn(k4);
+            int t3 = TD0[s3 >>> 24] ^ TD1[(s2 >>> 16) & 0xff] ^ TD2[(s1 >>> 8) & 0xff] ^ TD3[s0 & 0xff] ^ invMixColumn(k5);
+            int q0 = k0;
+            int q1 = k1;
+            k5 ^= k4;
+            k4 ^= k3;
+            k3 ^= k2;
+            k2 ^= k1;
+            k1 ^= k0;
+            k0 ^= TableEngine.subWord(Integer.rotateLeft(k5, 8)) ^ (AesTables.rcon(j - 1) << 24);
+            s0 = TD0[t0 >>> 24] ^ TD1[(t3 >>> 16) & 0xff] ^ TD2[(t2 >>> 8) & 0xff] ^ TD3[t1 & 0xff] ^ invMixColumn(k4);
+            s1 = TD0[t1 >>> 24] ^ TD1[(t0 >>> 16) & 0xff] ^ TD2[(t3 >>> 8) & 0xff] ^ TD3[t2 & 0xff] ^ invMixColumn(k5);
+            s2 = TD0[t2 >>> 24] ^ TD1[(t1 >>> 16) & 0xff] ^ TD2[(t0 >>> 8) & 0xff] ^ TD3[t3 & 0xff] ^ invMixColumn(q0);
+            s3 = TD0[t3 >>> 24] ^ TD1[(t2 >>> 16) & 0xff] ^ TD2[(t1 >>> 8) & 0xff] ^ TD3[t0 & 0xff] ^ invMixColumn(q1);
+            if (j == 2) {
+                finalDecryptionRound(s0, s1, s2, s3, k0, k1, k2, k3, out, outOff);
+                return;
+            }
+            t0 = TD0[s0 >>> 24] ^ TD1[(s3 >>> 16) & 0xff] ^ TD2[(s2 >>> 8) & 0xff] ^ TD3[s1 & 0xff] ^ invMixColumn(k0);
+            t1 = TD0[s1 >>> 24] ^ TD1[(s0 >>> 16) & 0xff] ^ TD2[(s3 >>> 8) & 0xff] ^ TD3[s2 & 0xff] ^ invMixColumn(k1);
+            t2 = TD0[s2 >>> 24] ^ TD1[(s1 >>> 16) & 0xff] ^ TD2[(s0 >>> 8) & 0xff] ^ TD3[s3 & 0xff] ^ invMixColumn(k2);
+            t3 = TD0[s3 >>> 24] ^ TD1[(s2 >>> 16) & 0xff] ^ TD2[(s1 >>> 8) & 0xff] ^ TD3[s0 & 0xff] ^ invMixColumn(k3);
+            s0 = t0;
+            s1 = t1;
+            s2 = t2;
+            s3 = t3;
+        }
+    }
+
+    //Last round has no MixColumns.
+    private static void finalEncryptionRound(int s0, int s1, int s2, int s3, int k0, int k1, int k2, int k3, byte[] out, int outOff) {
+        TableEngine.putInt(TableEngine.finalRound(SBOX, s0, s1, s2, s3) ^ k0, out, outOff);
+        TableEngine.putInt(TableEngine.finalRound(SBOX, s1, s2, s3, s0) ^ k1, out, outOff + 4);
+        TableEngine.putInt(TableEngine.finalRound(SBOX, s2, s3, s0, s1) ^ k2, out, outOff + 8);
+        TableEngine.putInt(TableEngine.finalRound(SBOX, s3, s0, s1, s2) ^ k3, out, outOff + 12);
+    }
+
+    //Last round has no InvMixColumns; its round key is the start of the cipher key.
+    private static void finalDecryptionRound(int s0, int s1, int s2, int s3, int k0, int k1, int k2, int k3, byte[] out, int outOff) {
+        TableEngine.putInt(TableEngine.finalRound(INV_SBOX, s0, s3, s2, s1) ^ k0, out, outOff);
+        TableEngine.putInt(TableEngine.finalRound(INV_SBOX, s1, s0, s3, s2) ^ k1, out, outOff + 4);
+        TableEngine.putInt(TableEngine.finalRound(INV_SBOX, s2, s1, s0, s3) ^ k2, out, outOff + 8);
+        TableEngine.putInt(TableEngine.finalRound(INV_SBOX, s3, s2, s1, s0) ^ k3, out, outOff + 12);
+    }
+
+    /**
+     * Encrypts consecutive blocks in ECB order, deriving the round keys again for every block.
+     */
+
+    public static void encryptBlocks(byte[] key, byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+        for (int i = 0; i < blocks; i++) {
+            encryptBlock(key, in, inOff + 16 * i, out, outOff + 16 * i);
+        }
+    }
+
+    public static void decryptBlocks(byte[] key, byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+        for (int i = 0; i < blocks; i++) {
+            decryptBlock(key, in, inOff + 16 * i, out, outOff + 16 * i);
+        }
+    }
+
+    private static int invMixColumn(int w) {
+        return TD0[SBOX[w >>> 24]] ^ TD1[SBOX[(w >>> 16) & 0xff]] ^ TD2[SBOX[(w >>> 8) & 0xff]] ^ TD3[SBOX[w & 0xff]];
+    }
+}
@@ -0,0 +1,79 @@
+package ru.macrobit.Engine;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of expanded keys, keyed by the raw key bytes. Safe for concurrent use.
+ * The expansion itself runs outside the lock, so a miss never blocks hits on other keys.
+ */
+
+public final class KeyScheduleCache {
+
+    public static final int DEFAULT_CAPACITY = 512;
+
+    private static final KeyScheduleCache SHARED = new KeyScheduleCache(DEFAULT_CAPACITY);
+
+    private final int capacity;
+    private final LinkedHashMap<ByteBuffer, ExpandedKey> keys;
+
+    public KeyScheduleCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Error: Cache capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.keys = new LinkedHashMap<ByteBuffer, ExpandedKey>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, ExpandedKey> eldest) {
+                return size() > KeyScheduleCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Process-wide cache used by the command line entry points.
+     */
+
+    public static KeyScheduleCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Returns the cached schedule for the key, expanding and caching it on a miss.
+     *
+     * @param key the AES key, copied if it has to be stored
+     * @return the expanded key
+     */
+
+    public ExpandedKey get(byte[] key) {
+        ByteBuffer lookup = ByteBuffer.wrap(key);
+        synchronized (keys) {
+            ExpandedKey expandedKey = keys.get(lookup);
+            if (expandedKey != null) {
+                return expandedKey;
+            }
+        }
+        ExpandedKey expandedKey = ExpandedKey.of(key);
+        synchronized (keys) {
+            ExpandedKey raced = keys.putIfAbsent(ByteBuffer.wrap(key.clone()), expandedKey);
+            return raced != null ? raced : expandedKey;
+        }
+    }
+
+    public int size() {
+        synchronized (keys) {
+            return keys.size();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void clear() {
+        synchronized (keys) {
+            keys.clear();
+        }
+    }
+}
@@ -0,0 +1,399 @@
+package ru.macrobit.Engine;
+
+import ru.macrobit.Tables.AesTables;
+import ru.macrobit.Tables.GaloisField;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Word-oriented AES engine. The state is kept in four big-endian column words and each round
+ * is computed with combined SubBytes + ShiftRows + MixColumns lookup tables (T-tables).
+ * Decryption uses the FIPS-197 equivalent inverse cipher, so it has the same structure and cost as encryption.
+ */
+
+public final class TableEngine {
+
+    public static final int BLOCK_SIZE = 16;
+
+    //Package-private for KeyAgileEngine, which runs the same rounds with its own key schedule.
+    static final int[] SBOX = new int[256];
+    static final int[] INV_SBOX = new int[256];
+
+    static final int[] TE0 = new int[256];
+    static final int[] TE1 = new int[256];
+    static final int[] TE2 = new int[256];
+    static final int[] TE3 = new int[256];
+
+    static final int[] TD0 = new int[256];
+    static final int[] TD1 = new int[256];
+    static final int[] TD2 = new int[256];
+    static final int[] TD3 = new int[256];
+
+    static {
+        for (int x = 0; x < 256; x++) {
+            int s = AesTables.sbox(x);
+            int i = AesTables.invSbox(x);
+            SBOX[x] = s;
+            INV_SBOX[x] = i;
+
+            int te = (GaloisField.mul(s, 2) << 24) | (s << 16) | (s << 8) | GaloisField.mul(s, 3);
+            TE0[x] = te;
+            TE1[x] = Integer.rotateRight(te, 8);
+            TE2[x] = Integer.rotateRight(te, 16);
+            TE3[x] = Integer.rotateRight(te, 24);
+
+            int td = (GaloisField.mul(i, 14) << 24) | (GaloisField.mul(i, 9) << 16)
+                    | (GaloisField.mul(i, 13) << 8) | GaloisField.mul(i, 11);
+            TD0[x] = td;
+            TD1[x] = Integer.rotateRight(td, 8);
+            TD2[x] = Integer.rotateRight(td, 16);
+            TD3[x] = Integer.rotateRight(td, 24);
+        }
+    }
+
+    private TableEngine() {
+    }
+
+    /**
+     * Number of rounds for a key of the given length.
+     *
+     * @param keyLength key length in bytes (16, 24 or 32)
+     * @return 10, 12 or 14
+     */
+
+    public static int rounds(int keyLength) {
+        if (keyLength != 16 && keyLength != 24 && keyLength != 32) {
+            throw new IllegalArgumentException("Error: Unsupported AES key length " + keyLength * 8 + " bits");
+        }
+        return keyLength / 4 + 6;
+    }
+
+    /**
+     * FIPS-197 key expansion into a flat array of 4 * (rounds + 1) words.
+     *
+     * @param key the cipher key
+     * @return the encryption round keys
+     */
+
+    public static int[] expandEncryptionKey(byte[] key) {
+        final int nk = key.length / 4;
+        final int total = 4 * (rounds(key.length) + 1);
+        int[] w = new int[total];
+        for (int i = 0; i < nk; i++) {
+            w[i] = getInt(key, 4 * i);
+        }
+        int rConpointer = 1;
+        for (int i = nk; i < total; i++) {
+            int temp = w[i - 1];
+            if (i % nk == 0) {
+                temp = subWord(Integer.rotateLeft(temp, 8)) ^ (AesTables.rcon(rConpointer++) << 24);
+            } else if (nk > 6 && i % nk == 4) {
+                temp = subWord(temp);
+            }
+            w[i] = w[i - nk] ^ temp;
+        }
+        return w;
+    }
+
+    /**
+     * Derives the round keys of the equivalent inverse cipher: the encryption round keys in reverse order,
+     * with InvMixColumns applied to every round key except the first and the last.
+     *
+     * @param encKey round keys formed by expandEncryptionKey()
+     * @return the decryption round keys
+     */
+
+    public static int[] expandDecryptionKey(int[] encKey) {
+        final int rounds = encKey.length / 4 - 1;
+        int[] dk = new int[encKey.length];
+        for (int r = 0; r <= rounds; r++) {
+            for (int c = 0; c < 4; c++) {
+                int w = encKey[4 * (rounds - r) + c];
+                if (r != 0 && r != rounds) {
+                    w = TD0[SBOX[w >>> 24]] ^ TD1[SBOX[(w >>> 16) & 0xff]]
+                            ^ TD2[SBOX[(w >>> 8) & 0xff]] ^ TD3[SBOX[w & 0xff]];
+                }
+                dk[4 * r + c] = w;
+            }
+        }
+        return dk;
+    }
+
+    /**
+     * Encrypts one 16-byte block. {@code in} and {@code out} may be the same array and overlap exactly.
+     *
+     * @param rk     round keys formed by expandEncryptionKey()
+     * @param in     source array
+     * @param inOff  offset of the plaintext block
+     * @param out    destination array
+     * @param outOff offset where the ciphertext block is written
+     */
+
+    public static void encryptBlock(int[] rk, byte[] in, int inOff, byte[] out, int outOff) {
+        final int rounds = rk.length / 4 - 1;
+        int s0 = getInt(in, inOff) ^ rk[0];
+        int s1 = getInt(in, inOff + 4) ^ rk[1];
+        int s2 = getInt(in, inOff + 8) ^ rk[2];
+        int s3 = getInt(in, inOff + 12) ^ rk[3];
+        int k = 4;
+        for (int r = 1; r < rounds; r++) {
+            int t0 = TE0[s0 >>> 24] ^ TE1[(s1 >>> 16) & 0xff] ^ TE2[(s2 >>> 8) & 0xff] ^ TE3[s3 & 0xff] ^ rk[k];
+            int t1 = TE0[s1 >>> 24] ^ TE1[(s2 >>> 16) & 0xff] ^ TE2[(s3 >>> 8) & 0xff] ^ TE3[s0 & 0xff] ^ rk[k + 1];
+            int t2 = TE0[s2 >>> 24] ^ TE1[(s3 >>> 16) & 0xff] ^ TE2[(s0 >>> 8) & 0xff] ^ TE3[s1 & 0xff] ^ rk[k + 2];
+            int t3 = TE0[s3 >>> 24] ^ TE1[(s0 >>> 16) & 0xff] ^ TE2[(s1 >>> 8) & 0xff] ^ TE3[s2 & 0xff] ^ rk[k + 3];
+            s0 = t0;
+            s1 = t1;
+            s2 = t2;
+            s3 = t3;
+            k += 4;
+        }
+        //Last round has no MixColumns.
+        putInt(finalRound(SBOX, s0, s1, s2, s3) ^ rk[k], out, outOff);
+        putInt(finalRound(SBOX, s1, s2, s3, s0) ^ rk[k + 1], out, outOff + 4);
+        putInt(finalRound(SBOX, s2, s3, s0, s1) ^ rk[k + 2], out, outOff + 8);
+        putInt(finalRound(SBOX, s3, s0, s1, s2) ^ rk[k + 3], out, outOff + 12);
+    }
+
+    /**
+     * Decrypts one 16-byte block with the equivalent inverse cipher.
+     *
+     * @param dk     round keys formed by expandDecryptionKey()
+     * @param in     source array
+     * @param inOff  offset of the ciphertext block
+     * @param out    destination array
+     * @param outOff offset where the plaintext block is written
+     */
+
+    public static void decryptBlock(int[] dk, byte[] in, int inOff, byte[] out, int outOff) {
+        final int rounds = dk.length / 4 - 1;
+        int s0 = getInt(in, inOff) ^ dk[0];
+        int s1 = getInt(in, inOff + 4) ^ dk[1];
+        int s2 = getInt(in, inOff + 8) ^ dk[2];
+        int s3 = getInt(in, inOff + 12) ^ dk[3];
+        int k = 4;
+        for (int r = 1; r < rounds; r++) {
+            int t0 = TD0[s0 >>> 24] ^ TD1[(s3 >>> 16) & 0xff] ^ TD2[(s2 >>> 8) & 0xff] ^ TD3[s1 & 0xff] ^ dk[k];
+            int t1 = TD0[s1 >>> 24] ^ TD1[(s0 >>> 16) & 0xff] ^ TD2[(s3 >>> 8) & 0xff] ^ TD3[s2 & 0xff] ^ dk[k + 1];
+            int t2 = TD0[s2 >>> 24] ^ TD1[(s1 >>> 16) & 0xff] ^ TD2[(s0 >>> 8) & 0xff] ^ TD3[s3 & 0xff] ^ dk[k + 2];
+            int t3 = TD0[s3 >>> 24] ^ TD1[(s2 >>> 16) & 0xff] ^ TD2[(s1 >>> 8) & 0xff] ^ TD3[s0 & 0xff] ^ dk[k + 3];
+            s0 = t0;
+            s1 = t1;
+            s2 = t2;
+            s3 = t3;
+            k += 4;
+        }
+        //Last round has no InvMixColumns.
+        putInt(finalRound(INV_SBOX, s0, s3, s2, s1) ^ dk[k], out, outOff);
+        putInt(finalRound(INV_SBOX, s1, s0, s3, s2) ^ dk[k + 1], out, outOff + 4);
+        putInt(finalRound(INV_SBOX, s2, s1, s0, s3) ^ dk[k + 2], out, outOff + 8);
+        putInt(finalRound(INV_SBOX, s3, s2, s1, s0) ^ dk[k + 3], out, outOff + 12);
+    }
+
+    /**
+     * Encrypts consecutive blocks in ECB order. Nothing is allocated; {@code in} and {@code out} may be the same range.
+     *
+     * @param rk     round keys formed by expandEncryptionKey()
+     * @param blocks number of 16-byte blocks
+     */
+
+    public static void encryptBlocks(int[] rk, byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+        for (int i = 0; i < blocks; i++) {
+            encryptBlock(rk, in, inOff, out, outOff);
+            inOff += BLOCK_SIZE;
+            outOff += BLOCK_SIZE;
+        }
+    }
+
+    public static void decryptBlocks(int[] dk, byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+        for (int i = 0; i < blocks; i++) {
+            decryptBlock(dk, in, inOff, out, outOff);
+            inOff += BLOCK_SIZE;
+            outOff += BLOCK_SIZE;
+        }
+    }
+
+    /**
+     * CBC encryption of consecutive blocks.
+     *
+     * @param rk     round keys formed by expandEncryptionKey()
+     * @param iv     16-byte chaining value; on return it holds the last ciphertext block
+     * @param blocks number of 16-byte blocks
+     */
+
+    public static void encryptBlocksCbc(int[] rk, byte[] iv, byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+        for (int i = 0; i < blocks; i++) {
+            for (int j = 0; j < BLOCK_SIZE; j++) {
+                out[outOff + j] = (byte) (in[inOff + j] ^ iv[j]);
+            }
+            encryptBlock(rk, out, outOff, out, outOff);
+            System.arraycopy(out, outOff, iv, 0, BLOCK_SIZE);
+            inOff += BLOCK_SIZE;
+            outOff += BLOCK_SIZE;
+        }
+    }
+
+    /**
+     * CBC decryption of consecutive blocks. {@code in} and {@code out} may be the same range.
+     *
+     * @param dk     round keys formed by expandDecryptionKey()
+     * @param iv     16-byte chaining value; on return it holds the last ciphertext block
+     * @param blocks number of 16-byte blocks
+     */
+
+    public static void decryptBlocksCbc(int[] dk, byte[] iv, byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+        for (int i = 0; i < blocks; i++) {
+            int c0 = getInt(in, inOff);
+            int c1 = getInt(in, inOff + 4);
+            int c2 = getInt(in, inOff + 8);
+            int c3 = getInt(in, inOff + 12);
+            decryptBlock(dk, in, inOff, out, outOff);
+            for (int j = 0; j < BLOCK_SIZE; j++) {
+                out[outOff + j] ^= iv[j];
+            }
+            putInt(c0, iv, 0);
+            putInt(c1, iv, 4);
+            putInt(c2, iv, 8);
+            putInt(c3, iv, 12);
+            inOff += BLOCK_SIZE;
+            outOff += BLOCK_SIZE;
+        }
+    }
+
+    /**
+     * ECB encryption straight between two buffers (heap, direct or mapped) at absolute indices.
+     * Both buffers must be in big-endian order; positions and limits are not used.
+     *
+     * @param rk     round keys formed by expandEncryptionKey()
+     * @param blocks number of 16-byte blocks
+     */
+
+    public static void encryptBlocks(int[] rk, ByteBuffer in, int inOff, ByteBuffer out, int outOff, int blocks) {
+        final int rounds = rk.length / 4 - 1;
+        for (int b = 0; b < blocks; b++) {
+            int s0 = in.getInt(inOff) ^ rk[0];
+            int s1 = in.getInt(inOff + 4) ^ rk[1];
+            int s2 = in.getInt(inOff + 8) ^ rk[2];
+            int s3 = in.getInt(inOff + 12) ^ rk[3];
+            int k = 4;
+            for (int r = 1; r < rounds; r++) {
+                int t0 = TE0[s0 >>> 24] ^ TE1[(s1 >>> 16) & 0xff] ^ TE2[(s2 >>> 8) & 0xff] ^ TE3[s3 & 0xff] ^ rk[k];
+                int t1 = TE0[s1 >>> 24] ^ TE1[(s2 >>> 16) & 0xff] ^ TE2[(s3 >>> 8) & 0xff] ^ TE3[s0 & 0xff] ^ rk[k + 1];
+                int t2 = TE0[s2 >>> 24] ^ TE1[(s3 >>> 16) & 0xff] ^ TE2[(s0 >>> 8) & 0xff] ^ TE3[s1 & 0xff] ^ rk[k + 2];
+                int t3 = TE0[s3 >>> 24] ^ TE1[(s0 >>> 16) & 0xff] ^ TE2[(s1 >>> 8) & 0xff] ^ TE3[s2 & 0xff] ^ rk[k + 3];
+                s0 = t0;
+                s1 = t1;
+                s2 = t2;
+                s3 = t3;
+                k += 4;
+            }
+            out.putInt(outOff, finalRound(SBOX, s0, s1, s2, s3) ^ rk[k]);
+            out.putInt(outOff + 4, finalRound(SBOX, s1, s2, s3, s0) ^ rk[k + 1]);
+            out.putInt(outOff + 8, finalRound(SBOX, s2, s3, s0, s1) ^ rk[k + 2]);
+            out.putInt(outOff + 12, finalRound(SBOX, s3, s0, s1, s2) ^ rk[k + 3]);
+            inOff += BLOCK_SIZE;
+            outOff += BLOCK_SIZE;
+        }
+    }
+
+    public static void decryptBlocks(int[] dk, ByteBuffer in, int inOff, ByteBuffer out, int outOff, int blocks) {
+        final int rounds = dk.length / 4 - 1;
+        for (int b = 0; b < blocks; b++) {
+            int s0 = in.getInt(inOff) ^ dk[0];
+            int s1 = in.getInt(inOff + 4) ^ dk[1];
+            int s2 = in.getInt(inOff + 8) ^ dk[2];
+            int s3 = in.getInt(inOff + 12) ^ dk[3];
+            int k = 4;
+            for (int r = 1; r < rounds; r++) {
+                int t0 = TD0[s0 >>> 24] ^ TD1[(s3 >>> 16) & 0xff] ^ TD2[(s2 >>> 8) & 0xff] ^ TD3[s1 & 0xff] ^ dk[k];
+                int t1 = TD0[s1 >>> 24] ^ TD1[(s0 >>> 16) & 0xff] ^ TD2[(s3 >>> 8) & 0xff] ^ TD3[s2 & 0xff] ^ dk[k + 1];
+                int t2 = TD0[s2 >>> 24] ^ TD1[(s1 >>> 16) & 0xff] ^ TD2[(s0 >>> 8) & 0xff] ^ TD3[s3 & 0xff] ^ dk[k + 2];
+                int t3 = TD0[s3 >>> 24] ^ TD1[(s2 >>> 16) & 0xff] ^ TD2[(s1 >>> 8) & 0xff] ^ TD3[s0 & 0xff] ^ dk[k + 3];
+                s0 = t0;
+                s1 = t1;
+                s2 = t2;
+                s3 = t3;
+                k += 4;
+            }
+            out.putInt(outOff, finalRound(INV_SBOX, s0, s3, s2, s1) ^ dk[k]);
+            out.putInt(outOff + 4, finalRound(INV_SBOX, s1, s0, s3, s2) ^ dk[k + 1]);
+            out.putInt(outOff + 8, finalRound(INV_SBOX, s2, s1, s0, s3) ^ dk[k + 2]);
+            out.putInt(outOff + 12, finalRound(INV_SBOX, s3, s2, s1, s0) ^ dk[k + 3]);
+            inOff += BLOCK_SIZE;
+            outOff += BLOCK_SIZE;
+        }
+    }
+
+    /**
+     * CBC encryption between buffers at absolute indices; {@code iv} is updated to the last ciphertext block.
+     */
+
+    public static void encryptBlocksCbc(int[] rk, byte[] iv, ByteBuffer in, int inOff, ByteBuffer out, int outOff, int blocks) {
+        int c0 = getInt(iv, 0), c1 = getInt(iv, 4), c2 = getInt(iv, 8), c3 = getInt(iv, 12);
+        for (int b = 0; b < blocks; b++) {
+            out.putInt(outOff, in.getInt(inOff) ^ c0);
+            out.putInt(outOff + 4, in.getInt(inOff + 4) ^ c1);
+            out.putInt(outOff + 8, in.getInt(inOff + 8) ^ c2);
+            out.putInt(outOff + 12, in.getInt(inOff + 12) ^ c3);
+            encryptBlocks(rk, out, outOff, out, outOff, 1);
+            c0 = out.getInt(outOff);
+            c1 = out.getInt(outOff + 4);
+            c2 = out.getInt(outOff + 8);
+            c3 = out.getInt(outOff + 12);
+            inOff += BLOCK_SIZE;
+            outOff += BLOCK_SIZE;
+        }
+        putInt(c0, iv, 0);
+        putInt(c1, iv, 4);
+        putInt(c2, iv, 8);
+        putInt(c3, iv, 12);
+    }
+
+    /**
+     * CBC decryption between buffers at absolute indices; {@code in} and {@code out} may be the same range.
+     * {@code iv} is updated to the last ciphertext block.
+     */
+
+    public static void decryptBlocksCbc(int[] dk, byte[] iv, ByteBuffer in, int inOff, ByteBuffer out, int outOff, int blocks) {
+        int c0 = getInt(iv, 0), c1 = getInt(iv, 4), c2 = getInt(iv, 8), c3 = getInt(iv, 12);
+        for (int b = 0; b < blocks; b++) {
+            int n0 = in.getInt(inOff);
+            int n1 = in.getInt(inOff + 4);
+            int n2 = in.getInt(inOff + 8);
+            int n3 = in.getInt(inOff + 12);
+            decryptBlocks(dk, in, inOff, out, outOff, 1);
+            out.putInt(outOff, out.getInt(outOff) ^ c0);
+            out.putInt(outOff + 4, out.getInt(outOff + 4) ^ c1);
+            out.putInt(outOff + 8, out.getInt(outOff + 8) ^ c2);
+            out.putInt(outOff + 12, out.getInt(outOff + 12) ^ c3);
+            c0 = n0;
+            c1 = n1;
+            c2 = n2;
+            c3 = n3;
+            inOff += BLOCK_SIZE;
+            outOff += BLOCK_SIZE;
+        }
+        putInt(c0, iv, 0);
+        putInt(c1, iv, 4);
+        putInt(c2, iv, 8);
+        putInt(c3, iv, 12);
+    }
+
+    static int finalRound(int[] box, int a, int b, int c, int d) {
+        return (box[a >>> 24] << 24) | (box[(b >>> 16) & 0xff] << 16) | (box[(c >>> 8) & 0xff] << 8) | box[d & 0xff];
+    }
+
+    static int subWord(int w) {
+        return (SBOX[w >>> 24] << 24) | (SBOX[(w >>> 16) & 0xff] << 16) | (SBOX[(w >>> 8) & 0xff] << 8) | SBOX[w & 0xff];
+    }
+
+    static int getInt(byte[] b, int off) {
+        return (b[off] << 24) | ((b[off + 1] & 0xff) << 16) | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+    }
+
+    static void putInt(int v, byte[] b, int off) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+}
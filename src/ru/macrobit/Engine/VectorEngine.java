@@ -0,0 +1,86 @@
+package ru.macrobit.Engine;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Multi-block AES on the Java Vector API: the bitsliced circuit of BitslicedEngine with every bit plane held
+ * in a SIMD register, so one pass covers 64 blocks per 64-bit lane (256 with AVX2, 512 with AVX-512).
+ * Runs of up to 64 blocks, and every call when the jdk.incubator.vector module is not in the boot layer
+ * (start the JVM with {@code --add-modules jdk.incubator.vector}) or the hardware has no vectors wider
+ * than a long, fall back to the scalar BitslicedEngine. Like it, the engine is constant-time.
+ */
+
+public final class VectorEngine {
+
+    private static final boolean AVAILABLE = vectorModulePresent();
+
+    private VectorEngine() {
+    }
+
+    /**
+     * @return true when the calls below actually run on the Vector API
+     */
+
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /**
+     * Number of blocks encrypted per pass; callers batching their input should use multiples of it.
+     */
+
+    public static int parallelBlocks() {
+        return AVAILABLE ? VectorKernel.BLOCKS : BitslicedEngine.PARALLEL_BLOCKS;
+    }
+
+    public static void encryptBlocks(ExpandedKey key, byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+        if (AVAILABLE && blocks > BitslicedEngine.PARALLEL_BLOCKS) {
+            VectorKernel.processBlocks(key.bitslicedKey(), true, in, inOff, out, outOff, blocks);
+        } else {
+            BitslicedEngine.encryptBlocks(key, in, inOff, out, outOff, blocks);
+        }
+    }
+
+    public static void decryptBlocks(ExpandedKey key, byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+        if (AVAILABLE && blocks > BitslicedEngine.PARALLEL_BLOCKS) {
+            VectorKernel.processBlocks(key.bitslicedKey(), false, in, inOff, out, outOff, blocks);
+        } else {
+            BitslicedEngine.decryptBlocks(key, in, inOff, out, outOff, blocks);
+        }
+    }
+
+    /**
+     * Buffer variants work at absolute indices; positions and limits are not used.
+     */
+
+    public static void encryptBlocks(ExpandedKey key, ByteBuffer in, int inOff, ByteBuffer out, int outOff, int blocks) {
+        if (AVAILABLE && blocks > BitslicedEngine.PARALLEL_BLOCKS) {
+            VectorKernel.processBlocks(key.bitslicedKey(), true, in, inOff, out, outOff, blocks);
+        } else {
+            BitslicedEngine.encryptBlocks(key, in, inOff, out, outOff, blocks);
+        }
+    }
+
+    public static void decryptBlocks(ExpandedKey key, ByteBuffer in, int inOff, ByteBuffer out, int outOff, int blocks) {
+        if (AVAILABLE && blocks > BitslicedEngine.PARALLEL_BLOCKS) {
+            VectorKernel.processBlocks(key.bitslicedKey(), false, in, inOff, out, outOff, blocks);
+        } else {
+            BitslicedEngine.decryptBlocks(key, in, inOff, out, outOff, blocks);
+        }
+    }
+
+    /**
+     * VectorKernel is only loaded once the module is known to be there, so its absence is not an error.
+     */
+
+    private static boolean vectorModulePresent() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return false;
+        }
+        try {
+            return VectorKernel.LANES > 1;
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+}
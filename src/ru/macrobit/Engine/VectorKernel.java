@@ -0,0 +1,607 @@
+package ru.macrobit.Engine;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The BitslicedEngine algorithm on LongVectors of the preferred species: every bit plane is a vector holding
+ * one 64-block group per lane, so a 512-bit machine encrypts 512 blocks per pass. Plane p of lane l is kept
+ * at index {@code LANES * p + l} of the state array. Only VectorEngine touches this class, and only after
+ * checking that the jdk.incubator.vector module is present.
+ * <p>
+ * Every vector operation costs C2 hundreds of nodes while parsing, and a method holding the whole S-box or
+ * all sixteen MixColumns rows runs out of its inlining budget, leaving vectors boxed on the heap. So each
+ * hot loop body here has a single small call site, and the S-box circuit is split into short methods.
+ */
+
+final class VectorKernel {
+
+    static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+    static final int LANES = SPECIES.length();
+    static final int BLOCKS = BitslicedEngine.PARALLEL_BLOCKS * LANES;
+
+    private static final int GROUP_BYTES = 16 * BitslicedEngine.PARALLEL_BLOCKS; //Bytes of one lane.
+
+    private static final int W = 256; //First plane of the S-box registers, after the two state halves.
+
+    private static final int REGISTERS = 123; //x0-x7 and every gate output of the S-box circuit.
+
+    private static final int[] SHIFT_ROWS = new int[16];
+    private static final int[] INV_SHIFT_ROWS = new int[16];
+    private static final int[] NO_SHIFT = new int[16];
+    private static final long[] ZERO_KEY = new long[128];
+    private static final long[] SWAP_MASKS = {0x00000000FFFFFFFFL, 0x0000FFFF0000FFFFL, 0x00FF00FF00FF00FFL,
+            0x0F0F0F0F0F0F0F0FL, 0x3333333333333333L, 0x5555555555555555L};
+
+    static {
+        for (int r = 0; r < 4; r++) {
+            for (int c = 0; c < 4; c++) {
+                SHIFT_ROWS[r + 4 * c] = r + 4 * ((c + r) & 3);
+                INV_SHIFT_ROWS[r + 4 * c] = r + 4 * ((c - r) & 3);
+                NO_SHIFT[r + 4 * c] = r + 4 * c;
+            }
+        }
+    }
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    /**
+     * Per thread: the vector state, two halves of 128 planes followed by the S-box registers.
+     */
+
+    private static final ThreadLocal<long[]> SCRATCH = ThreadLocal.withInitial(() -> new long[(W + REGISTERS) * LANES]);
+
+    private VectorKernel() {
+    }
+
+    static void processBlocks(long[] rk, boolean encrypt, byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+        long[] s = SCRATCH.get();
+        while (blocks > 0) {
+            int n = Math.min(blocks, BLOCKS);
+            for (int lane = 0; lane < LANES; lane++) {
+                int base = inOff + lane * GROUP_BYTES;
+                for (int k = 0; k < BitslicedEngine.PARALLEL_BLOCKS; k++) {
+                    boolean present = lane * BitslicedEngine.PARALLEL_BLOCKS + k < n; //Missing blocks are zero.
+                    s[LANES * k + lane] = present ? (long) LONGS.get(in, base + 16 * k) : 0;
+                    s[LANES * (64 + k) + lane] = present ? (long) LONGS.get(in, base + 16 * k + 8) : 0;
+                }
+            }
+            transpose(s);
+            cipher(rk, s, encrypt);
+            transpose(s);
+            for (int lane = 0; lane < LANES; lane++) {
+                int base = outOff + lane * GROUP_BYTES;
+                for (int k = 0; k < BitslicedEngine.PARALLEL_BLOCKS && lane * BitslicedEngine.PARALLEL_BLOCKS + k < n; k++) {
+                    LONGS.set(out, base + 16 * k, s[LANES * k + lane]);
+                    LONGS.set(out, base + 16 * k + 8, s[LANES * (64 + k) + lane]);
+                }
+            }
+            inOff += 16 * n;
+            outOff += 16 * n;
+            blocks -= n;
+        }
+    }
+
+    static void processBlocks(long[] rk, boolean encrypt, ByteBuffer in, int inOff, ByteBuffer out, int outOff, int blocks) {
+        long[] s = SCRATCH.get();
+        boolean swapIn = in.order() != ByteOrder.BIG_ENDIAN;
+        boolean swapOut = out.order() != ByteOrder.BIG_ENDIAN;
+        while (blocks > 0) {
+            int n = Math.min(blocks, BLOCKS);
+            for (int lane = 0; lane < LANES; lane++) {
+                int base = inOff + lane * GROUP_BYTES;
+                for (int k = 0; k < BitslicedEngine.PARALLEL_BLOCKS; k++) {
+                    boolean present = lane * BitslicedEngine.PARALLEL_BLOCKS + k < n;
+                    long hi = present ? in.getLong(base + 16 * k) : 0;
+                    long lo = present ? in.getLong(base + 16 * k + 8) : 0;
+                    s[LANES * k + lane] = swapIn ? Long.reverseBytes(hi) : hi;
+                    s[LANES * (64 + k) + lane] = swapIn ? Long.reverseBytes(lo) : lo;
+                }
+            }
+            transpose(s);
+            cipher(rk, s, encrypt);
+            transpose(s);
+            for (int lane = 0; lane < LANES; lane++) {
+                int base = outOff + lane * GROUP_BYTES;
+                for (int k = 0; k < BitslicedEngine.PARALLEL_BLOCKS && lane * BitslicedEngine.PARALLEL_BLOCKS + k < n; k++) {
+                    long hi = s[LANES * k + lane];
+                    long lo = s[LANES * (64 + k) + lane];
+                    out.putLong(base + 16 * k, swapOut ? Long.reverseBytes(hi) : hi);
+                    out.putLong(base + 16 * k + 8, swapOut ? Long.reverseBytes(lo) : lo);
+                }
+            }
+            inOff += 16 * n;
+            outOff += 16 * n;
+            blocks -= n;
+        }
+    }
+
+    /**
+     * BitslicedEngine.transpose on both 64-plane halves of the state, every lane at once.
+     */
+
+    private static void transpose(long[] s) {
+        for (int i = 0; i < 12; i++) {
+            swap(s, 64 * (i / 6), 32 >>> (i % 6), SWAP_MASKS[i % 6]);
+        }
+    }
+
+    private static void swap(long[] s, int off, int j, long m) {
+        for (int k = 0; k < 64; k = (k + j + 1) & ~j) {
+            LongVector a = plane(s, off + k);
+            LongVector b = plane(s, off + k + j);
+            LongVector t = xor(a, b.lanewise(VectorOperators.LSHR, j)).lanewise(VectorOperators.AND, m);
+            xor(a, t).intoArray(s, LANES * (off + k));
+            xor(b, t.lanewise(VectorOperators.LSHL, j)).intoArray(s, LANES * (off + k + j));
+        }
+    }
+
+    private static void cipher(long[] rk, long[] s, boolean encrypt) {
+        if (encrypt) {
+            encrypt(rk, s);
+        } else {
+            decrypt(rk, s);
+        }
+    }
+
+    /**
+     * Same rounds as BitslicedEngine (offsets are in planes, 0 or 128), with the last round folded into the
+     * loop so every step has a single call site.
+     */
+
+    private static void encrypt(long[] rk, long[] s) {
+        final int rounds = rk.length / 128 - 1;
+        addRoundKey(s, 0, rk, 0);
+        int cur = 0;
+        for (int round = 1; round <= rounds; round++) {
+            subBytes(s, cur);
+            if (round < rounds) {
+                mixColumns(s, cur, 128 - cur, SHIFT_ROWS, rk, 128 * round);
+            } else {
+                shiftRows(s, cur, 128 - cur, SHIFT_ROWS);
+                addRoundKey(s, 128 - cur, rk, rounds);
+            }
+            cur = 128 - cur;
+        }
+        if (cur != 0) {
+            System.arraycopy(s, LANES * cur, s, 0, LANES * 128);
+        }
+    }
+
+    private static void decrypt(long[] rk, long[] s) {
+        final int rounds = rk.length / 128 - 1;
+        addRoundKey(s, 0, rk, rounds);
+        for (int round = rounds - 1; round >= 0; round--) {
+            shiftRows(s, 0, 128, INV_SHIFT_ROWS);
+            invSubBytes(s, 128);
+            addRoundKey(s, 128, rk, round);
+            if (round > 0) {
+                invMixColumns(s, 128, 0);
+            } else {
+                System.arraycopy(s, LANES * 128, s, 0, LANES * 128);
+            }
+        }
+    }
+
+    private static LongVector plane(long[] s, int p) {
+        return LongVector.fromArray(SPECIES, s, LANES * p);
+    }
+
+    private static LongVector xor(LongVector a, LongVector b) {
+        return a.lanewise(VectorOperators.XOR, b);
+    }
+
+    private static void addRoundKey(long[] s, int off, long[] rk, int round) {
+        int k = 128 * round;
+        for (int i = 0; i < 128; i++) {
+            plane(s, off + i).lanewise(VectorOperators.XOR, rk[k + i]).intoArray(s, LANES * (off + i));
+        }
+    }
+
+    private static void shiftRows(long[] s, int srcOff, int dstOff, int[] shift) {
+        for (int b = 0; b < 16; b++) {
+            System.arraycopy(s, LANES * (srcOff + 8 * shift[b]), s, LANES * (dstOff + 8 * b), LANES * 8);
+        }
+    }
+
+    /**
+     * ShiftRows, MixColumns and AddRoundKey as in BitslicedEngine: output row r of a column is
+     * xtime(a_r ^ a_r+1) ^ a_r+1 ^ a_r+2 ^ a_r+3 ^ round key.
+     */
+
+    private static void mixColumns(long[] s, int srcOff, int dstOff, int[] shift, long[] rk, int rkOff) {
+        for (int b = 0; b < 16; b++) {
+            int c = b & ~3;
+            int r = b & 3;
+            mixRow(s, srcOff + 8 * shift[c + r], srcOff + 8 * shift[c + ((r + 1) & 3)],
+                    srcOff + 8 * shift[c + ((r + 2) & 3)], srcOff + 8 * shift[c + ((r + 3) & 3)],
+                    dstOff + 8 * b, rk, rkOff + 8 * b);
+        }
+    }
+
+    private static void mixRow(long[] s, int a, int b, int c, int d, int o, long[] rk, int k) {
+        LongVector t0 = xor(plane(s, a), plane(s, b));
+        for (int i = 0; i < 8; i++) {
+            LongVector v = xor(xor(plane(s, b + i), plane(s, c + i)), plane(s, d + i));
+            if (i < 7) {
+                v = xor(v, xor(plane(s, a + i + 1), plane(s, b + i + 1)));
+            }
+            if (i == 3 || i == 4 || i == 6 || i == 7) {
+                v = xor(v, t0);
+            }
+            v.lanewise(VectorOperators.XOR, rk[k + i]).intoArray(s, LANES * (o + i));
+        }
+    }
+
+    /**
+     * MixColumns has order 4, so InvMixColumns is MixColumns applied three times. That costs more XORs than
+     * the xtime-based form of BitslicedEngine but reuses the one mixRow call site, see the class comment.
+     */
+
+    private static void invMixColumns(long[] s, int srcOff, int dstOff) {
+        for (int i = 0; i < 3; i++) {
+            mixColumns(s, i == 1 ? dstOff : srcOff, i == 1 ? srcOff : dstOff, NO_SHIFT, ZERO_KEY, 0);
+        }
+    }
+
+    private static void subBytes(long[] s, int off) {
+        for (int b = 0; b < 16; b++) {
+            sbox(s, off + 8 * b);
+        }
+    }
+
+    /**
+     * B(x ^ 0x63) on every byte, the S-box, then B(x ^ 0x63) again, as in BitslicedEngine.invSubBytes.
+     */
+
+    private static void invSubBytes(long[] s, int off) {
+        for (int pass = 0; pass < 2; pass++) {
+            for (int b = 0; b < 16; b++) {
+                invAffine(s, off + 8 * b);
+            }
+            if (pass == 0) {
+                subBytes(s, off);
+            }
+        }
+    }
+
+    private static void invAffine(long[] s, int p) {
+        LongVector q0 = plane(s, p + 7).not(), q1 = plane(s, p + 6).not(), q2 = plane(s, p + 5), q3 = plane(s, p + 4);
+        LongVector q4 = plane(s, p + 3), q5 = plane(s, p + 2).not(), q6 = plane(s, p + 1).not(), q7 = plane(s, p);
+        xor(xor(q1, q4), q6).intoArray(s, LANES * p);
+        xor(xor(q0, q3), q5).intoArray(s, LANES * (p + 1));
+        xor(xor(q7, q2), q4).intoArray(s, LANES * (p + 2));
+        xor(xor(q6, q1), q3).intoArray(s, LANES * (p + 3));
+        xor(xor(q5, q0), q2).intoArray(s, LANES * (p + 4));
+        xor(xor(q4, q7), q1).intoArray(s, LANES * (p + 5));
+        xor(xor(q3, q6), q0).intoArray(s, LANES * (p + 6));
+        xor(xor(q2, q5), q7).intoArray(s, LANES * (p + 7));
+    }
+
+    /**
+     * Boyar-Peralta S-box, gate for gate as in BitslicedEngine.sbox, on the eight planes starting at p.
+     * Inputs are copied to registers x0..x7 at plane W and outputs copied back from s0..s7. The circuit is
+     * cut into runs of 20 gates that keep their values in vector registers and only pass the live ones on
+     * through the register planes.
+     */
+
+    private static void sbox(long[] s, int p) {
+        System.arraycopy(s, LANES * p, s, LANES * W, LANES * 8);
+        sbox0(s);
+        sbox1(s);
+        sbox2(s);
+        sbox3(s);
+        sbox4(s);
+        sbox5(s);
+        System.arraycopy(s, LANES * (W + 114), s, LANES * (p + 0), LANES);
+        System.arraycopy(s, LANES * (W + 121), s, LANES * (p + 1), LANES);
+        System.arraycopy(s, LANES * (W + 122), s, LANES * (p + 2), LANES);
+        System.arraycopy(s, LANES * (W + 118), s, LANES * (p + 3), LANES);
+        System.arraycopy(s, LANES * (W + 119), s, LANES * (p + 4), LANES);
+        System.arraycopy(s, LANES * (W + 120), s, LANES * (p + 5), LANES);
+        System.arraycopy(s, LANES * (W + 115), s, LANES * (p + 6), LANES);
+        System.arraycopy(s, LANES * (W + 116), s, LANES * (p + 7), LANES);
+    }
+
+    private static void sbox0(long[] s) {
+        LongVector x0 = plane(s, W + 0);
+        LongVector x1 = plane(s, W + 1);
+        LongVector x2 = plane(s, W + 2);
+        LongVector x3 = plane(s, W + 3);
+        LongVector x4 = plane(s, W + 4);
+        LongVector x5 = plane(s, W + 5);
+        LongVector x6 = plane(s, W + 6);
+        LongVector x7 = plane(s, W + 7);
+        LongVector y14 = xor(x3, x5);
+        LongVector y13 = xor(x0, x6);
+        LongVector y9 = xor(x0, x3);
+        LongVector y8 = xor(x0, x5);
+        LongVector t0 = xor(x1, x2);
+        LongVector y1 = xor(t0, x7);
+        LongVector y4 = xor(y1, x3);
+        LongVector y12 = xor(y13, y14);
+        LongVector y2 = xor(y1, x0);
+        LongVector y5 = xor(y1, x6);
+        LongVector y3 = xor(y5, y8);
+        LongVector t1 = xor(x4, y12);
+        LongVector y15 = xor(t1, x5);
+        LongVector y20 = xor(t1, x1);
+        LongVector y6 = xor(y15, x7);
+        LongVector y10 = xor(y15, t0);
+        LongVector y11 = xor(y20, y9);
+        LongVector y7 = xor(x7, y11);
+        LongVector y17 = xor(y10, y11);
+        LongVector y19 = xor(y10, y8);
+        y14.intoArray(s, LANES * (W + 8));
+        y13.intoArray(s, LANES * (W + 9));
+        y9.intoArray(s, LANES * (W + 10));
+        y8.intoArray(s, LANES * (W + 11));
+        t0.intoArray(s, LANES * (W + 12));
+        y1.intoArray(s, LANES * (W + 13));
+        y4.intoArray(s, LANES * (W + 14));
+        y12.intoArray(s, LANES * (W + 15));
+        y2.intoArray(s, LANES * (W + 16));
+        y5.intoArray(s, LANES * (W + 17));
+        y3.intoArray(s, LANES * (W + 18));
+        y15.intoArray(s, LANES * (W + 20));
+        y20.intoArray(s, LANES * (W + 21));
+        y6.intoArray(s, LANES * (W + 22));
+        y10.intoArray(s, LANES * (W + 23));
+        y11.intoArray(s, LANES * (W + 24));
+        y7.intoArray(s, LANES * (W + 25));
+        y17.intoArray(s, LANES * (W + 26));
+        y19.intoArray(s, LANES * (W + 27));
+    }
+
+    private static void sbox1(long[] s) {
+        LongVector x0 = plane(s, W + 0);
+        LongVector x7 = plane(s, W + 7);
+        LongVector y14 = plane(s, W + 8);
+        LongVector y13 = plane(s, W + 9);
+        LongVector y9 = plane(s, W + 10);
+        LongVector y8 = plane(s, W + 11);
+        LongVector t0 = plane(s, W + 12);
+        LongVector y1 = plane(s, W + 13);
+        LongVector y4 = plane(s, W + 14);
+        LongVector y12 = plane(s, W + 15);
+        LongVector y2 = plane(s, W + 16);
+        LongVector y5 = plane(s, W + 17);
+        LongVector y3 = plane(s, W + 18);
+        LongVector y15 = plane(s, W + 20);
+        LongVector y6 = plane(s, W + 22);
+        LongVector y10 = plane(s, W + 23);
+        LongVector y11 = plane(s, W + 24);
+        LongVector y7 = plane(s, W + 25);
+        LongVector y17 = plane(s, W + 26);
+        LongVector y16 = xor(t0, y11);
+        LongVector y21 = xor(y13, y16);
+        LongVector y18 = xor(x0, y16);
+        LongVector t2 = y12.and(y15);
+        LongVector t3 = y3.and(y6);
+        LongVector t4 = xor(t3, t2);
+        LongVector t5 = y4.and(x7);
+        LongVector t6 = xor(t5, t2);
+        LongVector t7 = y13.and(y16);
+        LongVector t8 = y5.and(y1);
+        LongVector t9 = xor(t8, t7);
+        LongVector t10 = y2.and(y7);
+        LongVector t11 = xor(t10, t7);
+        LongVector t12 = y9.and(y11);
+        LongVector t13 = y14.and(y17);
+        LongVector t14 = xor(t13, t12);
+        LongVector t15 = y8.and(y10);
+        LongVector t16 = xor(t15, t12);
+        LongVector t17 = xor(t4, t14);
+        LongVector t18 = xor(t6, t16);
+        y16.intoArray(s, LANES * (W + 28));
+        y21.intoArray(s, LANES * (W + 29));
+        y18.intoArray(s, LANES * (W + 30));
+        t9.intoArray(s, LANES * (W + 38));
+        t11.intoArray(s, LANES * (W + 40));
+        t14.intoArray(s, LANES * (W + 43));
+        t16.intoArray(s, LANES * (W + 45));
+        t17.intoArray(s, LANES * (W + 46));
+        t18.intoArray(s, LANES * (W + 47));
+    }
+
+    private static void sbox2(long[] s) {
+        LongVector y20 = plane(s, W + 21);
+        LongVector y19 = plane(s, W + 27);
+        LongVector y21 = plane(s, W + 29);
+        LongVector y18 = plane(s, W + 30);
+        LongVector t9 = plane(s, W + 38);
+        LongVector t11 = plane(s, W + 40);
+        LongVector t14 = plane(s, W + 43);
+        LongVector t16 = plane(s, W + 45);
+        LongVector t17 = plane(s, W + 46);
+        LongVector t18 = plane(s, W + 47);
+        LongVector t19 = xor(t9, t14);
+        LongVector t20 = xor(t11, t16);
+        LongVector t21 = xor(t17, y20);
+        LongVector t22 = xor(t18, y19);
+        LongVector t23 = xor(t19, y21);
+        LongVector t24 = xor(t20, y18);
+        LongVector t25 = xor(t21, t22);
+        LongVector t26 = t21.and(t23);
+        LongVector t27 = xor(t24, t26);
+        LongVector t28 = t25.and(t27);
+        LongVector t29 = xor(t28, t22);
+        LongVector t30 = xor(t23, t24);
+        LongVector t31 = xor(t22, t26);
+        LongVector t32 = t31.and(t30);
+        LongVector t33 = xor(t32, t24);
+        LongVector t34 = xor(t23, t33);
+        LongVector t35 = xor(t27, t33);
+        LongVector t36 = t24.and(t35);
+        LongVector t37 = xor(t36, t34);
+        LongVector t38 = xor(t27, t36);
+        t25.intoArray(s, LANES * (W + 54));
+        t29.intoArray(s, LANES * (W + 58));
+        t33.intoArray(s, LANES * (W + 62));
+        t37.intoArray(s, LANES * (W + 66));
+        t38.intoArray(s, LANES * (W + 67));
+    }
+
+    private static void sbox3(long[] s) {
+        LongVector x7 = plane(s, W + 7);
+        LongVector y13 = plane(s, W + 9);
+        LongVector y1 = plane(s, W + 13);
+        LongVector y4 = plane(s, W + 14);
+        LongVector y12 = plane(s, W + 15);
+        LongVector y3 = plane(s, W + 18);
+        LongVector y15 = plane(s, W + 20);
+        LongVector y6 = plane(s, W + 22);
+        LongVector y10 = plane(s, W + 23);
+        LongVector y11 = plane(s, W + 24);
+        LongVector y7 = plane(s, W + 25);
+        LongVector y17 = plane(s, W + 26);
+        LongVector y16 = plane(s, W + 28);
+        LongVector t25 = plane(s, W + 54);
+        LongVector t29 = plane(s, W + 58);
+        LongVector t33 = plane(s, W + 62);
+        LongVector t37 = plane(s, W + 66);
+        LongVector t38 = plane(s, W + 67);
+        LongVector t39 = t29.and(t38);
+        LongVector t40 = xor(t25, t39);
+        LongVector t41 = xor(t40, t37);
+        LongVector t42 = xor(t29, t33);
+        LongVector t43 = xor(t29, t40);
+        LongVector t44 = xor(t33, t37);
+        LongVector t45 = xor(t42, t41);
+        LongVector z0 = t44.and(y15);
+        LongVector z1 = t37.and(y6);
+        LongVector z2 = t33.and(x7);
+        LongVector z3 = t43.and(y16);
+        LongVector z4 = t40.and(y1);
+        LongVector z5 = t29.and(y7);
+        LongVector z6 = t42.and(y11);
+        LongVector z7 = t45.and(y17);
+        LongVector z8 = t41.and(y10);
+        LongVector z9 = t44.and(y12);
+        LongVector z10 = t37.and(y3);
+        LongVector z11 = t33.and(y4);
+        LongVector z12 = t43.and(y13);
+        t40.intoArray(s, LANES * (W + 69));
+        t41.intoArray(s, LANES * (W + 70));
+        t42.intoArray(s, LANES * (W + 71));
+        t45.intoArray(s, LANES * (W + 74));
+        z0.intoArray(s, LANES * (W + 75));
+        z1.intoArray(s, LANES * (W + 76));
+        z2.intoArray(s, LANES * (W + 77));
+        z3.intoArray(s, LANES * (W + 78));
+        z4.intoArray(s, LANES * (W + 79));
+        z5.intoArray(s, LANES * (W + 80));
+        z6.intoArray(s, LANES * (W + 81));
+        z7.intoArray(s, LANES * (W + 82));
+        z8.intoArray(s, LANES * (W + 83));
+        z9.intoArray(s, LANES * (W + 84));
+        z10.intoArray(s, LANES * (W + 85));
+        z11.intoArray(s, LANES * (W + 86));
+        z12.intoArray(s, LANES * (W + 87));
+    }
+
+    private static void sbox4(long[] s) {
+        LongVector y14 = plane(s, W + 8);
+        LongVector y9 = plane(s, W + 10);
+        LongVector y8 = plane(s, W + 11);
+        LongVector y2 = plane(s, W + 16);
+        LongVector y5 = plane(s, W + 17);
+        LongVector t29 = plane(s, W + 58);
+        LongVector t40 = plane(s, W + 69);
+        LongVector t41 = plane(s, W + 70);
+        LongVector t42 = plane(s, W + 71);
+        LongVector t45 = plane(s, W + 74);
+        LongVector z0 = plane(s, W + 75);
+        LongVector z2 = plane(s, W + 77);
+        LongVector z3 = plane(s, W + 78);
+        LongVector z4 = plane(s, W + 79);
+        LongVector z5 = plane(s, W + 80);
+        LongVector z6 = plane(s, W + 81);
+        LongVector z7 = plane(s, W + 82);
+        LongVector z8 = plane(s, W + 83);
+        LongVector z9 = plane(s, W + 84);
+        LongVector z10 = plane(s, W + 85);
+        LongVector z11 = plane(s, W + 86);
+        LongVector z12 = plane(s, W + 87);
+        LongVector z13 = t40.and(y5);
+        LongVector z14 = t29.and(y2);
+        LongVector z15 = t42.and(y9);
+        LongVector z16 = t45.and(y14);
+        LongVector z17 = t41.and(y8);
+        LongVector t46 = xor(z15, z16);
+        LongVector t47 = xor(z10, z11);
+        LongVector t48 = xor(z5, z13);
+        LongVector t49 = xor(z9, z10);
+        LongVector t50 = xor(z2, z12);
+        LongVector t51 = xor(z2, z5);
+        LongVector t52 = xor(z7, z8);
+        LongVector t53 = xor(z0, z3);
+        LongVector t54 = xor(z6, z7);
+        LongVector t55 = xor(z16, z17);
+        LongVector t56 = xor(z12, t48);
+        LongVector t57 = xor(t50, t53);
+        LongVector t58 = xor(z4, t46);
+        LongVector t59 = xor(z3, t54);
+        LongVector t60 = xor(t46, t57);
+        z14.intoArray(s, LANES * (W + 89));
+        t47.intoArray(s, LANES * (W + 94));
+        t48.intoArray(s, LANES * (W + 95));
+        t49.intoArray(s, LANES * (W + 96));
+        t51.intoArray(s, LANES * (W + 98));
+        t52.intoArray(s, LANES * (W + 99));
+        t53.intoArray(s, LANES * (W + 100));
+        t55.intoArray(s, LANES * (W + 102));
+        t56.intoArray(s, LANES * (W + 103));
+        t57.intoArray(s, LANES * (W + 104));
+        t58.intoArray(s, LANES * (W + 105));
+        t59.intoArray(s, LANES * (W + 106));
+        t60.intoArray(s, LANES * (W + 107));
+    }
+
+    private static void sbox5(long[] s) {
+        LongVector z1 = plane(s, W + 76);
+        LongVector z4 = plane(s, W + 79);
+        LongVector z14 = plane(s, W + 89);
+        LongVector t47 = plane(s, W + 94);
+        LongVector t48 = plane(s, W + 95);
+        LongVector t49 = plane(s, W + 96);
+        LongVector t51 = plane(s, W + 98);
+        LongVector t52 = plane(s, W + 99);
+        LongVector t53 = plane(s, W + 100);
+        LongVector t55 = plane(s, W + 102);
+        LongVector t56 = plane(s, W + 103);
+        LongVector t57 = plane(s, W + 104);
+        LongVector t58 = plane(s, W + 105);
+        LongVector t59 = plane(s, W + 106);
+        LongVector t60 = plane(s, W + 107);
+        LongVector t61 = xor(z14, t57);
+        LongVector t62 = xor(t52, t58);
+        LongVector t63 = xor(t49, t58);
+        LongVector t64 = xor(z4, t59);
+        LongVector t65 = xor(t61, t62);
+        LongVector t66 = xor(z1, t63);
+        LongVector s0 = xor(t59, t63);
+        LongVector s6 = xor(t56, t62.not());
+        LongVector s7 = xor(t48, t60.not());
+        LongVector t67 = xor(t64, t65);
+        LongVector s3 = xor(t53, t66);
+        LongVector s4 = xor(t51, t66);
+        LongVector s5 = xor(t47, t65);
+        LongVector s1 = xor(t64, s3.not());
+        LongVector s2 = xor(t55, t67.not());
+        s0.intoArray(s, LANES * (W + 114));
+        s6.intoArray(s, LANES * (W + 115));
+        s7.intoArray(s, LANES * (W + 116));
+        s3.intoArray(s, LANES * (W + 118));
+        s4.intoArray(s, LANES * (W + 119));
+        s5.intoArray(s, LANES * (W + 120));
+        s1.intoArray(s, LANES * (W + 121));
+        s2.intoArray(s, LANES * (W + 122));
+    }
+}
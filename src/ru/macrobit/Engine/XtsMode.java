@@ -0,0 +1,270 @@
+package ru.macrobit.Engine;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * XTS-AES (IEEE 1619, NIST SP 800-38E): length-preserving encryption of independent sectors, for disk images.
+ * Sector i is encrypted block by block as E(K1, P xor T) xor T, where T starts as E(K2, i) with i a 128-bit
+ * little-endian number and is multiplied by x for every following block. A sector whose length is not a
+ * multiple of 16 ends with ciphertext stealing; no sector may be shorter than 16 bytes.
+ * <p>
+ * Any sector can be encrypted or decrypted on its own, so rewriting one sector costs one sector of work.
+ * Runs of whole sectors are processed in batches: the tweaks of all their blocks are computed first and
+ * the blocks then go through the engine in a single call, in place between the buffers also for ByteBuffers.
+ * Scratch buffers are kept per thread, so one instance can be shared.
+ */
+
+public final class XtsMode {
+
+    public static final int DEFAULT_SECTOR_SIZE = 512;
+
+    private static final int BATCH_BYTES = 64 * 1024;
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle BIG_ENDIAN_LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private final ExpandedKey dataKey;
+    private final ExpandedKey tweakKey;
+    private final int sectorSize;
+    private final CipherEngine engine;
+    private final int batchSectors;
+    private final ThreadLocal<Scratch> scratch;
+
+    /**
+     * The buffers of one thread: the tweaks of a batch, the sector numbers they start from,
+     * and a copy of a short last sector for the ByteBuffer variants.
+     */
+
+    private static final class Scratch {
+        private final byte[] tweaks;
+        private final byte[] seeds;
+        private final byte[] data;
+        private final byte[] steal = new byte[32];
+
+        private Scratch(int batchBytes, int batchSectors, int sectorSize) {
+            this.tweaks = new byte[batchBytes];
+            this.seeds = new byte[16 * batchSectors];
+            this.data = new byte[sectorSize];
+        }
+    }
+
+    /**
+     * @param dataKey    K1, encrypts the data
+     * @param tweakKey   K2, encrypts the sector numbers
+     * @param sectorSize bytes per sector, a positive multiple of 16
+     */
+
+    public XtsMode(ExpandedKey dataKey, ExpandedKey tweakKey, int sectorSize, CipherEngine engine) {
+        if (sectorSize <= 0 || sectorSize % 16 != 0) {
+            throw new IllegalArgumentException("Sector size must be a positive multiple of 16: " + sectorSize);
+        }
+        this.dataKey = dataKey;
+        this.tweakKey = tweakKey;
+        this.sectorSize = sectorSize;
+        this.engine = engine;
+        this.batchSectors = Math.max(1, BATCH_BYTES / sectorSize);
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(batchSectors * sectorSize, batchSectors, sectorSize));
+    }
+
+    public int getSectorSize() {
+        return sectorSize;
+    }
+
+    /**
+     * Encrypts consecutive sectors. {@code in} and {@code out} may be the same range.
+     *
+     * @param sector number of the sector at in[inOff]
+     * @param length whole sectors, except that the last one may be shorter (but at least 16 bytes)
+     */
+
+    public void encrypt(long sector, byte[] in, int inOff, byte[] out, int outOff, int length) {
+        process(sector, in, inOff, out, outOff, length, true);
+    }
+
+    public void decrypt(long sector, byte[] in, int inOff, byte[] out, int outOff, int length) {
+        process(sector, in, inOff, out, outOff, length, false);
+    }
+
+    /**
+     * Same as the array variants, between buffers at absolute indices. Positions and limits are not used.
+     */
+
+    public void encrypt(long sector, ByteBuffer in, int inOff, ByteBuffer out, int outOff, int length) {
+        process(sector, in, inOff, out, outOff, length, true);
+    }
+
+    public void decrypt(long sector, ByteBuffer in, int inOff, ByteBuffer out, int outOff, int length) {
+        process(sector, in, inOff, out, outOff, length, false);
+    }
+
+    private void process(long sector, byte[] in, int inOff, byte[] out, int outOff, int length, boolean encrypt) {
+        Scratch s = scratch.get();
+        while (length >= sectorSize) {
+            int sectors = Math.min(batchSectors, length / sectorSize);
+            whole(s, sector, in, inOff, out, outOff, sectors, encrypt);
+            sector += sectors;
+            inOff += sectors * sectorSize;
+            outOff += sectors * sectorSize;
+            length -= sectors * sectorSize;
+        }
+        if (length != 0) {
+            partial(s, sector, in, inOff, out, outOff, length, encrypt);
+        }
+    }
+
+    /**
+     * Whole sectors go from {@code in} to {@code out} without a copy on the heap; only a short last sector,
+     * which needs ciphertext stealing, is copied to the scratch buffer.
+     */
+
+    private void process(long sector, ByteBuffer in, int inOff, ByteBuffer out, int outOff, int length, boolean encrypt) {
+        Scratch s = scratch.get();
+        while (length >= sectorSize) {
+            int sectors = Math.min(batchSectors, length / sectorSize);
+            whole(s, sector, in, inOff, out, outOff, sectors, encrypt);
+            sector += sectors;
+            inOff += sectors * sectorSize;
+            outOff += sectors * sectorSize;
+            length -= sectors * sectorSize;
+        }
+        if (length != 0) {
+            in.get(inOff, s.data, 0, length);
+            partial(s, sector, s.data, 0, s.data, 0, length, encrypt);
+            out.put(outOff, s.data, 0, length);
+        }
+    }
+
+    /**
+     * Up to {@code batchSectors} whole sectors: one engine call for the tweaks, one for the data.
+     */
+
+    private void whole(Scratch s, long sector, byte[] in, int inOff, byte[] out, int outOff, int sectors, boolean encrypt) {
+        sectorTweaks(s, sector, sectors);
+        int length = sectors * sectorSize;
+        xor(in, inOff, s.tweaks, 0, out, outOff, length);
+        if (encrypt) {
+            engine.encryptBlocks(dataKey, out, outOff, out, outOff, length / 16);
+        } else {
+            engine.decryptBlocks(dataKey, out, outOff, out, outOff, length / 16);
+        }
+        xor(out, outOff, s.tweaks, 0, out, outOff, length);
+    }
+
+    private void whole(Scratch s, long sector, ByteBuffer in, int inOff, ByteBuffer out, int outOff, int sectors, boolean encrypt) {
+        sectorTweaks(s, sector, sectors);
+        int length = sectors * sectorSize;
+        xor(in, inOff, s.tweaks, out, outOff, length);
+        if (encrypt) {
+            engine.encryptBlocks(dataKey, out, outOff, out, outOff, length / 16);
+        } else {
+            engine.decryptBlocks(dataKey, out, outOff, out, outOff, length / 16);
+        }
+        xor(out, outOff, s.tweaks, out, outOff, length);
+    }
+
+    /**
+     * The tweaks of every block of {@code sectors} sectors from {@code sector} on, into s.tweaks.
+     */
+
+    private void sectorTweaks(Scratch s, long sector, int sectors) {
+        for (int i = 0; i < sectors; i++) {
+            LONGS.set(s.seeds, 16 * i, sector + i);
+            LONGS.set(s.seeds, 16 * i + 8, 0L);
+        }
+        engine.encryptBlocks(tweakKey, s.seeds, 0, s.seeds, 0, sectors);
+        int blocksPerSector = sectorSize / 16;
+        for (int i = 0; i < sectors; i++) {
+            tweaks(s.seeds, 16 * i, s.tweaks, i * sectorSize, blocksPerSector);
+        }
+    }
+
+    /**
+     * A final sector shorter than sectorSize. Its whole blocks but the last go the usual way; if the length
+     * is not a multiple of 16, the last whole block and the partial one are combined by ciphertext stealing.
+     */
+
+    private void partial(Scratch s, long sector, byte[] in, int inOff, byte[] out, int outOff, int length, boolean encrypt) {
+        if (length < 16) {
+            throw new IllegalArgumentException("An XTS sector must be at least 16 bytes: " + length);
+        }
+        int blocks = length / 16;
+        int r = length % 16;
+        LONGS.set(s.seeds, 0, sector);
+        LONGS.set(s.seeds, 8, 0L);
+        engine.encryptBlocks(tweakKey, s.seeds, 0, s.seeds, 0, 1);
+        tweaks(s.seeds, 0, s.tweaks, 0, blocks + 1);
+        int plain = r == 0 ? blocks : blocks - 1; //Blocks that need no stealing.
+        xor(in, inOff, s.tweaks, 0, out, outOff, 16 * plain);
+        crypt(out, outOff, plain, encrypt);
+        xor(out, outOff, s.tweaks, 0, out, outOff, 16 * plain);
+        if (r == 0) {
+            return;
+        }
+        //steal[0, 16) is block m-1, steal[16, 16 + r) the partial block m.
+        byte[] steal = s.steal;
+        System.arraycopy(in, inOff + 16 * plain, steal, 0, 16 + r);
+        int first = encrypt ? 16 * plain : 16 * blocks; //Tweak of block m-1 in encryption, of block m in decryption.
+        int second = encrypt ? 16 * blocks : 16 * plain;
+        xor(steal, 0, s.tweaks, first, steal, 0, 16);
+        crypt(steal, 0, 1, encrypt);
+        xor(steal, 0, s.tweaks, first, steal, 0, 16);
+        //steal[0, 16) is now CC (PP when decrypting): its head becomes the partial output block,
+        //the partial input block takes its place and the result is processed with the other tweak.
+        for (int i = 0; i < r; i++) {
+            byte t = steal[i];
+            steal[i] = steal[16 + i];
+            steal[16 + i] = t;
+        }
+        xor(steal, 0, s.tweaks, second, steal, 0, 16);
+        crypt(steal, 0, 1, encrypt);
+        xor(steal, 0, s.tweaks, second, steal, 0, 16);
+        System.arraycopy(steal, 0, out, outOff + 16 * plain, 16 + r);
+    }
+
+    private void crypt(byte[] b, int off, int blocks, boolean encrypt) {
+        if (encrypt) {
+            engine.encryptBlocks(dataKey, b, off, b, off, blocks);
+        } else {
+            engine.decryptBlocks(dataKey, b, off, b, off, blocks);
+        }
+    }
+
+    /**
+     * Writes T, T*x, T*x^2, ... for {@code blocks} blocks, starting from the encrypted sector number T.
+     * Multiplication by x is a left shift of the little-endian 128-bit value, reduced by x^128 = x^7 + x^2 + x + 1.
+     */
+
+    private static void tweaks(byte[] seed, int seedOff, byte[] tweaks, int off, int blocks) {
+        long lo = (long) LONGS.get(seed, seedOff);
+        long hi = (long) LONGS.get(seed, seedOff + 8);
+        for (int j = 0; j < blocks; j++) {
+            LONGS.set(tweaks, off + 16 * j, lo);
+            LONGS.set(tweaks, off + 16 * j + 8, hi);
+            long carry = hi >> 63;
+            hi = hi << 1 | lo >>> 63;
+            lo = lo << 1 ^ (carry & 0x87);
+        }
+    }
+
+    private static void xor(byte[] a, int aOff, byte[] b, int bOff, byte[] out, int outOff, int length) {
+        for (int i = 0; i < length; i += 8) {
+            LONGS.set(out, outOff + i, (long) LONGS.get(a, aOff + i) ^ (long) LONGS.get(b, bOff + i));
+        }
+    }
+
+    /**
+     * out = a xor tweaks[0, length), at absolute indices. The tweaks are read in the byte order of {@code a}.
+     */
+
+    private static void xor(ByteBuffer a, int aOff, byte[] tweaks, ByteBuffer out, int outOff, int length) {
+        VarHandle longs = a.order() == ByteOrder.LITTLE_ENDIAN ? LONGS : BIG_ENDIAN_LONGS;
+        boolean swap = a.order() != out.order();
+        for (int i = 0; i < length; i += 8) {
+            long x = a.getLong(aOff + i) ^ (long) longs.get(tweaks, i);
+            out.putLong(outOff + i, swap ? Long.reverseBytes(x) : x);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package ru.macrobit.Events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for one range of blocks a worker enciphers, e.g. a 64 KB leaf task of ParallelAES
+ * or a chunk of a file in DirectoryAES.
+ */
+
+@Name("ru.macrobit.Chunk")
+@Label("AES Chunk")
+@Category("AES")
+@Description("A range of a file enciphered by one worker")
+public final class ChunkEvent extends Event {
+
+    @Label("File")
+    private String file;
+
+    @Label("Offset")
+    @Description("Byte offset of the range in the input")
+    private long offset;
+
+    @Label("Size")
+    @DataAmount
+    private long size;
+
+    @Label("Mode")
+    private String mode;
+
+    @Label("Operation")
+    @Description("encrypt or decrypt")
+    private String operation;
+
+    @Label("Engine")
+    private String engine;
+
+    /**
+     * Sets the fields and commits, if the event is enabled and over its threshold; otherwise does nothing.
+     */
+
+    public void commit(String file, long offset, long size, String mode, String operation, String engine) {
+        if (shouldCommit()) {
+            this.file = file;
+            this.offset = offset;
+            this.size = size;
+            this.mode = mode;
+            this.operation = operation;
+            this.engine = engine;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package ru.macrobit.Events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for one read or write of a chunk. For asynchronous requests it runs from the
+ * request to its completion and is committed on the completing thread.
+ */
+
+@Name("ru.macrobit.FileIO")
+@Label("AES File I/O")
+@Category("AES")
+@Description("A read of input or a write of output by the AES tools")
+public final class FileIoEvent extends Event {
+
+    @Label("File")
+    private String file;
+
+    @Label("Operation")
+    @Description("read or write")
+    private String operation;
+
+    @Label("Offset")
+    @Description("Byte offset in the file")
+    private long offset;
+
+    @Label("Bytes")
+    @DataAmount
+    private long bytes;
+
+    public void commit(String file, String operation, long offset, long bytes) {
+        if (shouldCommit()) {
+            this.file = file;
+            this.operation = operation;
+            this.offset = offset;
+            this.bytes = bytes;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package ru.macrobit.Events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for one run of the AES key schedule, encryption and decryption round keys together.
+ */
+
+@Name("ru.macrobit.KeyExpansion")
+@Label("AES Key Expansion")
+@Category("AES")
+@Description("Expansion of an AES key into its round keys")
+public final class KeyExpansionEvent extends Event {
+
+    @Label("Key Bits")
+    private int keyBits;
+
+    public void commit(int keyBits) {
+        if (shouldCommit()) {
+            this.keyBits = keyBits;
+            commit();
+        }
+    }
+}
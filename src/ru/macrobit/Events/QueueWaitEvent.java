@@ -0,0 +1,34 @@
+package ru.macrobit.Events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for a thread that waited on a hand-over between stages: a reader waiting for a
+ * free buffer, a writer waiting for the next chunk, or a chunk waiting in a pool queue for a worker.
+ */
+
+@Name("ru.macrobit.QueueWait")
+@Label("AES Queue Wait")
+@Category("AES")
+@Description("Time a stage spent waiting for another")
+public final class QueueWaitEvent extends Event {
+
+    @Label("Queue")
+    private String queue;
+
+    @Label("Sequence")
+    @Description("Number of the chunk waited for")
+    private long sequence;
+
+    public void commit(String queue, long sequence) {
+        if (shouldCommit()) {
+            this.queue = queue;
+            this.sequence = sequence;
+            commit();
+        }
+    }
+}
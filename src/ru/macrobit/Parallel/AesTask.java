@@ -0,0 +1,50 @@
+package ru.macrobit.Parallel;
+
+import ru.macrobit.Events.ChunkEvent;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits the block range of an AesThread in halves until the pieces are small enough, so idle workers of
+ * the ForkJoinPool can steal work and one slow worker does not hold up the whole window.
+ * In XTS the halves end on sector boundaries. Every leaf task is timed into the CipherMetrics and is a
+ * ChunkEvent for the flight recorder.
+ */
+
+class AesTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    static final int TASK_BLOCKS = 4096; //64 KB per leaf task.
+
+    private final AesThread work;
+    private final CipherMetrics metrics;
+    private final String file;
+
+    /**
+     * @param file name of the input, for the flight recorder
+     */
+
+    AesTask(AesThread work, CipherMetrics metrics, String file) {
+        this.work = work;
+        this.metrics = metrics;
+        this.file = file;
+    }
+
+    @Override
+    protected void compute() {
+        int count = work.getCount();
+        int unit = work.getUnit();
+        int half = count / 2 / unit * unit; //XTS splits between sectors.
+        if (count <= TASK_BLOCKS || half == 0) {
+            ChunkEvent event = new ChunkEvent();
+            event.begin();
+            long begin = System.nanoTime();
+            work.run();
+            metrics.task(count, begin);
+            work.commit(event, file);
+            return;
+        }
+        invokeAll(new AesTask(work.slice(0, half), metrics, file), new AesTask(work.slice(half, count - half), metrics, file));
+    }
+}
@@ -0,0 +1,293 @@
+package ru.macrobit.Parallel;
+
+import ru.macrobit.Events.FileIoEvent;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.ArrayDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A {@link Pipeline} for storage with a high latency per request: instead of one blocking read and one
+ * blocking write at a time, up to {@code reads} reads and {@code writes} writes are outstanding on
+ * AsynchronousFileChannels. Every chunk is read and written at its own position, so chunks are handed to the
+ * workers as their reads complete and written as soon as they are enciphered, in any order.
+ * <p>
+ * The chunk buffers are preallocated: enough for the outstanding reads and writes plus one chunk per worker.
+ * A buffer goes back to reading once its write has completed. The read and write durations given to the
+ * CipherMetrics run from the request to its completion, so they show the latency of the storage.
+ */
+
+final class AsyncPipeline {
+
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+    private final int maxReads;
+    private final int maxWrites;
+    private final CipherMetrics metrics;
+    private final String inputName;
+    private final String outputName;
+
+    private static final class Chunk {
+        final byte[] input;
+        final byte[] output;
+        final byte[] chain = new byte[16];
+        long sequence;
+        long position;
+        int length;
+        int outLength;
+        int pendingReads; //The chunk itself and, in CBC decryption, the block before it.
+        boolean ready; //In-order mode: read, waiting for its turn.
+
+        Chunk(int size) {
+            this.input = new byte[size];
+            this.output = new byte[size];
+        }
+    }
+
+    private AsynchronousFileChannel in;
+    private AsynchronousFileChannel out;
+    private long inStart;
+    private long outStart;
+    private long length;
+    private byte[] chain;
+    private boolean chainFromInput;
+    private boolean inOrder;
+    private Pipeline.Stage stage;
+
+    private Chunk[] chunks;
+    private final ArrayDeque<Chunk> free = new ArrayDeque<>();
+    private final ArrayDeque<Chunk> enciphered = new ArrayDeque<>();
+    private long chunkCount;
+    private long nextRead;
+    private long nextCipher; //In-order mode: the chunk whose turn it is.
+    private boolean draining;
+    private int reads;
+    private int writes;
+    private long written;
+    private Throwable failure;
+    private CountDownLatch done;
+
+    /**
+     * @param chunkSize bytes per chunk, a whole number of blocks (sectors in XTS)
+     * @param reads     reads in flight at most
+     * @param writes    writes in flight at most
+     * @param inputName  name of the input, for the flight recorder
+     * @param outputName name of the output, for the flight recorder
+     */
+
+    AsyncPipeline(ForkJoinPool pool, int chunkSize, int reads, int writes, CipherMetrics metrics, String inputName, String outputName) {
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+        this.maxReads = reads;
+        this.maxWrites = writes;
+        this.metrics = metrics;
+        this.inputName = inputName;
+        this.outputName = outputName;
+    }
+
+    /**
+     * Enciphers {@code length} bytes of {@code in} from {@code inStart} into {@code out} from {@code outStart}
+     * and returns once every chunk is written. The other arguments are those of {@link Pipeline#run}; in CBC
+     * encryption the chunks are still read ahead, but enciphered one after another.
+     *
+     * @param inStart  file offset of the first byte to read, past a nonce
+     * @param outStart file offset of the first byte to write, past a nonce
+     */
+
+    void run(AsynchronousFileChannel in, long inStart, long length, AsynchronousFileChannel out, long outStart, byte[] chain,
+             boolean chainFromInput, boolean inOrder, Pipeline.Stage stage) throws IOException {
+        this.in = in;
+        this.out = out;
+        this.inStart = inStart;
+        this.outStart = outStart;
+        this.length = length;
+        this.chain = chain;
+        this.chainFromInput = chainFromInput;
+        this.inOrder = inOrder;
+        this.stage = stage;
+        this.chunkCount = (length + chunkSize - 1) / chunkSize;
+        this.done = new CountDownLatch(1);
+        int buffers = (int) Math.min(chunkCount, maxReads + maxWrites + pool.getParallelism());
+        this.chunks = new Chunk[buffers];
+        for (int i = 0; i < buffers; i++) {
+            chunks[i] = new Chunk(chunkSize);
+            free.add(chunks[i]);
+        }
+        synchronized (this) {
+            if (chunkCount == 0) {
+                return;
+            }
+            issueReads();
+        }
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(e);
+            throw new InterruptedIOException();
+        }
+        synchronized (this) {
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            } else if (failure != null) {
+                throw new IOException(failure);
+            }
+        }
+    }
+
+    private synchronized void fail(Throwable cause) {
+        if (failure == null) {
+            failure = cause;
+        }
+        done.countDown();
+    }
+
+    /**
+     * Starts reads into free buffers while there are chunks left and the read limit allows.
+     */
+
+    private void issueReads() {
+        while (failure == null && reads < maxReads && nextRead < chunkCount && !free.isEmpty()) {
+            Chunk chunk = free.poll();
+            chunk.sequence = nextRead++;
+            chunk.position = chunk.sequence * chunkSize;
+            chunk.length = (int) Math.min(chunkSize, length - chunk.position);
+            chunk.pendingReads = 1;
+            reads++;
+            if (chainFromInput && chunk.sequence == 0) {
+                System.arraycopy(chain, 0, chunk.chain, 0, 16);
+            } else if (chainFromInput) {
+                chunk.pendingReads++;
+                read(chunk, ByteBuffer.wrap(chunk.chain), inStart + chunk.position - 16);
+            }
+            read(chunk, ByteBuffer.wrap(chunk.input, 0, chunk.length), inStart + chunk.position);
+        }
+    }
+
+    private void read(Chunk chunk, ByteBuffer buffer, long position) {
+        FileIoEvent event = new FileIoEvent();
+        event.begin();
+        long begin = System.nanoTime();
+        in.read(buffer, position, chunk, new CompletionHandler<Integer, Chunk>() {
+            @Override
+            public void completed(Integer n, Chunk chunk) {
+                if (n < 0) {
+                    failed(new EOFException("Error: The input ended early."), chunk);
+                } else if (buffer.hasRemaining()) {
+                    in.read(buffer, position + buffer.position(), chunk, this);
+                } else {
+                    metrics.record(CipherMetrics.Stage.READ, begin, buffer.position());
+                    event.commit(inputName, "read", position, buffer.position());
+                    readCompleted(chunk);
+                }
+            }
+
+            @Override
+            public void failed(Throwable cause, Chunk chunk) {
+                fail(cause);
+            }
+        });
+    }
+
+    private void readCompleted(Chunk chunk) {
+        synchronized (this) {
+            if (--chunk.pendingReads > 0) {
+                return;
+            }
+            reads--;
+            issueReads();
+            if (inOrder) {
+                chunk.ready = true;
+                if (draining) {
+                    return;
+                }
+                draining = true;
+            }
+        }
+        pool.execute(inOrder ? this::drain : () -> cipher(chunk));
+    }
+
+    /**
+     * In-order mode: enciphers the chunks that are read, as long as they come in sequence.
+     */
+
+    private void drain() {
+        while (true) {
+            Chunk next = null;
+            synchronized (this) {
+                for (Chunk chunk : chunks) {
+                    if (chunk.ready && chunk.sequence == nextCipher) {
+                        next = chunk;
+                    }
+                }
+                if (failure != null || next == null) {
+                    draining = false;
+                    return;
+                }
+                next.ready = false;
+                nextCipher++;
+            }
+            cipher(next);
+        }
+    }
+
+    private void cipher(Chunk chunk) {
+        try {
+            byte[] chunkChain = chainFromInput ? chunk.chain : chain;
+            chunk.outLength = stage.cipher(chunk.input, chunk.output, chunk.length, chunk.position, chunkChain);
+        } catch (RuntimeException | Error e) {
+            fail(e);
+            return;
+        }
+        synchronized (this) {
+            enciphered.add(chunk);
+            issueWrites();
+        }
+    }
+
+    private void issueWrites() {
+        while (failure == null && writes < maxWrites && !enciphered.isEmpty()) {
+            Chunk chunk = enciphered.poll();
+            writes++;
+            ByteBuffer buffer = ByteBuffer.wrap(chunk.output, 0, chunk.outLength);
+            FileIoEvent event = new FileIoEvent();
+            event.begin();
+            long begin = System.nanoTime();
+            long position = outStart + chunk.position;
+            out.write(buffer, position, chunk, new CompletionHandler<Integer, Chunk>() {
+                @Override
+                public void completed(Integer n, Chunk chunk) {
+                    if (buffer.hasRemaining()) {
+                        out.write(buffer, position + buffer.position(), chunk, this);
+                    } else {
+                        metrics.record(CipherMetrics.Stage.WRITE, begin, chunk.outLength);
+                        event.commit(outputName, "write", position, chunk.outLength);
+                        writeCompleted(chunk);
+                    }
+                }
+
+                @Override
+                public void failed(Throwable cause, Chunk chunk) {
+                    fail(cause);
+                }
+            });
+        }
+    }
+
+    private synchronized void writeCompleted(Chunk chunk) {
+        writes--;
+        free.add(chunk);
+        if (++written == chunkCount) {
+            done.countDown();
+            return;
+        }
+        issueWrites();
+        issueReads();
+    }
+}
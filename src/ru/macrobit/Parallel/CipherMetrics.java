@@ -0,0 +1,288 @@
+package ru.macrobit.Parallel;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Where the time of one ParallelAES run goes: bytes and durations per stage, blocks and busy time per
+ * worker, and latency histograms. Everything is recorded lock-free, so the workers and the I/O threads record
+ * as they go; the cost is two nanoTime calls per read, write, window or 64 KB task.
+ * <p>
+ * A worker's idle time is the elapsed time of the run minus the time it spent in tasks: an even split of
+ * the blocks shows as an imbalance close to 1.0, I/O stalls as idle time on every worker.
+ */
+
+public final class CipherMetrics implements CipherMetricsMBean {
+
+    public static final String OBJECT_NAME = "ru.macrobit:type=ParallelAES";
+
+    enum Stage {
+        KEY_SCHEDULE("keySchedule"),
+        READ("read"),
+        CIPHER("cipher"), //One window or chunk, from the split to the last task joined.
+        WRITE("write"),
+        TAG("tag");
+
+        private final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final class Worker {
+        final LongAdder busyNanos = new LongAdder();
+        final LongAdder tasks = new LongAdder();
+    }
+
+    private final LatencyHistogram[] stages = new LatencyHistogram[Stage.values().length];
+    private final LongAdder[] stageBytes = new LongAdder[Stage.values().length];
+    private final LatencyHistogram tasks = new LatencyHistogram();
+    private final LongAdder blocks = new LongAdder();
+    private final Map<String, Worker> workers = new ConcurrentHashMap<>();
+    private volatile long start = System.nanoTime();
+    private volatile long finish;
+
+    CipherMetrics() {
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new LatencyHistogram();
+            stageBytes[i] = new LongAdder();
+        }
+    }
+
+    void begin() {
+        start = System.nanoTime();
+    }
+
+    void end() {
+        finish = System.nanoTime();
+    }
+
+    /**
+     * @param begin System.nanoTime() at the start of the stage
+     * @param bytes bytes read, enciphered or written, 0 if not applicable
+     */
+
+    void record(Stage stage, long begin, long bytes) {
+        stages[stage.ordinal()].record(System.nanoTime() - begin);
+        stageBytes[stage.ordinal()].add(bytes);
+    }
+
+    /**
+     * A leaf task has run {@code count} blocks on the current thread.
+     */
+
+    void task(int count, long begin) {
+        long nanos = System.nanoTime() - begin;
+        tasks.record(nanos);
+        blocks.add(count);
+        Worker worker = workers.computeIfAbsent(Thread.currentThread().getName(), name -> new Worker());
+        worker.busyNanos.add(nanos);
+        worker.tasks.increment();
+    }
+
+    /**
+     * Registers this as an MBean of the platform MBean server under {@link #OBJECT_NAME}.
+     */
+
+    void register() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+    }
+
+    /**
+     * Writes {@link #toJson} to a file, or to the standard output for "-".
+     */
+
+    void writeSummary(String target, Map<String, ?> run) throws IOException {
+        String json = toJson(run);
+        if (target.equals("-")) {
+            System.out.println(json);
+        } else {
+            Files.write(Paths.get(target), (json + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * @param run settings of the run to put in front, e.g. mode and engine; numbers are written as JSON numbers
+     * @return the whole summary as one JSON object, formatted the same in every locale
+     */
+
+    String toJson(Map<String, ?> run) {
+        StringBuilder json = new StringBuilder("{");
+        for (Map.Entry<String, ?> entry : run.entrySet()) {
+            json.append('"').append(entry.getKey()).append("\":");
+            if (entry.getValue() instanceof Number) {
+                json.append(entry.getValue()).append(',');
+            } else {
+                json.append('"').append(entry.getValue()).append("\",");
+            }
+        }
+        json.append("\"elapsedNanos\":").append(getElapsedNanos())
+                .append(",\"bytesRead\":").append(getBytesRead())
+                .append(",\"bytesWritten\":").append(getBytesWritten())
+                .append(",\"blocks\":").append(getBlocks())
+                .append(",\"imbalance\":").append(String.format(Locale.ROOT, "%.3f", getImbalance()))
+                .append(",\"stages\":{");
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = stages[stage.ordinal()];
+            json.append(stage.ordinal() == 0 ? "" : ",").append('"').append(stage.label).append("\":");
+            histogram(json.append("{\"bytes\":").append(stageBytes[stage.ordinal()].sum()).append(','), histogram);
+        }
+        histogram(json.append("},\"tasks\":{"), tasks).append(",\"workers\":[");
+        String[] names = getWorkers();
+        long[] busy = getWorkerBusyNanos();
+        long[] idle = getWorkerIdleNanos();
+        for (int i = 0; i < names.length; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"name\":\"").append(names[i])
+                    .append("\",\"tasks\":").append(workers.get(names[i]).tasks.sum())
+                    .append(",\"busyNanos\":").append(busy[i])
+                    .append(",\"idleNanos\":").append(idle[i]).append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    private static StringBuilder histogram(StringBuilder json, LatencyHistogram histogram) {
+        json.append("\"count\":").append(histogram.getCount())
+                .append(",\"totalNanos\":").append(histogram.getTotalNanos())
+                .append(",\"p50Micros\":").append(histogram.percentileMicros(0.5))
+                .append(",\"p99Micros\":").append(histogram.percentileMicros(0.99))
+                .append(",\"histogram\":[");
+        long[] counts = histogram.getCounts();
+        int last = counts.length;
+        while (last > 0 && counts[last - 1] == 0) {
+            last--; //Trailing empty buckets are left out.
+        }
+        for (int i = 0; i < last; i++) {
+            json.append(i == 0 ? "" : ",").append(counts[i]);
+        }
+        return json.append("]}");
+    }
+
+    @Override
+    public long getElapsedNanos() {
+        long end = finish;
+        return (end != 0 ? end : System.nanoTime()) - start;
+    }
+
+    @Override
+    public long getBytesRead() {
+        return stageBytes[Stage.READ.ordinal()].sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return stageBytes[Stage.WRITE.ordinal()].sum();
+    }
+
+    @Override
+    public long getBlocks() {
+        return blocks.sum();
+    }
+
+    @Override
+    public long getTasks() {
+        return tasks.getCount();
+    }
+
+    @Override
+    public long getKeyScheduleNanos() {
+        return stages[Stage.KEY_SCHEDULE.ordinal()].getTotalNanos();
+    }
+
+    @Override
+    public long getReadNanos() {
+        return stages[Stage.READ.ordinal()].getTotalNanos();
+    }
+
+    @Override
+    public long getCipherNanos() {
+        return stages[Stage.CIPHER.ordinal()].getTotalNanos();
+    }
+
+    @Override
+    public long getWriteNanos() {
+        return stages[Stage.WRITE.ordinal()].getTotalNanos();
+    }
+
+    @Override
+    public long getTagNanos() {
+        return stages[Stage.TAG.ordinal()].getTotalNanos();
+    }
+
+    @Override
+    public long[] getReadLatencyHistogram() {
+        return stages[Stage.READ.ordinal()].getCounts();
+    }
+
+    @Override
+    public long[] getCipherLatencyHistogram() {
+        return stages[Stage.CIPHER.ordinal()].getCounts();
+    }
+
+    @Override
+    public long[] getWriteLatencyHistogram() {
+        return stages[Stage.WRITE.ordinal()].getCounts();
+    }
+
+    @Override
+    public long[] getTaskLatencyHistogram() {
+        return tasks.getCounts();
+    }
+
+    @Override
+    public long getTaskLatencyP50Micros() {
+        return tasks.percentileMicros(0.5);
+    }
+
+    @Override
+    public long getTaskLatencyP99Micros() {
+        return tasks.percentileMicros(0.99);
+    }
+
+    @Override
+    public String[] getWorkers() {
+        return new TreeMap<>(workers).keySet().toArray(new String[0]);
+    }
+
+    @Override
+    public long[] getWorkerBusyNanos() {
+        String[] names = getWorkers();
+        long[] busy = new long[names.length];
+        for (int i = 0; i < names.length; i++) {
+            busy[i] = workers.get(names[i]).busyNanos.sum();
+        }
+        return busy;
+    }
+
+    @Override
+    public long[] getWorkerIdleNanos() {
+        long elapsed = getElapsedNanos();
+        long[] idle = getWorkerBusyNanos();
+        for (int i = 0; i < idle.length; i++) {
+            idle[i] = Math.max(0, elapsed - idle[i]);
+        }
+        return idle;
+    }
+
+    @Override
+    public double getImbalance() {
+        long[] busy = getWorkerBusyNanos();
+        long max = 0;
+        long total = 0;
+        for (long nanos : busy) {
+            max = Math.max(max, nanos);
+            total += nanos;
+        }
+        return total == 0 ? 1.0 : (double) max * busy.length / total;
+    }
+}
@@ -0,0 +1,53 @@
+package ru.macrobit.Parallel;
+
+/**
+ * JMX view of {@link CipherMetrics}. Durations are in nanoseconds unless the name says otherwise; the
+ * histograms are the bucket counts of {@link LatencyHistogram}.
+ */
+
+public interface CipherMetricsMBean {
+
+    long getElapsedNanos();
+
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    long getBlocks();
+
+    long getTasks();
+
+    long getKeyScheduleNanos();
+
+    long getReadNanos();
+
+    long getCipherNanos();
+
+    long getWriteNanos();
+
+    long getTagNanos();
+
+    long[] getReadLatencyHistogram();
+
+    long[] getCipherLatencyHistogram();
+
+    long[] getWriteLatencyHistogram();
+
+    long[] getTaskLatencyHistogram();
+
+    long getTaskLatencyP50Micros();
+
+    long getTaskLatencyP99Micros();
+
+    String[] getWorkers();
+
+    long[] getWorkerBusyNanos();
+
+    long[] getWorkerIdleNanos();
+
+    /**
+     * @return busy time of the busiest worker over the mean busy time; 1.0 is a perfectly even split
+     */
+
+    double getImbalance();
+}
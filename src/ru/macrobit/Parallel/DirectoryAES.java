@@ -0,0 +1,259 @@
+package ru.macrobit.Parallel;
+
+import ru.macrobit.Engine.CipherEngine;
+import ru.macrobit.Engine.CipherEngines;
+import ru.macrobit.Engine.ExpandedKey;
+import ru.macrobit.Engine.GaloisCounterMode;
+import ru.macrobit.Engine.KeyScheduleCache;
+import ru.macrobit.Events.ChunkEvent;
+import ru.macrobit.Events.FileIoEvent;
+import ru.macrobit.Events.QueueWaitEvent;
+import ru.macrobit.Sequential.SequentialAES.Mode;
+import ru.macrobit.Stream.BlockChain;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Encrypts or decrypts every file of a directory tree in one JVM. Each file is read and written on its own
+ * virtual thread (a bounded platform pool before Java 21), while the cipher itself runs on a fixed pool of
+ * CPU workers. The result goes to a mirror tree: "dir" is encrypted into "dir_enc", "dir_enc" decrypted into "dir_dec".
+ */
+
+public class DirectoryAES {
+
+    private static final String newline = System.getProperty("line.separator");
+
+    private static byte[] key;
+    private static Mode mode = Mode.ECB;
+    private static ExpandedKey expandedKey;
+    private static Path inputDirectory;
+    private static Path outputDirectory;
+    private static int keyFileIndex = 1;
+    private static String process;
+    private static String engineName = "auto";
+    private static CipherEngine engine = CipherEngines.TABLE;
+
+    private static int parallelism = Runtime.getRuntime().availableProcessors();
+
+    private static final int CHUNK_SIZE = 1024 * 1024; //Large files are read, processed and written in chunks of this size.
+    private static final int MAX_OPEN_FILES = 512;
+    private static final int FALLBACK_IO_THREADS = 64;
+    private static final int CBC_IV_LENGTH = 16;
+
+    private static final SecureRandom random = new SecureRandom();
+
+    private static final AtomicInteger files = new AtomicInteger();
+    private static final AtomicInteger failures = new AtomicInteger();
+    private static final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * args[0] should be either "e" or "d"
+     * followed by the optional arguments, in any order:
+     * -length => "128" or "256"
+     * -mode => "ecb", "cbc", "ctr" or "gcm"; cbc, ctr and gcm draw a random IV or initial counter for every file
+     * and write it in front of the ciphertext, so identical files encrypt differently; unlike SequentialAES,
+     * cbc does not take its IV from the keyFile, which would give every file of the tree the same one;
+     * gcm appends a 16-byte tag to every file
+     * -threads => number of CPU workers, defaults to the number of available processors
+     * -engine => "auto" (default), "table", "bitsliced", "vector" or "jce" for ecb, ctr and gcm, as in ParallelAES
+     * then the keyFile and the input directory
+     */
+
+    public static void main(String[] args) throws Exception {
+
+        long start = System.nanoTime();
+
+        getArgumentsFromCommandLine(args);
+
+        expandedKey = KeyScheduleCache.shared().get(key);
+
+        ExecutorService cpuPool = Executors.newFixedThreadPool(parallelism);
+        ExecutorService ioPool = ioExecutor();
+        Semaphore openFiles = new Semaphore(MAX_OPEN_FILES);
+        try (Stream<Path> tree = Files.walk(inputDirectory)) {
+            List<Path> paths = tree.filter(Files::isRegularFile).collect(Collectors.toList());
+            for (Path path : paths) {
+                openFiles.acquire();
+                ioPool.execute(() -> {
+                    try {
+                        processFile(path, cpuPool);
+                    } catch (Exception e) {
+                        failures.incrementAndGet();
+                        System.err.println("Error: " + path + ": " + e.getMessage());
+                    } finally {
+                        openFiles.release();
+                    }
+                });
+            }
+        } finally {
+            ioPool.shutdown();
+            ioPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            cpuPool.shutdown();
+        }
+
+        long finish = System.nanoTime();
+        long nanoSeconds = finish - start;
+        double seconds = nanoSeconds / 1000000000.0;
+        System.out.println(String.format("Files: %d, failed: %d, bytes: %d, throughput: %.1f MB/s",
+                files.get(), failures.get(), bytes.get(), bytes.get() / 1e6 / seconds));
+        System.out.println(String.format("Done: %.3f", seconds));
+    }
+
+    /**
+     * Streams one file through the cipher. Reading and writing happen on the calling (I/O) thread;
+     * each chunk is handed to the CPU pool and the I/O thread waits for it.
+     */
+
+    private static void processFile(Path path, ExecutorService cpuPool) throws Exception {
+        Path target = outputDirectory.resolve(inputDirectory.relativize(path));
+        Files.createDirectories(target.getParent());
+        long size = Files.size(path);
+        int nonceLength = mode == Mode.CBC ? CBC_IV_LENGTH : BlockChain.nonceLength(mode);
+        long remaining = process.equals("e") ? size : size - nonceLength - (mode == Mode.GCM ? GaloisCounterMode.TAG_LENGTH : 0);
+        if (remaining < 0) {
+            throw new IOException("The input is too short for a " + mode + " ciphertext.");
+        }
+        int bufferSize = (int) Math.max(16, Math.min(CHUNK_SIZE, (size + 15) & ~15L));
+        byte[] buffer = new byte[bufferSize];
+        boolean authentic = true;
+        try (InputStream inputStream = Files.newInputStream(path);
+             OutputStream outputStream = Files.newOutputStream(target)) {
+            byte[] nonce = new byte[16]; //A fresh one for every file; the same nonce on two files would reuse the keystream.
+            if (process.equals("e")) {
+                if (mode == Mode.CBC) {
+                    random.nextBytes(nonce); //The same CBC IV would show which files share a prefix.
+                } else {
+                    nonce = BlockChain.newNonce(mode);
+                }
+                outputStream.write(nonce, 0, nonceLength);
+            } else {
+                inputStream.readNBytes(nonce, 0, nonceLength);
+            }
+            BlockChain blockChain = new BlockChain(expandedKey, mode, nonce, process.equals("e"), engine);
+            String file = path.toString();
+            long offset = 0;
+            int length;
+            FileIoEvent read = new FileIoEvent();
+            read.begin();
+            while ((length = inputStream.readNBytes(buffer, 0, (int) Math.min(buffer.length, remaining))) > 0) {
+                read.commit(file, "read", offset, length);
+                final int n = length;
+                final long chunkOffset = offset;
+                QueueWaitEvent queued = new QueueWaitEvent();
+                queued.begin();
+                int outLength = cpuPool.submit(() -> {
+                    queued.commit("cpu pool", chunkOffset / bufferSize);
+                    ChunkEvent event = new ChunkEvent();
+                    event.begin();
+                    int blocks = n / 16;
+                    blockChain.process(buffer, 0, blocks);
+                    int out = n % 16 == 0 ? n : blocks * 16 + blockChain.finish(buffer, blocks * 16, n % 16);
+                    event.commit(file, chunkOffset, n, mode.name(), process.equals("e") ? "encrypt" : "decrypt",
+                            mode == Mode.CBC ? "table" : engine.getName());
+                    return out;
+                }).get();
+                FileIoEvent write = new FileIoEvent();
+                write.begin();
+                outputStream.write(buffer, 0, outLength);
+                write.commit(target.toString(), "write", offset, outLength);
+                bytes.addAndGet(n);
+                remaining -= n;
+                offset += n;
+                read = new FileIoEvent();
+                read.begin();
+            }
+            if (mode == Mode.GCM && process.equals("e")) {
+                outputStream.write(blockChain.tag());
+            } else if (mode == Mode.GCM) {
+                authentic = blockChain.verify(inputStream.readNBytes(GaloisCounterMode.TAG_LENGTH));
+            }
+        }
+        if (!authentic) {
+            Files.deleteIfExists(target); //Unauthenticated plaintext must not be left behind.
+            throw new IOException("GCM authentication failed, the file is corrupt or the key is wrong.");
+        }
+        files.incrementAndGet();
+    }
+
+    /**
+     * Virtual thread per file when the runtime has them (Java 21+), otherwise a bounded platform pool.
+     */
+
+    private static ExecutorService ioExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(FALLBACK_IO_THREADS);
+        }
+    }
+
+    private static void getArgumentsFromCommandLine(String[] args) {
+        int keySizeCheck = 128; //User's intended key size.
+        try {
+            while (args[keyFileIndex].startsWith("-")) { //Optional arguments precede the keyFile.
+                if (args[keyFileIndex].equals("-length")) {
+                    keySizeCheck = Integer.parseInt(args[keyFileIndex + 1]);
+                    keyFileIndex += 2;
+                } else if (args[keyFileIndex].equals("-mode")) {
+                    mode = Mode.valueOf(args[keyFileIndex + 1].toUpperCase());
+                    keyFileIndex += 2;
+                } else if (args[keyFileIndex].equals("-threads")) {
+                    parallelism = Integer.parseInt(args[keyFileIndex + 1]);
+                    keyFileIndex += 2;
+                } else if (args[keyFileIndex].equals("-engine")) {
+                    engineName = args[keyFileIndex + 1].toLowerCase();
+                    keyFileIndex += 2;
+                } else {
+                    throw new Exception("Error: Unknown option " + args[keyFileIndex]);
+                }
+            }
+            if (mode == Mode.XTS) {
+                throw new Exception("Error: -mode xts works on sectors of a random-access file, use ParallelAES.");
+            }
+            key = Files.readAllBytes(Paths.get(args[keyFileIndex]));
+            if (key.length * 8 != keySizeCheck) //Check to see if user's intended key size matches the size of key in file.
+            {
+                throw new Exception("Error: Attempting to use a " + key.length * 8 + "-bit key with AES-" + keySizeCheck);
+            }
+
+            inputDirectory = Paths.get(args[keyFileIndex + 1]).toAbsolutePath().normalize();
+            if (!Files.isDirectory(inputDirectory)) {
+                throw new Exception("Error: There is no directory " + inputDirectory);
+            }
+            String name = inputDirectory.getFileName().toString();
+            if (args[0].equalsIgnoreCase("e")) {
+                outputDirectory = inputDirectory.resolveSibling(name + "_enc");
+                process = "e";
+            } else if (args[0].equalsIgnoreCase("d")) {
+                outputDirectory = inputDirectory.resolveSibling(name.replaceFirst("_enc$", "") + "_dec");
+                process = "d";
+            } else {
+                throw new Exception("Usage: java DirectoryAES e|d [-length 128|256] [-mode ecb|cbc|ctr|gcm] [-threads n] [-engine name] keyFile directory");
+            }
+            if (mode == Mode.CBC) {
+                if (!engineName.equals("auto") && !engineName.equals("table")) {
+                    throw new Exception("Error: -engine " + engineName + " supports only the ecb, ctr and gcm modes.");
+                }
+            } else {
+                try {
+                    engine = CipherEngines.forName(engineName);
+                } catch (IllegalArgumentException e) {
+                    throw new Exception("Error: " + e.getMessage());
+                }
+            }
+        } catch (Exception e) {
+            System.err.println(e.getMessage() + newline);
+            System.exit(1);
+        }
+    }
+}
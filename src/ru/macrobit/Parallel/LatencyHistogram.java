@@ -0,0 +1,65 @@
+package ru.macrobit.Parallel;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts durations in power-of-two buckets of microseconds: bucket 0 holds everything under 1 us,
+ * bucket i durations from 2^(i-1) to 2^i us. Recording is lock-free, so every worker can record into the
+ * same histogram; percentiles are the upper bound of their bucket, i.e. at most twice the true value.
+ */
+
+final class LatencyHistogram {
+
+    static final int BUCKETS = 40;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+
+    void record(long nanos) {
+        long micros = nanos / 1000;
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        counts.incrementAndGet(bucket);
+        count.increment();
+        totalNanos.add(nanos);
+    }
+
+    long getCount() {
+        return count.sum();
+    }
+
+    long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    long[] getCounts() {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        return snapshot;
+    }
+
+    /**
+     * @param fraction e.g. 0.99
+     * @return upper bound in microseconds of the bucket holding the percentile, 0 if nothing was recorded
+     */
+
+    long percentileMicros(double fraction) {
+        long[] snapshot = getCounts();
+        long total = 0;
+        for (long n : snapshot) {
+            total += n;
+        }
+        long rank = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank && seen > 0) {
+                return 1L << i;
+            }
+        }
+        return 0;
+    }
+}
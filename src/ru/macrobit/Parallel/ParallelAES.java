@@ -1,32 +1,103 @@
 package ru.macrobit.Parallel;
 
+import ru.macrobit.Engine.CipherEngine;
+import ru.macrobit.Engine.CipherEngines;
+import ru.macrobit.Engine.CounterMode;
+import ru.macrobit.Engine.ExpandedKey;
+import ru.macrobit.Engine.GaloisCounterMode;
+import ru.macrobit.Engine.Ghash;
+import ru.macrobit.Engine.KeyScheduleCache;
+import ru.macrobit.Engine.XtsMode;
+import ru.macrobit.Engine.VectorEngine;
+import ru.macrobit.Events.ChunkEvent;
+import ru.macrobit.Events.FileIoEvent;
+import ru.macrobit.Sequential.SequentialAES.Mode;
+import ru.macrobit.Stream.BlockChain;
+
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 public class ParallelAES {
 
     private static final String newline = System.getProperty("line.separator");
 
     private static byte[] key;
+    private static byte[] iv;
+    private static int nonceLength; //Bytes of the random nonce in front of the ciphertext, see BlockChain.nonceLength.
+    private static Mode mode = Mode.ECB;
+    private static ExpandedKey expandedKey;
     private static String fileName = "";
-    private static byte[] binary;
+    private static String inputFile;
     private static String fileExtension = "";
     private static int keyFileIndex = 1;
     private static String process;
-    private static BufferedOutputStream bufferedOutputStream;
+    private static boolean mapped;
+    private static boolean pipelined;
+    private static boolean async;
+    private static int reads = 8;
+    private static int writes = 8;
+    private static String engineName = "auto";
+    private static CipherEngine engine = CipherEngines.TABLE;
+    private static byte[] chain; //CBC: ciphertext block preceding the current window.
+    private static GaloisCounterMode gcm;
+    private static int sectorSize = XtsMode.DEFAULT_SECTOR_SIZE;
+    private static XtsMode xts;
+    private static final CipherMetrics metrics = new CipherMetrics();
+    private static String metricsFile;
+    private static boolean jmx;
+
+    private static int parallelism = Runtime.getRuntime().availableProcessors();
+    private static ForkJoinPool pool;
 
-    private static int THREAD_COUNT = 4;
+    private static final int WINDOW_SIZE = 16 * 1024 * 1024; //The input is read and processed one window at a time.
+    private static final long SEGMENT_SIZE = 1024 * 1024 * 1024; //Size of one mapping in the memory-mapped mode.
+    private static final int CHUNK_SIZE = 1024 * 1024; //Size of one chunk in the pipelined mode.
 
     /**
      * args[0] should be either "e" or "d"
-     * args[1] -length => "128" or "256"
-     * neither -length:
-     * args[1] should be the keyFile
-     * args[2] should be the inputFile
+     * followed by the optional arguments, in any order:
+     * -length => "128" or "256"
+     * -mode => "ecb", "cbc", "ctr", "gcm" or "xts"; cbc takes the IV from the keyFile like SequentialAES.
+     * ctr draws a random 16-byte initial counter and gcm a random 12-byte IV for every encryption and writes it in
+     * front of the ciphertext. CBC decryption runs in parallel, CBC encryption on a single worker. gcm appends a
+     * 16-byte tag to the output and takes at most 2^32 - 2 blocks; the workers hash their own ranges and the hashes
+     * are combined at the end.
+     * xts encrypts independent sectors without changing the file size; its keyFile holds the data key followed
+     * by the tweak key (32 bytes for -length 128, 64 bytes for -length 256).
+     * -sector => xts sector size in bytes, a multiple of 16, defaults to 512. The last sector may be shorter
+     * (ciphertext stealing) but not shorter than 16 bytes.
+     * -mmap => input and output files are memory-mapped and processed in place, without heap copies
+     * -pipeline => reading, encryption and writing overlap: a reader thread, the workers and a writer thread
+     * pass 1 MB chunks through a fixed ring of buffers, in order
+     * -async => like -pipeline, but on AsynchronousFileChannels: chunks are read and written at their own
+     * offsets with many requests in flight, for storage with a high latency per request
+     * -reads, -writes => requests in flight with -async, 8 each by default
+     * -metrics => file to write a JSON summary of the run to on exit, "-" for the standard output: bytes and
+     * durations of the key schedule, reads, windows or chunks, writes and the GCM tag, latency histograms, and
+     * the busy and idle time of every worker. With -mmap the file I/O happens as page faults within the windows.
+     * -jmx => registers the same figures as the MBean ru.macrobit:type=ParallelAES while the run lasts
+     * Under a JDK Flight Recorder recording the key schedule, every 64 KB task, every read and write and every
+     * wait between pipeline stages are events of the category AES (ru.macrobit.*); they cost next to nothing
+     * while no recording is running.
+     * -threads => number of worker threads, defaults to the number of available processors
+     * -engine => for ecb, ctr, gcm and xts "auto" (default) picks the fastest engine in a short calibration run at startup,
+     * or one of "table", "bitsliced", "vector" and "jce". bitsliced and vector are constant-time, vector runs on the
+     * Vector API when the JVM is started with --add-modules jdk.incubator.vector, jce on javax.crypto (AES-NI).
+     * cbc always uses the table engine.
+     * then the keyFile and the inputFile
      */
 
     public static void main(String[] args) throws Exception {
@@ -35,13 +106,43 @@ public class ParallelAES {
 
         getArgumentsFromCommandLine(args);
 
-        List<AesThread> aesThreads = initializationList();
-
-        List<Thread> threads = creatingAndStartingThread(aesThreads);
+        metrics.begin();
+        if (jmx) {
+            metrics.register();
+        }
+        if (metricsFile != null) {
+            Thread summary = new Thread(ParallelAES::writeMetrics, "aes-metrics");
+            Runtime.getRuntime().addShutdownHook(summary); //Also runs when a failed GCM check exits early.
+        }
 
-        joinThread(threads);
+        long keySchedule = System.nanoTime();
+        if (mode == Mode.XTS) {
+            expandedKey = KeyScheduleCache.shared().get(Arrays.copyOf(key, key.length / 2));
+            ExpandedKey tweakKey = KeyScheduleCache.shared().get(Arrays.copyOfRange(key, key.length / 2, key.length));
+            xts = new XtsMode(expandedKey, tweakKey, sectorSize, engine);
+        } else {
+            expandedKey = KeyScheduleCache.shared().get(key);
+        }
+        if (mode == Mode.GCM) {
+            gcm = new GaloisCounterMode(expandedKey, iv);
+        }
+        metrics.record(CipherMetrics.Stage.KEY_SCHEDULE, keySchedule, 0);
 
-        writeFile(args[0], aesThreads);
+        pool = new ForkJoinPool(parallelism);
+        try {
+            if (mapped) {
+                mappedProcessing(args[0]);
+            } else if (pipelined) {
+                pipelinedProcessing(args[0]);
+            } else if (async) {
+                asyncProcessing(args[0]);
+            } else {
+                windowedProcessing(args[0]);
+            }
+        } finally {
+            pool.shutdown();
+            metrics.end();
+        }
 
         long finish = System.nanoTime();
         long nanoSeconds = finish - start;
@@ -49,100 +150,485 @@ public class ParallelAES {
         System.out.println(String.format("Done: %.3f", seconds));
     }
 
-    private static void writeFile(String arg, List<AesThread> aesThreads) throws IOException {
-        if (arg.equalsIgnoreCase("e")) {
-            bufferedOutputStream = new BufferedOutputStream(new FileOutputStream(fileName + "_enc." + fileExtension));
-        } else if (arg.equalsIgnoreCase("d")) {
-            bufferedOutputStream = new BufferedOutputStream(new FileOutputStream(fileName + "_dec." + fileExtension));
+    private static void windowedProcessing(String arg) throws IOException {
+        boolean authentic = true;
+        try (InputStream inputStream = new FileInputStream(inputFile);
+             OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(outputFile(arg)))) {
+            nonce(inputStream, outputStream);
+            chain = gcm != null ? gcm.counter() : iv == null ? null : iv.clone();
+            int windowSize = mode == Mode.XTS ? Math.max(sectorSize, WINDOW_SIZE / sectorSize * sectorSize) : WINDOW_SIZE;
+            byte[] window = new byte[windowSize];
+            byte[] result = new byte[windowSize];
+            long windowOffset = 0;
+            long remaining = textLength(Files.size(Paths.get(inputFile)));
+            int length;
+            FileIoEvent event = new FileIoEvent();
+            event.begin();
+            long begin = System.nanoTime();
+            while ((length = inputStream.readNBytes(window, 0, (int) Math.min(window.length, remaining))) > 0) {
+                metrics.record(CipherMetrics.Stage.READ, begin, length);
+                event.commit(inputFile, "read", windowOffset, length);
+                int outLength = cipherWindow(window, result, length, windowOffset, chain);
+                event = new FileIoEvent();
+                event.begin();
+                begin = System.nanoTime();
+                outputStream.write(result, 0, outLength);
+                metrics.record(CipherMetrics.Stage.WRITE, begin, outLength);
+                event.commit(outputFile(arg), "write", windowOffset, outLength);
+                if (mode == Mode.CBC && process.equals("d")) {
+                    System.arraycopy(window, outLength - 16, chain, 0, 16);
+                }
+                windowOffset += length;
+                remaining -= length;
+                event = new FileIoEvent();
+                event.begin();
+                begin = System.nanoTime();
+            }
+            if (mode == Mode.GCM && process.equals("e")) {
+                outputStream.write(tag(windowOffset));
+            } else if (mode == Mode.GCM) {
+                authentic = verify(inputStream.readNBytes(GaloisCounterMode.TAG_LENGTH), windowOffset);
+            }
+        }
+        if (!authentic) {
+            authenticationFailed(arg);
+        }
+    }
+
+    /**
+     * Same output as windowedProcessing, but the next chunk is read and the previous one written while the
+     * workers encipher the current ones.
+     */
+
+    private static void pipelinedProcessing(String arg) throws IOException {
+        boolean authentic = true;
+        try (InputStream inputStream = new FileInputStream(inputFile);
+             OutputStream outputStream = new FileOutputStream(outputFile(arg))) {
+            nonce(inputStream, outputStream);
+            chain = gcm != null ? gcm.counter() : iv == null ? null : iv.clone();
+            long length = textLength(Files.size(Paths.get(inputFile)));
+            new Pipeline(pool, chunkSize(), 2 * parallelism + 2, metrics, inputFile, outputFile(arg)).run(inputStream, length, outputStream, chain,
+                    mode == Mode.CBC && process.equals("d"), mode == Mode.CBC && process.equals("e"), ParallelAES::cipherWindow);
+            if (mode == Mode.GCM && process.equals("e")) {
+                outputStream.write(tag(length));
+            } else if (mode == Mode.GCM) {
+                authentic = verify(inputStream.readNBytes(GaloisCounterMode.TAG_LENGTH), length);
+            }
+        }
+        if (!authentic) {
+            authenticationFailed(arg);
         }
+    }
+
+    /**
+     * Same output again, with every chunk read and written at its own offset by asynchronous requests.
+     */
 
-        for (AesThread aesThread : aesThreads) {
-            bufferedOutputStream.write(aesThread.getBinary(), 0, aesThread.getBinary().length);
+    private static void asyncProcessing(String arg) throws IOException {
+        boolean authentic = true;
+        try (AsynchronousFileChannel input = AsynchronousFileChannel.open(Paths.get(inputFile), StandardOpenOption.READ);
+             AsynchronousFileChannel output = AsynchronousFileChannel.open(Paths.get(outputFile(arg)), StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            chain = gcm != null ? gcm.counter() : iv == null ? null : iv.clone();
+            long length = textLength(input.size());
+            if (process.equals("e") && nonceLength != 0) {
+                ByteBuffer nonce = ByteBuffer.wrap(iv, 0, nonceLength);
+                while (nonce.hasRemaining()) {
+                    await(output.write(nonce, nonce.position()));
+                }
+            }
+            new AsyncPipeline(pool, chunkSize(), reads, writes, metrics, inputFile, outputFile(arg)).run(input, inputStart(), length,
+                    output, outputStart(), chain, mode == Mode.CBC && process.equals("d"), mode == Mode.CBC && process.equals("e"),
+                    ParallelAES::cipherWindow);
+            if (mode == Mode.GCM && process.equals("e")) {
+                ByteBuffer tag = ByteBuffer.wrap(tag(length));
+                while (tag.hasRemaining()) {
+                    await(output.write(tag, outputStart() + length + tag.position()));
+                }
+            } else if (mode == Mode.GCM) {
+                ByteBuffer tag = ByteBuffer.allocate(GaloisCounterMode.TAG_LENGTH);
+                while (tag.hasRemaining()) {
+                    if (await(input.read(tag, inputStart() + length + tag.position())) < 0) {
+                        throw new EOFException();
+                    }
+                }
+                authentic = verify(tag.array(), length);
+            }
+        }
+        if (!authentic) {
+            authenticationFailed(arg);
         }
-        bufferedOutputStream.flush();
-        bufferedOutputStream.close();
     }
 
-    private static void joinThread(List<Thread> threads) throws InterruptedException {
-        for (int i = 0; i < THREAD_COUNT; i++) {
-            Thread thread = threads.get(i);
-            thread.join();
+    private static int await(Future<Integer> request) throws IOException {
+        try {
+            return request.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
         }
     }
 
-    private static List<Thread> creatingAndStartingThread(List<AesThread> aesThreads) {
-        List<Thread> threads = new ArrayList<>();
-        for (int i = 0; i < THREAD_COUNT; i++) {
-            if (aesThreads.get(i) != null) {
-                Thread thread = new Thread(aesThreads.get(i));
-                threads.add(thread);
-                thread.start();
+    /**
+     * @return bytes per chunk in the pipelined modes, whole sectors in XTS
+     */
+
+    private static int chunkSize() {
+        return mode == Mode.XTS ? Math.max(sectorSize, CHUNK_SIZE / sectorSize * sectorSize) : CHUNK_SIZE;
+    }
+
+    /**
+     * Enciphers {@code length} bytes of window into result: pads a partial last ECB or CBC block, does a
+     * partial GCM block or a short XTS sector on the calling thread and gives the rest to the workers.
+     *
+     * @param position offset of window[0] in the whole stream
+     * @param chain    CTR and GCM counter, or the CBC chaining value at the start of the window
+     * @return the number of bytes of result to write
+     */
+
+    private static int cipherWindow(byte[] window, byte[] result, int length, long position, byte[] chain) {
+        int outLength = length;
+        if (length % 16 != 0 && (mode == Mode.ECB || mode == Mode.CBC)) {
+            outLength = fillingMissingElements(window, length);
+        }
+        int nBlock = (outLength + 15) / 16; //CTR processes the partial block and writes only 'length' bytes.
+        if (mode == Mode.GCM) {
+            nBlock = length / 16; //GCM workers hash whole blocks; the partial one is done here.
+            gcmTail(window, result, nBlock * 16, length % 16, position);
+        } else if (mode == Mode.XTS) {
+            nBlock = length / sectorSize * sectorSize / 16; //Whole sectors; a shorter last one is done here.
+            xtsTail(window, result, nBlock * 16, length - nBlock * 16, position);
+        }
+
+        runWindow(new AesThread(window, result, 0, nBlock, position, process, mode, chain, expandedKey, engine, ghash(), xts));
+        return outLength;
+    }
+
+    /**
+     * The input and output files are mapped one segment at a time and the workers read from one mapping
+     * and write straight into the other. Only a trailing partial block goes through the heap,
+     * to be padded (ECB, CBC) or cut short (CTR, GCM), and in XTS a shorter last sector.
+     */
+
+    private static void mappedProcessing(String arg) throws IOException {
+        boolean authentic = true;
+        try (FileChannel input = FileChannel.open(Paths.get(inputFile), StandardOpenOption.READ);
+             FileChannel output = FileChannel.open(Paths.get(outputFile(arg)), StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            chain = gcm != null ? gcm.counter() : iv == null ? null : iv.clone();
+            if (process.equals("e") && nonceLength != 0) {
+                output.write(ByteBuffer.wrap(iv, 0, nonceLength), 0);
+            }
+            final long inStart = inputStart();
+            final long outStart = outputStart();
+            final long sizeFile = textLength(input.size());
+            final long unit = mode == Mode.XTS ? sectorSize : 16;
+            final long end = sizeFile - sizeFile % unit;
+            final long segmentSize = Math.max(unit, SEGMENT_SIZE / unit * unit);
+            long begin = 0;
+            while (begin < end) {
+                long length = Math.min(segmentSize, end - begin);
+                MappedByteBuffer in = input.map(FileChannel.MapMode.READ_ONLY, inStart + begin, length);
+                MappedByteBuffer out = output.map(FileChannel.MapMode.READ_WRITE, outStart + begin, length);
+
+                runWindow(new AesThread(in, out, 0, (int) (length / 16), begin, process, mode, chain, expandedKey, engine, ghash(), xts));
+
+                if (mode == Mode.CBC && process.equals("d")) {
+                    in.get((int) length - 16, chain, 0, 16);
+                }
+                begin += length;
+            }
+
+            final int left = (int) (sizeFile - end);
+            if (left != 0 && (mode == Mode.CTR || mode == Mode.GCM || mode == Mode.XTS)) {
+                ByteBuffer tail = ByteBuffer.allocate(left);
+                readFully(input, tail, inStart + begin);
+                if (mode == Mode.XTS) {
+                    xtsTail(tail.array(), tail.array(), 0, left, begin);
+                } else if (mode == Mode.GCM) {
+                    gcmTail(tail.array(), tail.array(), 0, left, begin);
+                } else {
+                    new CounterMode(expandedKey, iv, engine).process(begin, tail, 0, tail, 0, left);
+                }
+                tail.flip();
+                output.write(tail, outStart + begin);
+            } else if (left != 0) {
+                ByteBuffer tail = ByteBuffer.allocate(16);
+                tail.limit(left);
+                readFully(input, tail, inStart + begin);
+                fillingMissingElements(tail.array(), left);
+                tail.clear();
+                runWindow(new AesThread(tail, tail, 0, 1, begin, process, mode, chain, expandedKey, engine, null, null));
+                output.write(tail, outStart + begin);
             }
+            if (mode == Mode.GCM && process.equals("e")) {
+                output.write(ByteBuffer.wrap(tag(sizeFile)), outStart + sizeFile);
+            } else if (mode == Mode.GCM) {
+                ByteBuffer tag = ByteBuffer.allocate(GaloisCounterMode.TAG_LENGTH);
+                readFully(input, tag, inStart + sizeFile);
+                authentic = verify(tag.array(), sizeFile);
+            }
+        }
+        if (!authentic) {
+            authenticationFailed(arg);
         }
-        return threads;
     }
 
-    private static List<AesThread> initializationList() throws Exception {
-        List<AesThread> aesThreads = new ArrayList<>();
-        final int sizeFile = binary.length;
-        int blockPerThread = sizeFile / 16;
-        if (sizeFile % 16 != 0) {
-            blockPerThread++;
+    /**
+     * GCM: encrypts or decrypts a partial last block on the calling thread and adds it to the hash.
+     *
+     * @param position offset of in[0] in the whole stream
+     */
+
+    private static void gcmTail(byte[] in, byte[] out, int offset, int length, long position) {
+        if (length == 0) {
+            return;
+        }
+        Ghash segment = gcm.ghash().segment();
+        if (process.equals("d")) {
+            segment.update(in, offset, length);
         }
-        int nBlock = blockPerThread;
-        THREAD_COUNT = THREAD_COUNT > blockPerThread ? blockPerThread : THREAD_COUNT;
-        blockPerThread = blockPerThread / THREAD_COUNT;
-        blockDivision(aesThreads, blockPerThread, nBlock);
-        return aesThreads;
+        new CounterMode(expandedKey, gcm.counter(), engine).process(position + offset, in, offset, out, offset, length);
+        if (process.equals("e")) {
+            segment.update(out, offset, length);
+        }
+        gcm.ghash().merge((position + offset) / 16, segment);
     }
 
-    private static void blockDivision(List<AesThread> aesThreads, int blockPerThread, int nBlock) {
-        int begin;
-        byte[] blocks;
-        int offset = blockPerThread * 16;
-        int number = nBlock - THREAD_COUNT;
-        int n = 0, pointer = 0;
-        for (int i = 0; i < THREAD_COUNT; i++) {
-            if (number != 0 && i < number) {
-                begin = (i * offset) * n;
-                pointer += offset * blockPerThread;
-            } else {
-                begin = pointer;
-                pointer += offset * blockPerThread;
+    /**
+     * XTS: encrypts or decrypts a last sector shorter than sectorSize on the calling thread.
+     *
+     * @param position offset of in[0] in the whole stream
+     */
+
+    private static void xtsTail(byte[] in, byte[] out, int offset, int length, long position) {
+        if (length == 0) {
+            return;
+        }
+        long sector = (position + offset) / sectorSize;
+        if (process.equals("e")) {
+            xts.encrypt(sector, in, offset, out, offset, length);
+        } else {
+            xts.decrypt(sector, in, offset, out, offset, length);
+        }
+    }
+
+    /**
+     * GCM: the tag of a message of {@code length} bytes, timed as the tag stage.
+     */
+
+    private static byte[] tag(long length) {
+        long begin = System.nanoTime();
+        byte[] tag = gcm.tag(length);
+        metrics.record(CipherMetrics.Stage.TAG, begin, 0);
+        return tag;
+    }
+
+    private static boolean verify(byte[] tag, long length) {
+        long begin = System.nanoTime();
+        boolean authentic = gcm.verify(tag, length);
+        metrics.record(CipherMetrics.Stage.TAG, begin, 0);
+        return authentic;
+    }
+
+    private static Ghash ghash() {
+        return gcm == null ? null : gcm.ghash();
+    }
+
+    /**
+     * @return the number of bytes to encrypt or decrypt; a CTR or GCM ciphertext starts with the nonce, a GCM
+     * ciphertext ends with the tag
+     */
+
+    private static long textLength(long sizeFile) {
+        if (process.equals("e")) {
+            return sizeFile;
+        }
+        return sizeFile - nonceLength - (mode == Mode.GCM ? GaloisCounterMode.TAG_LENGTH : 0);
+    }
+
+    /**
+     * @return offset of the text in the input file, past the nonce of a ciphertext
+     */
+
+    private static long inputStart() {
+        return process.equals("d") ? nonceLength : 0;
+    }
+
+    /**
+     * @return offset of the text in the output file, past the nonce of a ciphertext
+     */
+
+    private static long outputStart() {
+        return process.equals("e") ? nonceLength : 0;
+    }
+
+    /**
+     * Writes the nonce in front of the ciphertext, or skips it in front of the text to decrypt.
+     */
+
+    private static void nonce(InputStream inputStream, OutputStream outputStream) throws IOException {
+        if (nonceLength == 0) {
+            return;
+        }
+        if (process.equals("e")) {
+            outputStream.write(iv, 0, nonceLength);
+        } else {
+            inputStream.skipNBytes(nonceLength);
+        }
+    }
+
+    /**
+     * @return the nonce the ciphertext starts with, in a 16-byte array like the IV
+     */
+
+    private static byte[] readNonce(String file) throws IOException {
+        byte[] nonce = new byte[16];
+        try (InputStream inputStream = new FileInputStream(file)) {
+            if (inputStream.readNBytes(nonce, 0, nonceLength) < nonceLength) {
+                throw new EOFException();
             }
-            blocks = getBlock(begin, offset);
-            aesThreads.add(new AesThread(blockPerThread, blocks, process, key));
         }
+        return nonce;
     }
 
-    private static byte[] getBlock(int begin, int count) {
-        final int spaceCode = 32;
-        byte[] blocks = new byte[count];
-        int index = 0;
-        for (int i = begin; i < (count + begin); i++) {
-            if (binary.length <= i) {
-                blocks[index] = spaceCode;
-            } else {
-                blocks[index] = binary[i];
+    private static void authenticationFailed(String arg) throws IOException {
+        Files.deleteIfExists(Paths.get(outputFile(arg))); //Unauthenticated plaintext must not be left behind.
+        System.err.println("Error: GCM authentication failed, the input is corrupt or the key is wrong." + newline);
+        System.exit(1);
+    }
+
+    /**
+     * CBC encryption is a single chain and runs on the calling thread; everything else is split
+     * into AesTasks on the pool.
+     */
+
+    private static void runWindow(AesThread work) {
+        long begin = System.nanoTime();
+        if (mode == Mode.CBC && process.equals("e")) {
+            ChunkEvent event = new ChunkEvent();
+            event.begin();
+            work.run();
+            metrics.task(work.getCount(), begin);
+            work.commit(event, inputFile);
+        } else {
+            pool.invoke(new AesTask(work, metrics, inputFile));
+        }
+        metrics.record(CipherMetrics.Stage.CIPHER, begin, work.getCount() * 16L);
+    }
+
+    /**
+     * Shutdown hook: writes the summary of the run for -metrics.
+     */
+
+    private static void writeMetrics() {
+        Map<String, Object> run = new LinkedHashMap<>();
+        run.put("process", process);
+        run.put("mode", mode.name());
+        run.put("engine", mode == Mode.CBC ? "table" : engine.getName());
+        run.put("io", mapped ? "mmap" : pipelined ? "pipeline" : async ? "async" : "window");
+        run.put("threads", parallelism);
+        try {
+            metrics.writeSummary(metricsFile, run);
+        } catch (IOException e) {
+            System.err.println("Error: Cannot write the metrics to " + metricsFile + ": " + e.getMessage());
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
             }
-            index++;
         }
-        return blocks;
+    }
+
+    private static int fillingMissingElements(byte[] window, int length) {
+        final int spaceCode = 32;
+        int padded = (length + 15) / 16 * 16;
+        Arrays.fill(window, length, padded, (byte) spaceCode);
+        return padded;
+    }
+
+    private static String outputFile(String arg) {
+        return arg.equalsIgnoreCase("e") ? fileName + "_enc." + fileExtension : fileName + "_dec." + fileExtension;
     }
 
     private static void getArgumentsFromCommandLine(String[] args) {
         int keySizeCheck = 128; //User's intended key size.
         try {
-            if (args[1].equals("-length")) { //No optional length argument given.
-                keyFileIndex += 2;
-                keySizeCheck = Integer.parseInt(args[keyFileIndex - 1]);
+            while (args[keyFileIndex].startsWith("-")) { //Optional arguments precede the keyFile.
+                if (args[keyFileIndex].equals("-length")) {
+                    keySizeCheck = Integer.parseInt(args[keyFileIndex + 1]);
+                    keyFileIndex += 2;
+                } else if (args[keyFileIndex].equals("-mode")) {
+                    mode = Mode.valueOf(args[keyFileIndex + 1].toUpperCase());
+                    keyFileIndex += 2;
+                } else if (args[keyFileIndex].equals("-threads")) {
+                    parallelism = Integer.parseInt(args[keyFileIndex + 1]);
+                    keyFileIndex += 2;
+                } else if (args[keyFileIndex].equals("-mmap")) {
+                    mapped = true;
+                    keyFileIndex++;
+                } else if (args[keyFileIndex].equals("-pipeline")) {
+                    pipelined = true;
+                    keyFileIndex++;
+                } else if (args[keyFileIndex].equals("-async")) {
+                    async = true;
+                    keyFileIndex++;
+                } else if (args[keyFileIndex].equals("-reads")) {
+                    reads = Integer.parseInt(args[keyFileIndex + 1]);
+                    keyFileIndex += 2;
+                } else if (args[keyFileIndex].equals("-writes")) {
+                    writes = Integer.parseInt(args[keyFileIndex + 1]);
+                    keyFileIndex += 2;
+                } else if (args[keyFileIndex].equals("-sector")) {
+                    sectorSize = Integer.parseInt(args[keyFileIndex + 1]);
+                    keyFileIndex += 2;
+                } else if (args[keyFileIndex].equals("-metrics")) {
+                    metricsFile = args[keyFileIndex + 1];
+                    keyFileIndex += 2;
+                } else if (args[keyFileIndex].equals("-jmx")) {
+                    jmx = true;
+                    keyFileIndex++;
+                } else if (args[keyFileIndex].equals("-engine")) {
+                    engineName = args[keyFileIndex + 1].toLowerCase();
+                    keyFileIndex += 2;
+                } else {
+                    throw new Exception("Error: Unknown option " + args[keyFileIndex]);
+                }
+            }
+            if ((mapped ? 1 : 0) + (pipelined ? 1 : 0) + (async ? 1 : 0) > 1) {
+                throw new Exception("Error: Only one of -mmap, -pipeline and -async can be given.");
+            }
+            if (reads <= 0 || writes <= 0) {
+                throw new Exception("Error: -reads and -writes must be positive.");
             }
             key = readSmallBinaryFile(args[keyFileIndex]);
             assert key != null;
-            if (key.length * 8 != keySizeCheck) //Check to see if user's intended key size matches the size of key in file.
+            if (mode == Mode.XTS) {
+                if (key.length * 4 != keySizeCheck) {
+                    throw new Exception("Error: XTS-AES-" + keySizeCheck + " needs a " + keySizeCheck / 4
+                            + "-byte keyFile, the data key followed by the tweak key.");
+                }
+                if (Arrays.equals(key, 0, key.length / 2, key, key.length / 2, key.length)) {
+                    throw new Exception("Error: The XTS data key and tweak key must differ.");
+                }
+                if (sectorSize <= 0 || sectorSize % 16 != 0) {
+                    throw new Exception("Error: -sector must be a positive multiple of 16.");
+                }
+            } else if (key.length * 8 != keySizeCheck) //Check to see if user's intended key size matches the size of key in file.
             {
                 throw new Exception("Error: Attempting to use a " + key.length * 8 + "-bit key with AES-" + keySizeCheck);
             }
+            if (mode == Mode.CBC) {
+                iv = Arrays.copyOf(key, 16);
+                if (key.length != 32) {
+                    throw new Exception("Error: Size of Initialization Vector must be 32 bytes.");
+                }
+            }
 
             fileName += args[keyFileIndex + 1];
             int beginIndex = fileName.lastIndexOf(".");
@@ -150,12 +636,47 @@ public class ParallelAES {
             fileName = fileName.substring(0, beginIndex);
 
             if (args[0].equalsIgnoreCase("e")) {
-                binary = readSmallBinaryFile(fileName + "." + fileExtension);
+                inputFile = fileName + "." + fileExtension;
                 process = "e";
             } else if (args[0].equalsIgnoreCase("d")) {
-                binary = readSmallBinaryFile(fileName + "_enc." + fileExtension);
+                inputFile = fileName + "_enc." + fileExtension;
                 process = "d";
             }
+            if (!Files.isRegularFile(Paths.get(inputFile))) {
+                throw new Exception("Error: There is no file " + inputFile);
+            }
+            nonceLength = BlockChain.nonceLength(mode);
+            long sizeFile = Files.size(Paths.get(inputFile));
+            if (textLength(sizeFile) < 0) {
+                throw new Exception("Error: The input is shorter than its nonce and tag.");
+            }
+            if (mode == Mode.GCM && textLength(sizeFile) > GaloisCounterMode.MAX_LENGTH) {
+                throw new Exception("Error: A GCM message is at most " + GaloisCounterMode.MAX_LENGTH + " bytes.");
+            }
+            if (nonceLength != 0) {
+                iv = process.equals("e") ? BlockChain.newNonce(mode) : readNonce(inputFile);
+            }
+            if (mode == Mode.XTS && sizeFile % sectorSize != 0 && sizeFile % sectorSize < 16) {
+                throw new Exception("Error: XTS needs at least 16 bytes in the last sector, the file ends "
+                        + sizeFile % sectorSize + " bytes into one.");
+            }
+            if (mode == Mode.CBC) {
+                if (!engineName.equals("auto") && !engineName.equals("table")) {
+                    throw new Exception("Error: -engine " + engineName + " supports only the ecb, ctr, gcm and xts modes.");
+                }
+            } else {
+                try {
+                    engine = CipherEngines.forName(engineName);
+                } catch (IllegalArgumentException e) {
+                    throw new Exception("Error: " + e.getMessage());
+                }
+                if (engineName.equals("auto")) {
+                    System.out.println("Engine: " + engine.getName());
+                }
+            }
+            if (engineName.equals("vector") && !VectorEngine.isAvailable()) {
+                System.err.println("Warning: jdk.incubator.vector is not available, the vector engine runs bitsliced.");
+            }
         } catch (Exception e) {
             System.err.println(e.getMessage() + newline);
             System.exit(1);
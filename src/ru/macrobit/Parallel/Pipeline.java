@@ -0,0 +1,156 @@
+package ru.macrobit.Parallel;
+
+import ru.macrobit.Events.FileIoEvent;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Streams a file through three overlapping stages: the calling thread reads chunks, the pool enciphers
+ * them, and a writer thread writes them out in order. The stages hand chunks over through a
+ * {@link RingBuffer}, so reading chunk n + 1, enciphering chunk n and writing chunk n - 1 happen at the same
+ * time and the run takes about as long as the slowest stage instead of the sum of all three.
+ */
+
+final class Pipeline {
+
+    /**
+     * Enciphers one chunk from input to output.
+     */
+
+    interface Stage {
+
+        /**
+         * @param position offset of the chunk in the whole stream
+         * @param chain    the chaining value given to {@link #run}, or for CBC decryption the ciphertext
+         *                 block before the chunk
+         * @return the number of output bytes
+         */
+
+        int cipher(byte[] input, byte[] output, int length, long position, byte[] chain);
+    }
+
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+    private final int slots;
+    private final CipherMetrics metrics;
+    private final String inputName;
+    private final String outputName;
+
+    /**
+     * @param chunkSize bytes per chunk, a whole number of blocks (sectors in XTS)
+     * @param slots     chunks in flight; twice the workers keeps all of them busy while the writer lags
+     * @param metrics   receives the duration of every read and write
+     * @param inputName  name of the input, for the flight recorder
+     * @param outputName name of the output, for the flight recorder
+     */
+
+    Pipeline(ForkJoinPool pool, int chunkSize, int slots, CipherMetrics metrics, String inputName, String outputName) {
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+        this.slots = slots;
+        this.metrics = metrics;
+        this.inputName = inputName;
+        this.outputName = outputName;
+    }
+
+    /**
+     * @param length         bytes to read from {@code in}
+     * @param chain          passed to every chunk, e.g. the CTR counter; may be null
+     * @param chainFromInput CBC decryption: every chunk gets the last input block of the one before it
+     *                       instead, and the first one {@code chain}
+     * @param inOrder        CBC encryption: chunks are enciphered one after another on the writer thread,
+     *                       which carries {@code chain} over from chunk to chunk
+     */
+
+    void run(InputStream in, long length, OutputStream out, byte[] chain, boolean chainFromInput, boolean inOrder, Stage stage) throws IOException {
+        RingBuffer ring = new RingBuffer(slots, chunkSize);
+        IOException[] writeFailure = new IOException[1];
+        Thread writer = new Thread(() -> {
+            try {
+                for (long sequence = 0; ; sequence++) {
+                    RingBuffer.Slot slot = ring.take(sequence);
+                    if (slot == null) {
+                        break;
+                    }
+                    if (inOrder) {
+                        slot.outLength = stage.cipher(slot.input, slot.output, slot.length, slot.position, chain);
+                    }
+                    FileIoEvent event = new FileIoEvent();
+                    event.begin();
+                    long begin = System.nanoTime();
+                    out.write(slot.output, 0, slot.outLength);
+                    metrics.record(CipherMetrics.Stage.WRITE, begin, slot.outLength);
+                    event.commit(outputName, "write", slot.position, slot.outLength);
+                    ring.release(slot);
+                }
+            } catch (IOException | RuntimeException e) {
+                writeFailure[0] = e instanceof IOException ? (IOException) e : new IOException(e);
+                ring.fail(e);
+            }
+        }, "aes-writer");
+        writer.start();
+        try {
+            byte[] previous = chainFromInput ? chain.clone() : null;
+            long sequence = 0;
+            long position = 0;
+            while (position < length) {
+                RingBuffer.Slot slot = ring.claim(sequence++);
+                FileIoEvent event = new FileIoEvent();
+                event.begin();
+                long begin = System.nanoTime();
+                int n = in.readNBytes(slot.input, 0, (int) Math.min(chunkSize, length - position));
+                if (n == 0) {
+                    throw new EOFException("Error: The input ended early.");
+                }
+                metrics.record(CipherMetrics.Stage.READ, begin, n);
+                event.commit(inputName, "read", position, n);
+                slot.position = position;
+                slot.length = n;
+                position += n;
+                if (previous != null) {
+                    System.arraycopy(previous, 0, slot.chain, 0, 16);
+                    if (n >= 16) {
+                        System.arraycopy(slot.input, n - 16, previous, 0, 16);
+                    }
+                }
+                if (inOrder) {
+                    ring.complete(slot);
+                } else {
+                    byte[] slotChain = previous != null ? slot.chain : chain;
+                    pool.execute(() -> {
+                        try {
+                            slot.outLength = stage.cipher(slot.input, slot.output, slot.length, slot.position, slotChain);
+                            ring.complete(slot);
+                        } catch (RuntimeException | Error e) {
+                            ring.fail(e);
+                        }
+                    });
+                }
+            }
+            ring.close(sequence);
+        } catch (IOException | RuntimeException e) {
+            ring.fail(e);
+            throw e;
+        } finally {
+            join(writer, ring);
+        }
+        if (writeFailure[0] != null) {
+            throw writeFailure[0];
+        }
+    }
+
+    private static void join(Thread writer, RingBuffer ring) throws InterruptedIOException {
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            ring.fail(e);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package ru.macrobit.Parallel;
+
+import ru.macrobit.Events.QueueWaitEvent;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * A fixed ring of preallocated chunk buffers shared by the stages of a {@link Pipeline}. Chunk n always
+ * lives in slot n % size: the reader claims the slot once the writer has released chunk n - size, the
+ * cipher stage completes chunks in any order and the writer takes them back in order. No buffer is
+ * allocated after construction, and the ring bounds the memory held by chunks in flight. A wait for a slot
+ * is a QueueWaitEvent for the flight recorder.
+ */
+
+final class RingBuffer {
+
+    private static final int FREE = 0;
+    private static final int FILLED = 1; //Read, waiting for or being processed by the cipher stage.
+    private static final int DONE = 2;
+
+    static final class Slot {
+        final byte[] input;
+        final byte[] output;
+        final byte[] chain = new byte[16]; //CBC decryption: the ciphertext block before the chunk.
+        long sequence;
+        long position; //Offset of the chunk in the whole stream.
+        int length;
+        int outLength;
+        private int state;
+
+        private Slot(int size) {
+            this.input = new byte[size];
+            this.output = new byte[size];
+        }
+    }
+
+    private final Slot[] slots;
+    private long end = Long.MAX_VALUE; //Number of chunks, once the reader has seen the end of the input.
+    private Throwable failure;
+
+    RingBuffer(int size, int slotSize) {
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot(slotSize);
+        }
+    }
+
+    /**
+     * Reader: waits until the slot of the chunk is free and hands it over for filling.
+     */
+
+    synchronized Slot claim(long sequence) throws IOException {
+        Slot slot = slots[(int) (sequence % slots.length)];
+        if (slot.state != FREE) {
+            QueueWaitEvent event = new QueueWaitEvent();
+            event.begin();
+            while (slot.state != FREE) {
+                await();
+            }
+            event.commit("pipeline free slot", sequence);
+        }
+        slot.state = FILLED;
+        slot.sequence = sequence;
+        return slot;
+    }
+
+    /**
+     * Reader: no chunk after {@code count - 1} will come.
+     */
+
+    synchronized void close(long count) {
+        end = count;
+        notifyAll();
+    }
+
+    /**
+     * Cipher stage: the output of the chunk is ready to be written.
+     */
+
+    synchronized void complete(Slot slot) {
+        slot.state = DONE;
+        notifyAll();
+    }
+
+    /**
+     * Writer: waits for the chunk to be completed.
+     *
+     * @return the slot of the chunk, or null if the input ended before it
+     */
+
+    synchronized Slot take(long sequence) throws IOException {
+        Slot slot = slots[(int) (sequence % slots.length)];
+        if (sequence < end && (slot.state != DONE || slot.sequence != sequence)) {
+            QueueWaitEvent event = new QueueWaitEvent();
+            event.begin();
+            while (sequence < end && (slot.state != DONE || slot.sequence != sequence)) {
+                await();
+            }
+            event.commit("pipeline enciphered chunk", sequence);
+        }
+        return sequence < end ? slot : null;
+    }
+
+    /**
+     * Writer: the chunk is written and its slot can take chunk sequence + size.
+     */
+
+    synchronized void release(Slot slot) {
+        slot.state = FREE;
+        notifyAll();
+    }
+
+    /**
+     * Any stage: stops the others, which throw from their next wait.
+     */
+
+    synchronized void fail(Throwable cause) {
+        if (failure == null) {
+            failure = cause;
+        }
+        notifyAll();
+    }
+
+    private void await() throws IOException {
+        if (failure != null) {
+            throw new IOException("Error: Another stage of the pipeline failed: " + failure, failure);
+        }
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        if (failure != null) {
+            throw new IOException("Error: Another stage of the pipeline failed: " + failure, failure);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package ru.macrobit.Server;
+
+import ru.macrobit.Sequential.SequentialAES.Mode;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A blocking client of the {@link CipherServer}, one session per instance and not thread-safe.
+ * Messages are sent in frames of at most 64 KB, and the output is read back while sending, so a large
+ * message never fills the socket buffers in both directions.
+ */
+
+public class CipherClient implements Closeable {
+
+    private static final int FRAME_SIZE = 64 * 1024;
+    private static final int WINDOW = 1024 * 1024; //Bytes sent but not yet answered.
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    public CipherClient(int port) throws IOException {
+        this.socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setTcpNoDelay(true);
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    /**
+     * Sets the direction, mode and key of the messages that follow.
+     *
+     * @param mode ECB, CBC, CTR or GCM
+     */
+
+    public void setKey(boolean encrypt, Mode mode, byte[] key) throws IOException {
+        int code = Arrays.asList(Session.MODES).indexOf(mode);
+        if (code < 0) {
+            throw new IllegalArgumentException("The server does not run " + mode);
+        }
+        byte[] payload = new byte[2 + key.length];
+        payload[0] = (byte) (encrypt ? 'e' : 'd');
+        payload[1] = (byte) code;
+        System.arraycopy(key, 0, payload, 2, key.length);
+        frame(Session.KEY, payload, 0, payload.length);
+    }
+
+    /**
+     * Encrypts or decrypts one message.
+     *
+     * @param iv 16-byte IV, ignored in ECB
+     * @throws IOException with the text of the server on an error, e.g. a failed GCM authentication
+     */
+
+    public byte[] process(byte[] iv, byte[] data) throws IOException {
+        frame(Session.BEGIN, iv, 0, iv.length);
+        ByteArrayOutputStream result = new ByteArrayOutputStream(data.length + 16);
+        for (int sent = 0; sent < data.length; ) {
+            int n = Math.min(FRAME_SIZE, data.length - sent);
+            frame(Session.DATA, data, sent, n);
+            sent += n;
+            while (sent - result.size() > WINDOW && readFrame(result)) {
+                //The server answers every frame, so this waits only while it is busy.
+            }
+        }
+        frame(Session.FINISH, data, 0, 0);
+        out.flush();
+        while (readFrame(result)) {
+            //Output up to the end of the message.
+        }
+        return result.toByteArray();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    private void frame(byte type, byte[] payload, int offset, int length) throws IOException {
+        out.writeByte(type);
+        out.writeInt(length);
+        out.write(payload, offset, length);
+        if (type != Session.DATA) {
+            out.flush();
+        }
+    }
+
+    /**
+     * @return false at the end of the message
+     */
+
+    private boolean readFrame(ByteArrayOutputStream result) throws IOException {
+        out.flush();
+        byte type = in.readByte();
+        byte[] payload = new byte[in.readInt()];
+        in.readFully(payload);
+        if (type == Session.ERROR) {
+            throw new IOException(new String(payload, StandardCharsets.UTF_8));
+        }
+        result.write(payload);
+        return type != Session.FINISH;
+    }
+}
@@ -0,0 +1,209 @@
+package ru.macrobit.Server;
+
+import ru.macrobit.Engine.CipherEngine;
+import ru.macrobit.Engine.CipherEngines;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A long-running encryption service on the loopback interface, so that processes on the same host pay a
+ * round trip instead of a JVM start per request. One selector thread accepts connections and moves frames
+ * (see {@link Session}) between the sockets and the sessions; the cipher work runs on a fixed pool of workers.
+ * Every connection is a session with its own key and mode and may carry any number of messages.
+ */
+
+public class CipherServer implements Closeable {
+
+    private static final String newline = System.getProperty("line.separator");
+
+    public static final int DEFAULT_PORT = 7457;
+
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final ExecutorService workers;
+    private final CipherEngine engine;
+    private final ConcurrentLinkedQueue<Session> ready = new ConcurrentLinkedQueue<>(); //Sessions whose interest may have changed.
+    private volatile boolean running = true;
+
+    /**
+     * Binds the listening socket; {@link #run()} starts serving.
+     *
+     * @param port    port on the loopback address, 0 for any free one
+     * @param threads cipher workers
+     */
+
+    public CipherServer(int port, int threads, CipherEngine engine) throws IOException {
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        this.workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "aes-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.engine = engine;
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * args: optional arguments, in any order:
+     * -port => port on the loopback address, defaults to 7457
+     * -threads => number of cipher workers, defaults to the number of available processors
+     * -engine => "auto" (default), "table", "bitsliced", "vector" or "jce", as in ParallelAES
+     */
+
+    public static void main(String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String engineName = "auto";
+        CipherEngine engine = null;
+        try {
+            for (int i = 0; i < args.length; i += 2) {
+                if (args[i].equals("-port")) {
+                    port = Integer.parseInt(args[i + 1]);
+                } else if (args[i].equals("-threads")) {
+                    threads = Integer.parseInt(args[i + 1]);
+                } else if (args[i].equals("-engine")) {
+                    engineName = args[i + 1].toLowerCase();
+                } else {
+                    throw new Exception("Error: Unknown option " + args[i]);
+                }
+            }
+            try {
+                engine = CipherEngines.forName(engineName);
+            } catch (IllegalArgumentException e) {
+                throw new Exception("Error: " + e.getMessage());
+            }
+        } catch (Exception e) {
+            System.err.println(e.getMessage() + newline);
+            System.exit(1);
+        }
+        try (CipherServer server = new CipherServer(port, threads, engine)) {
+            System.out.println("Listening on " + InetAddress.getLoopbackAddress().getHostAddress() + ":" + server.getPort()
+                    + ", engine: " + engine.getName());
+            server.run();
+        }
+    }
+
+    /**
+     * The event loop; returns after {@link #close()}.
+     */
+
+    public void run() throws IOException {
+        while (running) {
+            selector.select();
+            Session session;
+            while ((session = ready.poll()) != null) {
+                try {
+                    session.updateInterest();
+                } catch (IOException e) {
+                    drop(session, e);
+                }
+            }
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (!key.isValid()) {
+                    continue;
+                }
+                if (key.isAcceptable()) {
+                    accept();
+                    continue;
+                }
+                session = (Session) key.attachment();
+                try {
+                    if (key.isReadable()) {
+                        session.read();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        session.write();
+                    }
+                } catch (IOException e) {
+                    drop(session, e); //The client went away; the other sessions go on.
+                }
+            }
+        }
+    }
+
+    /**
+     * A failed accept is logged and the loop goes on; it must not take the other sessions down.
+     */
+
+    private void accept() {
+        SocketChannel channel = null;
+        try {
+            channel = serverChannel.accept();
+            if (channel == null) {
+                return;
+            }
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Session session = new Session(this, channel, engine, workers);
+            session.setSelectionKey(channel.register(selector, SelectionKey.OP_READ, session));
+        } catch (IOException e) {
+            System.err.println("Error: Could not accept a connection: " + e.getMessage());
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    //Nothing more to do with a connection that never started.
+                }
+            }
+        }
+    }
+
+    /**
+     * Logs the failure of one session and closes it; the event loop goes on with the others.
+     */
+
+    private void drop(Session session, IOException e) {
+        System.err.println("Error: Connection closed: " + e.getMessage());
+        try {
+            session.close();
+        } catch (IOException ignored) {
+            //The channel is gone either way.
+        }
+    }
+
+    /**
+     * Any thread: the session has new output or is to be closed.
+     */
+
+    void ready(Session session) {
+        ready.add(session);
+        selector.wakeup();
+    }
+
+    /**
+     * Stops the event loop and closes every connection.
+     */
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        workers.shutdown();
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+    }
+}
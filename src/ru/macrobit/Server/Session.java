@@ -0,0 +1,372 @@
+package ru.macrobit.Server;
+
+import ru.macrobit.Engine.CipherEngine;
+import ru.macrobit.Engine.ExpandedKey;
+import ru.macrobit.Engine.GaloisCounterMode;
+import ru.macrobit.Engine.KeyScheduleCache;
+import ru.macrobit.Sequential.SequentialAES.Mode;
+import ru.macrobit.Stream.BlockChain;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One client connection of the {@link CipherServer}. Every frame is a type byte, a 4-byte big-endian payload
+ * length and the payload.
+ * <p>
+ * Client to server:
+ * <ul>
+ * <li>'K': direction ('e' or 'd'), mode (0 ECB, 1 CBC, 2 CTR, 3 GCM) and the 16, 24 or 32 key bytes.
+ * Applies to the messages that follow.</li>
+ * <li>'B': starts a message; the payload is the 16-byte IV (initial counter in CTR, 12-byte IV in GCM),
+ * empty in ECB.</li>
+ * <li>'D': the next part of the message.</li>
+ * <li>'F': ends the message.</li>
+ * </ul>
+ * Server to client: 'D' frames with the output as it is produced and an empty 'F' frame at the end of every
+ * message, or an 'E' frame with an error text, after which the connection is closed. The output is that of
+ * SequentialAES: ECB and CBC pad the last block with spaces, GCM encryption appends the tag and GCM decryption
+ * takes the last 16 bytes of the message as the tag. A GCM decryption that fails ends with 'E' instead of 'F',
+ * and the output sent before must be discarded.
+ * <p>
+ * The selector thread reads and parses frames and writes the output; the frames of a session are enciphered
+ * one after another on the worker pool, while other sessions run on other workers.
+ */
+
+final class Session {
+
+    static final byte KEY = 'K';
+    static final byte BEGIN = 'B';
+    static final byte DATA = 'D';
+    static final byte FINISH = 'F';
+    static final byte ERROR = 'E';
+    static final int HEADER_LENGTH = 5;
+    static final int MAX_PAYLOAD = 1024 * 1024;
+    static final Mode[] MODES = {Mode.ECB, Mode.CBC, Mode.CTR, Mode.GCM};
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final long BACKLOG_LIMIT = 4 * MAX_PAYLOAD; //Bytes queued for the workers or the client before reading stops.
+    private static final byte[] CLOSE = new byte[0]; //Inbox marker: the client has shut down its output.
+    private static final byte[] OVERSIZED = new byte[0]; //Inbox marker: the client sent a frame over MAX_PAYLOAD.
+    private static final int SPARE_FRAMES = 2; //Written output frames kept for reuse, enough for 'D' and 'F'.
+
+    private final CipherServer server;
+    private final SocketChannel channel;
+    private final CipherEngine engine;
+    private final Executor workers;
+    private SelectionKey selectionKey;
+    private ByteBuffer input = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private boolean endOfInput;
+
+    private final ArrayDeque<byte[]> inbox = new ArrayDeque<>(); //Frames, type byte first; guarded by itself.
+    private boolean draining;
+    private final ConcurrentLinkedQueue<ByteBuffer> outbox = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<ByteBuffer> spare = new ConcurrentLinkedQueue<>(); //Written frames for send() to fill again.
+    private final AtomicInteger spareCount = new AtomicInteger();
+    private final AtomicLong backlog = new AtomicLong();
+    private volatile boolean closeWhenFlushed;
+
+    //Cipher state, used only by the worker that drains the inbox.
+    private ExpandedKey expandedKey;
+    private Mode mode;
+    private boolean encrypt;
+    private BlockChain blockChain;
+    private final byte[] pending = new byte[32 + GaloisCounterMode.TAG_LENGTH]; //Partial block and held back tag; room for padding and the tag in finish().
+    private int pendingLength;
+    private boolean failed;
+
+    Session(CipherServer server, SocketChannel channel, CipherEngine engine, Executor workers) {
+        this.server = server;
+        this.channel = channel;
+        this.engine = engine;
+        this.workers = workers;
+    }
+
+    void setSelectionKey(SelectionKey selectionKey) {
+        this.selectionKey = selectionKey;
+    }
+
+    /**
+     * Selector thread: reads what the socket has and queues the complete frames.
+     */
+
+    void read() throws IOException {
+        int n = channel.read(input);
+        input.flip();
+        while (input.remaining() >= HEADER_LENGTH) {
+            int length = input.getInt(input.position() + 1);
+            if (length < 0 || length > MAX_PAYLOAD) {
+                input.clear();
+                endOfInput = true; //Nothing after the bad frame can be parsed.
+                submit(OVERSIZED); //The worker fails the session, in order after the frames before.
+                updateInterest();
+                return;
+            }
+            if (input.remaining() < HEADER_LENGTH + length) {
+                if (input.capacity() < HEADER_LENGTH + length) {
+                    input = ByteBuffer.allocate(HEADER_LENGTH + length).put(input);
+                    return;
+                }
+                break;
+            }
+            byte[] frame = new byte[1 + length];
+            frame[0] = input.get();
+            input.getInt();
+            input.get(frame, 1, length);
+            submit(frame);
+        }
+        input.compact();
+        if (input.capacity() > READ_BUFFER_SIZE && input.position() <= READ_BUFFER_SIZE) {
+            input = ByteBuffer.allocate(READ_BUFFER_SIZE).put(input.flip()); //Grown for one large frame, not for good.
+        }
+        if (n < 0) {
+            endOfInput = true;
+            submit(CLOSE);
+        }
+        updateInterest();
+    }
+
+    /**
+     * Selector thread: writes queued output until the socket would block.
+     */
+
+    void write() throws IOException {
+        ByteBuffer buffer;
+        while ((buffer = outbox.peek()) != null) {
+            channel.write(buffer);
+            if (buffer.hasRemaining()) {
+                break;
+            }
+            outbox.poll();
+            backlog.addAndGet(-buffer.limit());
+            if (spareCount.incrementAndGet() <= SPARE_FRAMES) {
+                spare.add(buffer);
+            } else {
+                spareCount.decrementAndGet();
+            }
+        }
+        updateInterest();
+    }
+
+    /**
+     * Selector thread: reads while the backlog is small, writes while there is output, and closes the
+     * connection once an error or the end of the input has been flushed.
+     */
+
+    void updateInterest() throws IOException {
+        if (!selectionKey.isValid()) {
+            return;
+        }
+        if (closeWhenFlushed && outbox.isEmpty()) {
+            close();
+            return;
+        }
+        int ops = outbox.isEmpty() ? 0 : SelectionKey.OP_WRITE;
+        if (!endOfInput && !closeWhenFlushed && backlog.get() < BACKLOG_LIMIT) {
+            ops |= SelectionKey.OP_READ;
+        }
+        selectionKey.interestOps(ops);
+    }
+
+    void close() throws IOException {
+        selectionKey.cancel();
+        channel.close();
+    }
+
+    private void submit(byte[] frame) {
+        backlog.addAndGet(frame.length);
+        synchronized (inbox) {
+            inbox.add(frame);
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+        workers.execute(this::drain);
+    }
+
+    /**
+     * Worker: handles the queued frames of this session in order.
+     */
+
+    private void drain() {
+        while (true) {
+            byte[] frame;
+            synchronized (inbox) {
+                frame = inbox.poll();
+                if (frame == null) {
+                    draining = false;
+                    return;
+                }
+            }
+            backlog.addAndGet(-frame.length);
+            if (frame == CLOSE) {
+                closeWhenFlushed = true;
+                server.ready(this);
+            } else if (failed) {
+                //Everything after an error is dropped.
+            } else if (frame == OVERSIZED) {
+                fail("Error: A frame may hold at most " + MAX_PAYLOAD + " bytes.");
+            } else {
+                try {
+                    handle(frame);
+                } catch (RuntimeException e) {
+                    fail("Error: " + e);
+                }
+            }
+        }
+    }
+
+    private void handle(byte[] frame) {
+        switch (frame[0]) {
+            case KEY:
+                setKey(frame);
+                break;
+            case BEGIN:
+                begin(frame);
+                break;
+            case DATA:
+                data(frame);
+                break;
+            case FINISH:
+                finish();
+                break;
+            default:
+                fail("Error: Unknown frame type " + (frame[0] & 0xFF) + ".");
+        }
+    }
+
+    private void setKey(byte[] frame) {
+        int keyLength = frame.length - 3;
+        if (frame.length < 3 || (frame[1] != 'e' && frame[1] != 'd') || frame[2] < 0 || frame[2] >= MODES.length
+                || (keyLength != 16 && keyLength != 24 && keyLength != 32)) {
+            fail("Error: A key frame holds the direction, the mode and a 16, 24 or 32 byte key.");
+            return;
+        }
+        encrypt = frame[1] == 'e';
+        mode = MODES[frame[2]];
+        expandedKey = KeyScheduleCache.shared().get(Arrays.copyOfRange(frame, 3, frame.length));
+        blockChain = null;
+    }
+
+    private void begin(byte[] frame) {
+        if (expandedKey == null) {
+            fail("Error: A message was begun before the key was set.");
+            return;
+        }
+        if (mode != Mode.ECB && frame.length != 17) {
+            fail("Error: " + mode + " needs a 16-byte IV.");
+            return;
+        }
+        blockChain = new BlockChain(expandedKey, mode, mode == Mode.ECB ? new byte[16] : Arrays.copyOfRange(frame, 1, 17), encrypt, engine);
+        pendingLength = 0;
+    }
+
+    /**
+     * Processes all whole blocks and keeps a partial block back for the next frame, in GCM decryption
+     * also the last 16 bytes, which may be the tag. The blocks are enciphered in place in the output frame,
+     * so only the few bytes kept back are copied to {@link #pending}.
+     */
+
+    private void data(byte[] frame) {
+        if (blockChain == null) {
+            fail("Error: Data was sent outside a message.");
+            return;
+        }
+        int payload = frame.length - 1;
+        int hold = mode == Mode.GCM && !encrypt ? GaloisCounterMode.TAG_LENGTH : 0;
+        int length = Math.max(0, pendingLength + payload - hold) & ~15;
+        if (length == 0) {
+            System.arraycopy(frame, 1, pending, pendingLength, payload);
+            pendingLength += payload;
+            return;
+        }
+        int fromPending = Math.min(pendingLength, length);
+        int fromFrame = length - fromPending;
+        ByteBuffer out = frame(DATA, length);
+        out.put(pending, 0, fromPending).put(frame, 1, fromFrame).flip().position(HEADER_LENGTH);
+        int kept = pendingLength - fromPending;
+        System.arraycopy(pending, fromPending, pending, 0, kept);
+        System.arraycopy(frame, 1 + fromFrame, pending, kept, payload - fromFrame);
+        pendingLength = kept + payload - fromFrame;
+        blockChain.process(out);
+        queue(out.rewind());
+    }
+
+    private void finish() {
+        if (blockChain == null) {
+            fail("Error: A message was finished before it was begun.");
+            return;
+        }
+        int length = pendingLength;
+        byte[] tag = null;
+        if (mode == Mode.GCM && !encrypt) {
+            if (length < GaloisCounterMode.TAG_LENGTH) {
+                fail("Error: The message is shorter than the GCM tag.");
+                return;
+            }
+            length -= GaloisCounterMode.TAG_LENGTH;
+            tag = Arrays.copyOfRange(pending, length, pendingLength);
+        }
+        int out = length == 0 ? 0 : blockChain.finish(pending, 0, length);
+        if (mode == Mode.GCM && encrypt) {
+            System.arraycopy(blockChain.tag(), 0, pending, out, GaloisCounterMode.TAG_LENGTH);
+            out += GaloisCounterMode.TAG_LENGTH;
+        }
+        if (tag != null && !MessageDigest.isEqual(tag, blockChain.tag())) {
+            fail("Error: GCM authentication failed, the message is corrupt or the key is wrong.");
+            return;
+        }
+        if (out != 0) {
+            send(DATA, pending, 0, out);
+        }
+        send(FINISH, pending, 0, 0);
+        blockChain = null;
+        pendingLength = 0;
+    }
+
+    private void fail(String message) {
+        failed = true;
+        byte[] text = message.getBytes(StandardCharsets.UTF_8);
+        send(ERROR, text, 0, text.length);
+        closeWhenFlushed = true;
+        server.ready(this);
+    }
+
+    private void send(byte type, byte[] payload, int offset, int length) {
+        queue(frame(type, length).put(payload, offset, length).flip());
+    }
+
+    /**
+     * An output frame with its header written and room for {@code length} payload bytes: a written one
+     * taken back from the selector thread where it is large enough, a new one otherwise.
+     */
+
+    private ByteBuffer frame(byte type, int length) {
+        ByteBuffer frame = spare.poll();
+        if (frame != null) {
+            spareCount.decrementAndGet();
+        }
+        if (frame == null || frame.capacity() < HEADER_LENGTH + length) {
+            frame = ByteBuffer.allocate(HEADER_LENGTH + length);
+        }
+        frame.clear();
+        return frame.put(type).putInt(length);
+    }
+
+    private void queue(ByteBuffer frame) {
+        backlog.addAndGet(frame.limit());
+        outbox.add(frame);
+        server.ready(this);
+    }
+}
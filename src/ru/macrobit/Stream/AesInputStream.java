@@ -0,0 +1,159 @@
+package ru.macrobit.Stream;
+
+import ru.macrobit.Engine.ExpandedKey;
+import ru.macrobit.Engine.GaloisCounterMode;
+import ru.macrobit.Sequential.SequentialAES.Mode;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Encrypts or decrypts the underlying stream as it is read, one fixed-size buffer at a time.
+ * In ECB and CBC a partial block at the end of the underlying stream is padded with spaces.
+ * In GCM encryption appends the tag; decryption takes the last 16 bytes of the underlying stream as the tag
+ * and throws an IOException at the end of the stream if it does not match. Everything read before that is
+ * unauthenticated.
+ */
+
+public class AesInputStream extends FilterInputStream {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final BlockChain blockChain;
+    private final byte[] buffer;
+    private final boolean gcm;
+    private final boolean encrypt;
+    private int position;
+    private int limit;
+    private int held; //GCM decryption: bytes after limit kept back, as they may be the tag.
+    private boolean eof;
+
+    public AesInputStream(InputStream in, ExpandedKey key, Mode mode, byte[] iv, boolean encrypt) {
+        this(in, key, mode, iv, encrypt, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param in         source of the data to process
+     * @param key        expanded AES key
+     * @param mode       ECB, CBC, CTR or GCM
+     * @param iv         16-byte initialization vector (initial counter in CTR, 12-byte IV in GCM), unused in ECB
+     * @param encrypt    true to encrypt, false to decrypt
+     * @param bufferSize internal buffer size, rounded down to a whole number of blocks
+     */
+
+    public AesInputStream(InputStream in, ExpandedKey key, Mode mode, byte[] iv, boolean encrypt, int bufferSize) {
+        super(in);
+        this.blockChain = new BlockChain(key, mode, iv, encrypt);
+        this.gcm = mode == Mode.GCM;
+        this.encrypt = encrypt;
+        this.buffer = new byte[BlockChain.blockAlign(bufferSize) + (gcm ? GaloisCounterMode.TAG_LENGTH : 0)];
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        int n = Math.min(len, limit - position);
+        System.arraycopy(buffer, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && (position < limit || fill())) {
+            int step = (int) Math.min(n - skipped, limit - position);
+            position += step;
+            skipped += step;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return limit - position;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Reads until at least one whole block is available (or the stream ends) and processes it.
+     *
+     * @return false when there is nothing left to return
+     */
+
+    private boolean fill() throws IOException {
+        int n = held;
+        System.arraycopy(buffer, limit, buffer, 0, held);
+        held = 0;
+        position = 0;
+        limit = 0;
+        if (eof) {
+            return false;
+        }
+        int tagLength = gcm ? GaloisCounterMode.TAG_LENGTH : 0;
+        int capacity = gcm && encrypt ? buffer.length - tagLength : buffer.length; //Room for the tag.
+        while (n < capacity) {
+            int r = in.read(buffer, n, capacity - n);
+            if (r < 0) {
+                eof = true;
+                break;
+            }
+            n += r;
+            if (n % 16 == 0 && n > (gcm && !encrypt ? tagLength : 0)) {
+                break;
+            }
+        }
+        if (gcm && !encrypt) {
+            if (!eof) {
+                held = tagLength;
+                n -= tagLength;
+                blockChain.process(buffer, 0, n / 16);
+                limit = n;
+                return true;
+            }
+            if (n < tagLength) {
+                throw new IOException("Error: The input is shorter than the GCM tag.");
+            }
+            byte[] tag = Arrays.copyOfRange(buffer, n - tagLength, n);
+            n = finish(n - tagLength);
+            if (!blockChain.verify(tag)) {
+                throw new IOException("Error: GCM authentication failed, the input is corrupt or the key is wrong.");
+            }
+        } else if (gcm && eof) {
+            n = finish(n);
+            System.arraycopy(blockChain.tag(), 0, buffer, n, tagLength);
+            n += tagLength;
+        } else if (eof && n % 16 != 0) {
+            n = finish(n);
+        } else {
+            blockChain.process(buffer, 0, n / 16);
+        }
+        limit = n;
+        return n > 0;
+    }
+
+    private int finish(int n) {
+        int blocks = n / 16;
+        blockChain.process(buffer, 0, blocks);
+        return blocks * 16 + blockChain.finish(buffer, blocks * 16, n - blocks * 16);
+    }
+}
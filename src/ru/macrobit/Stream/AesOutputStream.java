@@ -0,0 +1,128 @@
+package ru.macrobit.Stream;
+
+import ru.macrobit.Engine.ExpandedKey;
+import ru.macrobit.Engine.GaloisCounterMode;
+import ru.macrobit.Sequential.SequentialAES.Mode;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Encrypts or decrypts everything written to it and passes the result to the underlying stream.
+ * Data is processed through a fixed-size buffer, so memory use does not depend on the length of the data.
+ * In ECB and CBC the last partial block is padded with spaces on close(); CTR output has the length of the input.
+ * In GCM encryption writes the tag on close(); decryption keeps the last 16 bytes written back as the tag
+ * and close() throws an IOException if it does not match.
+ */
+
+public class AesOutputStream extends FilterOutputStream {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final BlockChain blockChain;
+    private final byte[] buffer;
+    private final boolean gcm;
+    private final boolean encrypt;
+    private final int held; //GCM decryption: the last bytes written may be the tag, so they stay buffered.
+    private int count;
+    private boolean closed;
+
+    public AesOutputStream(OutputStream out, ExpandedKey key, Mode mode, byte[] iv, boolean encrypt) {
+        this(out, key, mode, iv, encrypt, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param out        destination of the processed data
+     * @param key        expanded AES key
+     * @param mode       ECB, CBC, CTR or GCM
+     * @param iv         16-byte initialization vector (initial counter in CTR, 12-byte IV in GCM), unused in ECB
+     * @param encrypt    true to encrypt, false to decrypt
+     * @param bufferSize internal buffer size, rounded down to a whole number of blocks
+     */
+
+    public AesOutputStream(OutputStream out, ExpandedKey key, Mode mode, byte[] iv, boolean encrypt, int bufferSize) {
+        super(out);
+        this.blockChain = new BlockChain(key, mode, iv, encrypt);
+        this.gcm = mode == Mode.GCM;
+        this.encrypt = encrypt;
+        this.held = gcm && !encrypt ? GaloisCounterMode.TAG_LENGTH : 0;
+        this.buffer = new byte[BlockChain.blockAlign(bufferSize) + held];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        buffer[count++] = (byte) b;
+        if (count == buffer.length) {
+            drain();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+            if (count == buffer.length) {
+                drain();
+            }
+        }
+    }
+
+    /**
+     * Writes out every whole block buffered so far. A trailing partial block stays buffered.
+     */
+
+    @Override
+    public void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            drain();
+            byte[] tag = null;
+            if (held != 0) {
+                if (count < held) {
+                    throw new IOException("Error: The input is shorter than the GCM tag.");
+                }
+                count -= held;
+                tag = Arrays.copyOfRange(buffer, count, count + held);
+            }
+            if (count != 0) {
+                out.write(buffer, 0, blockChain.finish(buffer, 0, count));
+                count = 0;
+            }
+            if (gcm && encrypt) {
+                out.write(blockChain.tag());
+            } else if (gcm && !blockChain.verify(tag)) {
+                throw new IOException("Error: GCM authentication failed, the input is corrupt or the key is wrong.");
+            }
+            out.flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void drain() throws IOException {
+        int blocks = Math.max(0, count - held) / 16;
+        if (blocks == 0) {
+            return;
+        }
+        blockChain.process(buffer, 0, blocks);
+        out.write(buffer, 0, blocks * 16);
+        int left = count - blocks * 16;
+        System.arraycopy(buffer, blocks * 16, buffer, 0, left);
+        count = left;
+    }
+}
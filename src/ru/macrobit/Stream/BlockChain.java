@@ -0,0 +1,271 @@
+package ru.macrobit.Stream;
+
+import ru.macrobit.Engine.CipherEngine;
+import ru.macrobit.Engine.CipherEngines;
+import ru.macrobit.Engine.CounterMode;
+import ru.macrobit.Engine.ExpandedKey;
+import ru.macrobit.Engine.GaloisCounterMode;
+import ru.macrobit.Sequential.SequentialAES.Mode;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+
+/**
+ * Applies the block cipher in the requested mode to consecutive whole blocks,
+ * carrying the CBC chaining value or the CTR stream position from one call to the next.
+ * GCM runs CTR from the GCM counter and hashes the ciphertext for {@link #tag()}.
+ * The ByteBuffer variants work on heap and direct buffers alike, between position and limit; direct
+ * buffers are enciphered where they are, without a copy on the heap.
+ * Not thread-safe, but calls may come from different threads one after another.
+ */
+
+public final class BlockChain {
+
+    private static final int spaceCode = 32;
+
+    private static final SecureRandom random = new SecureRandom();
+
+    private final ExpandedKey key;
+    private final CipherEngine engine;
+    private final Mode mode;
+    private final byte[] chain = new byte[16];
+    private final boolean encrypt;
+    private final CounterMode counterMode;
+    private final GaloisCounterMode gcm;
+    private long position;
+
+    /**
+     * Bytes of the random nonce a CTR or GCM ciphertext starts with: the 16-byte initial counter or the 12-byte
+     * GCM IV; 0 for the other modes. A nonce must never repeat under one key, so it is drawn anew for every
+     * message and never derived from the key.
+     */
+
+    public static int nonceLength(Mode mode) {
+        return mode == Mode.CTR ? 16 : mode == Mode.GCM ? GaloisCounterMode.IV_LENGTH : 0;
+    }
+
+    /**
+     * A fresh random nonce of {@link #nonceLength} bytes, in a 16-byte array as the constructor takes it.
+     */
+
+    public static byte[] newNonce(Mode mode) {
+        byte[] nonce = new byte[16];
+        byte[] bytes = new byte[nonceLength(mode)];
+        random.nextBytes(bytes);
+        System.arraycopy(bytes, 0, nonce, 0, bytes.length);
+        return nonce;
+    }
+
+    public BlockChain(ExpandedKey key, Mode mode, byte[] iv, boolean encrypt) {
+        this(key, mode, iv, encrypt, CipherEngines.TABLE);
+    }
+
+    /**
+     * @param engine engine for ECB, CTR and GCM; CBC always runs on the tables
+     */
+
+    public BlockChain(ExpandedKey key, Mode mode, byte[] iv, boolean encrypt, CipherEngine engine) {
+        if (mode == Mode.XTS) {
+            throw new IllegalArgumentException("XTS works on whole sectors, use XtsMode");
+        }
+        this.key = key;
+        this.engine = engine;
+        this.mode = mode;
+        this.encrypt = encrypt;
+        if (mode == Mode.CBC) {
+            System.arraycopy(iv, 0, chain, 0, 16);
+        }
+        this.gcm = mode == Mode.GCM ? new GaloisCounterMode(key, iv) : null;
+        if (mode == Mode.CTR) {
+            this.counterMode = new CounterMode(key, iv, engine);
+        } else if (mode == Mode.GCM) {
+            this.counterMode = new CounterMode(key, gcm.counter(), engine);
+        } else {
+            this.counterMode = null;
+        }
+    }
+
+    public void process(byte[] buffer, int offset, int blocks) {
+        if (mode == Mode.CTR || mode == Mode.GCM) {
+            stream(buffer, offset, blocks * 16);
+        } else if (mode == Mode.CBC) {
+            if (encrypt) {
+                key.encryptBlocksCbc(chain, buffer, offset, buffer, offset, blocks);
+            } else {
+                key.decryptBlocksCbc(chain, buffer, offset, buffer, offset, blocks);
+            }
+        } else if (encrypt) {
+            engine.encryptBlocks(key, buffer, offset, buffer, offset, blocks);
+        } else {
+            engine.decryptBlocks(key, buffer, offset, buffer, offset, blocks);
+        }
+    }
+
+    /**
+     * Processes the final, possibly partial block at {@code offset}. CTR and GCM output keeps the exact length;
+     * the block modes fill the tail with spaces, as the file based tools always did.
+     *
+     * @return the number of bytes to emit
+     */
+
+    public int finish(byte[] buffer, int offset, int length) {
+        if (mode == Mode.CTR || mode == Mode.GCM) {
+            stream(buffer, offset, length);
+            return length;
+        }
+        int padded = (length + 15) & ~15;
+        for (int i = length; i < padded; i++) {
+            buffer[offset + i] = spaceCode;
+        }
+        process(buffer, offset, padded / 16);
+        return padded;
+    }
+
+    /**
+     * Processes the whole blocks between the position and the limit of {@code buffer} in place and
+     * advances the position past them. A trailing partial block is left for the next call or {@link #finish(ByteBuffer)}.
+     *
+     * @return the number of bytes processed
+     */
+
+    public int process(ByteBuffer buffer) {
+        int length = buffer.remaining() & ~15;
+        process(buffer, buffer.position(), buffer, buffer.position(), length);
+        buffer.position(buffer.position() + length);
+        return length;
+    }
+
+    /**
+     * Processes the whole blocks remaining in {@code src} into {@code dst}, advancing both positions.
+     * The buffers may be the same one; other overlaps are not supported.
+     *
+     * @return the number of bytes processed
+     * @throws BufferOverflowException if {@code dst} has less room than that, in which case nothing is processed
+     */
+
+    public int process(ByteBuffer src, ByteBuffer dst) {
+        if (src == dst) {
+            return process(src);
+        }
+        int length = src.remaining() & ~15;
+        if (dst.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+        process(src, src.position(), dst, dst.position(), length);
+        src.position(src.position() + length);
+        dst.position(dst.position() + length);
+        return length;
+    }
+
+    /**
+     * Processes everything between the position and the limit of {@code buffer} in place, as the last part of
+     * the data. A partial block of ECB or CBC is padded with spaces, so the limit may move up to 15 bytes
+     * further; it must fit in the capacity.
+     *
+     * @return the number of bytes written
+     */
+
+    public int finish(ByteBuffer buffer) {
+        ByteBuffer src = buffer.duplicate();
+        int start = buffer.position();
+        buffer.limit(buffer.capacity());
+        int written = finish(src, buffer);
+        buffer.limit(start + written);
+        return written;
+    }
+
+    /**
+     * Processes everything remaining in {@code src} into {@code dst} as the last part of the data and
+     * advances both positions. A partial block of ECB or CBC is padded with spaces, so {@code dst} may
+     * need 15 bytes more than {@code src} holds.
+     *
+     * @return the number of bytes written
+     * @throws BufferOverflowException if {@code dst} is too small, in which case nothing is processed
+     */
+
+    public int finish(ByteBuffer src, ByteBuffer dst) {
+        if (src == dst) {
+            return finish(src);
+        }
+        int length = src.remaining();
+        boolean stream = mode == Mode.CTR || mode == Mode.GCM;
+        int whole = stream ? length : length & ~15;
+        int left = length - whole;
+        if (dst.remaining() < (left == 0 ? whole : whole + 16)) {
+            throw new BufferOverflowException();
+        }
+        process(src, src.position(), dst, dst.position(), whole);
+        src.position(src.position() + whole);
+        dst.position(dst.position() + whole);
+        if (left != 0) {
+            byte[] last = new byte[16];
+            src.get(last, 0, left);
+            finish(last, 0, left);
+            dst.put(last);
+            return whole + 16;
+        }
+        return whole;
+    }
+
+    /**
+     * GCM only: the tag of the ciphertext processed so far, to be called once the last bytes went through
+     * {@link #finish}.
+     */
+
+    public byte[] tag() {
+        return gcm.tag(position);
+    }
+
+    /**
+     * GCM only: compares the expected tag with {@link #tag()} in constant time.
+     */
+
+    public boolean verify(byte[] tag) {
+        return gcm.verify(tag, position);
+    }
+
+    private void process(ByteBuffer in, int inOff, ByteBuffer out, int outOff, int length) {
+        if (mode == Mode.CTR || mode == Mode.GCM) {
+            if (gcm != null) {
+                GaloisCounterMode.checkLength(position + length);
+            }
+            if (gcm != null && !encrypt) {
+                gcm.ghash().update(in, inOff, length);
+            }
+            counterMode.process(position, in, inOff, out, outOff, length);
+            if (gcm != null && encrypt) {
+                gcm.ghash().update(out, outOff, length);
+            }
+            position += length;
+        } else if (mode == Mode.CBC) {
+            if (encrypt) {
+                key.encryptBlocksCbc(chain, in, inOff, out, outOff, length / 16);
+            } else {
+                key.decryptBlocksCbc(chain, in, inOff, out, outOff, length / 16);
+            }
+        } else if (encrypt) {
+            engine.encryptBlocks(key, in, inOff, out, outOff, length / 16);
+        } else {
+            engine.decryptBlocks(key, in, inOff, out, outOff, length / 16);
+        }
+    }
+
+    private void stream(byte[] buffer, int offset, int length) {
+        if (gcm != null) {
+            GaloisCounterMode.checkLength(position + length); //Before the counter wraps, not at the tag.
+        }
+        if (gcm != null && !encrypt) {
+            gcm.ghash().update(buffer, offset, length);
+        }
+        counterMode.process(position, buffer, offset, buffer, offset, length);
+        if (gcm != null && encrypt) {
+            gcm.ghash().update(buffer, offset, length);
+        }
+        position += length;
+    }
+
+    static int blockAlign(int bufferSize) {
+        return Math.max(16, bufferSize & ~15);
+    }
+}
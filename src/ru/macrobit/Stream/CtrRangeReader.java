@@ -0,0 +1,78 @@
+package ru.macrobit.Stream;
+
+import ru.macrobit.Engine.CounterMode;
+import ru.macrobit.Engine.ExpandedKey;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Random access to a CTR encrypted file: decrypts any byte range by reading only that range.
+ * Positions are offsets in the plaintext; a file written by the tools starts with its initial counter.
+ */
+
+public class CtrRangeReader {
+
+    private final FileChannel channel;
+    private final CounterMode counterMode;
+    private final long start; //File offset of the first ciphertext byte.
+
+    /**
+     * A file as SequentialAES and ParallelAES write it in CTR mode: the 16-byte initial counter, then the
+     * ciphertext.
+     *
+     * @param channel the encrypted file, opened for reading
+     * @param key     expanded AES key
+     */
+
+    public CtrRangeReader(FileChannel channel, ExpandedKey key) throws IOException {
+        byte[] nonce = new byte[16];
+        ByteBuffer buffer = ByteBuffer.wrap(nonce);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) {
+                throw new EOFException("Error: The file is shorter than its initial counter");
+            }
+        }
+        this.channel = channel;
+        this.counterMode = new CounterMode(key, nonce);
+        this.start = nonce.length;
+    }
+
+    /**
+     * Bare ciphertext, with the initial counter kept elsewhere.
+     *
+     * @param channel the encrypted file, opened for reading
+     * @param key     expanded AES key
+     * @param iv      16-byte initial counter the file was encrypted with
+     */
+
+    public CtrRangeReader(FileChannel channel, ExpandedKey key, byte[] iv) {
+        this.channel = channel;
+        this.counterMode = new CounterMode(key, iv);
+        this.start = 0;
+    }
+
+    /**
+     * Decrypts {@code length} bytes starting at plaintext offset {@code position} into {@code dst}.
+     *
+     * @throws EOFException if the range runs past the end of the file
+     */
+
+    public void read(long position, byte[] dst, int dstOff, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(dst, dstOff, length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + position + buffer.position() - dstOff) < 0) {
+                throw new EOFException("Error: Range ends past the end of the file");
+            }
+        }
+        counterMode.process(position, dst, dstOff, dst, dstOff, length);
+    }
+
+    public byte[] read(long position, int length) throws IOException {
+        byte[] dst = new byte[length];
+        read(position, dst, 0, length);
+        return dst;
+    }
+}
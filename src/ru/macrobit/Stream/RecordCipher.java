@@ -0,0 +1,435 @@
+package ru.macrobit.Stream;
+
+import ru.macrobit.Engine.CipherEngine;
+import ru.macrobit.Engine.CounterMode;
+import ru.macrobit.Engine.ExpandedKey;
+import ru.macrobit.Engine.GaloisCounterMode;
+import ru.macrobit.Engine.Ghash;
+import ru.macrobit.Sequential.SequentialAES.Mode;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Encrypts or decrypts many short records under one key, each record a message of its own with its own IV
+ * or initial counter, e.g. the 32 to 512 byte rows of a database. The key schedule, the GHASH tables and the
+ * scratch buffers are set up once per batch instead of once per record.
+ * <p>
+ * In CTR and GCM the counter blocks of consecutive records are gathered and enciphered with one engine call,
+ * so an engine that works on many blocks per pass, like the bitsliced one, is kept busy even by records of
+ * two blocks. ECB records are gathered the same way; CBC runs record by record on the tables.
+ * <p>
+ * The records are given either packed in one array with an offsets array, or as a list of arrays that are
+ * enciphered in place. Records of ECB and CBC must be whole blocks; the other modes take any length. IVs
+ * take 16 bytes per record (a GCM IV the first 12 of them) and GCM tags 16 bytes per record, both packed
+ * in record order. An instance is immutable and can be shared by threads.
+ */
+
+public final class RecordCipher {
+
+    private static final int GROUP_BLOCKS = 256; //Counter blocks enciphered per engine call.
+    private static final int TASK_BYTES = 64 * 1024; //Records per task on the pool, in bytes.
+
+    private final ExpandedKey key;
+    private final Mode mode;
+    private final boolean encrypt;
+    private final CipherEngine engine;
+    private final ForkJoinPool pool;
+    private final GaloisCounterMode gcm;
+
+    /**
+     * @param engine engine for ECB, CTR and GCM; CBC always runs on the tables
+     */
+
+    public RecordCipher(ExpandedKey key, Mode mode, boolean encrypt, CipherEngine engine) {
+        this(key, mode, encrypt, engine, null);
+    }
+
+    /**
+     * @param pool batches of more than 64 KB are split between its workers; null runs every batch on the
+     *             calling thread
+     */
+
+    public RecordCipher(ExpandedKey key, Mode mode, boolean encrypt, CipherEngine engine, ForkJoinPool pool) {
+        if (mode == Mode.XTS) {
+            throw new IllegalArgumentException("Error: XTS works on whole sectors, use XtsMode");
+        }
+        this.key = key;
+        this.mode = mode;
+        this.encrypt = encrypt;
+        this.engine = engine;
+        this.pool = pool;
+        this.gcm = mode == Mode.GCM ? new GaloisCounterMode(key, new byte[16]) : null; //Only for its GHASH tables.
+    }
+
+    /**
+     * Record i is {@code in[offsets[i]] .. in[offsets[i + 1] - 1]}; its output goes to the same range of
+     * {@code out}, which may be {@code in}.
+     *
+     * @param offsets n + 1 ascending offsets for n records
+     * @param ivs     16 bytes per record; null in ECB
+     * @param tags    GCM: 16 bytes per record, written on encryption and checked on decryption; null otherwise
+     * @return the records whose GCM tag did not match; their output is zeroed. Empty in the other modes.
+     */
+
+    public BitSet process(byte[] in, byte[] out, int[] offsets, byte[] ivs, byte[] tags) {
+        int count = offsets.length - 1;
+        for (int i = 0; i < count; i++) {
+            if (offsets[i] < 0 || offsets[i] > offsets[i + 1] || offsets[i + 1] > in.length || offsets[i + 1] > out.length) {
+                throw new IllegalArgumentException("Error: Record " + i + " is not within the buffers.");
+            }
+        }
+        return run(new Packed(in, out, offsets), count, ivs, tags);
+    }
+
+    /**
+     * Enciphers every record of the list in place.
+     *
+     * @param ivs  16 bytes per record; null in ECB
+     * @param tags GCM: 16 bytes per record, written on encryption and checked on decryption; null otherwise
+     * @return the records whose GCM tag did not match; they are zeroed. Empty in the other modes.
+     */
+
+    public BitSet process(List<byte[]> records, byte[] ivs, byte[] tags) {
+        return run(new Listed(records), records.size(), ivs, tags);
+    }
+
+    /**
+     * Where the records are: input and output array and offset of each, and the running byte count in
+     * front of it, which is what the batch is split by.
+     */
+
+    private interface Records {
+
+        byte[] input(int i);
+
+        int inputOffset(int i);
+
+        byte[] output(int i);
+
+        int outputOffset(int i);
+
+        int length(int i);
+
+        long start(int i);
+    }
+
+    private static final class Packed implements Records {
+        private final byte[] in;
+        private final byte[] out;
+        private final int[] offsets;
+
+        Packed(byte[] in, byte[] out, int[] offsets) {
+            this.in = in;
+            this.out = out;
+            this.offsets = offsets;
+        }
+
+        public byte[] input(int i) {
+            return in;
+        }
+
+        public int inputOffset(int i) {
+            return offsets[i];
+        }
+
+        public byte[] output(int i) {
+            return out;
+        }
+
+        public int outputOffset(int i) {
+            return offsets[i];
+        }
+
+        public int length(int i) {
+            return offsets[i + 1] - offsets[i];
+        }
+
+        public long start(int i) {
+            return offsets[i] - offsets[0];
+        }
+    }
+
+    private static final class Listed implements Records {
+        private final List<byte[]> records;
+        private final long[] starts;
+
+        Listed(List<byte[]> records) {
+            this.records = records;
+            this.starts = new long[records.size() + 1];
+            for (int i = 0; i < records.size(); i++) {
+                starts[i + 1] = starts[i] + records.get(i).length;
+            }
+        }
+
+        public byte[] input(int i) {
+            return records.get(i);
+        }
+
+        public int inputOffset(int i) {
+            return 0;
+        }
+
+        public byte[] output(int i) {
+            return records.get(i);
+        }
+
+        public int outputOffset(int i) {
+            return 0;
+        }
+
+        public int length(int i) {
+            return records.get(i).length;
+        }
+
+        public long start(int i) {
+            return starts[i];
+        }
+    }
+
+    private BitSet run(Records records, int count, byte[] ivs, byte[] tags) {
+        if (mode != Mode.ECB && (ivs == null || ivs.length < 16L * count)) {
+            throw new IllegalArgumentException("Error: " + mode + " needs a 16-byte IV per record.");
+        }
+        if (mode == Mode.GCM && (tags == null || tags.length < 16L * count)) {
+            throw new IllegalArgumentException("Error: GCM needs 16 bytes per record for the tags.");
+        }
+        if (mode == Mode.ECB || mode == Mode.CBC) {
+            for (int i = 0; i < count; i++) {
+                if (records.length(i) % 16 != 0) {
+                    throw new IllegalArgumentException("Error: Record " + i + " of " + mode + " is not a whole number of blocks.");
+                }
+            }
+        }
+        BitSet failed = new BitSet();
+        if (count == 0) {
+            return failed;
+        }
+        if (pool != null && records.start(count - 1) + records.length(count - 1) > TASK_BYTES) {
+            pool.invoke(new Task(records, 0, count, ivs, tags, failed));
+        } else {
+            processRange(records, 0, count, ivs, tags, failed);
+        }
+        return failed;
+    }
+
+    /**
+     * Splits the records in halves until a half holds at most 64 KB or a single record.
+     */
+
+    private final class Task extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Records records;
+        private final int from;
+        private final int to;
+        private final byte[] ivs;
+        private final byte[] tags;
+        private final BitSet failed;
+
+        Task(Records records, int from, int to, byte[] ivs, byte[] tags, BitSet failed) {
+            this.records = records;
+            this.from = from;
+            this.to = to;
+            this.ivs = ivs;
+            this.tags = tags;
+            this.failed = failed;
+        }
+
+        @Override
+        protected void compute() {
+            long bytes = records.start(to - 1) + records.length(to - 1) - records.start(from);
+            if (bytes <= TASK_BYTES || to - from == 1) {
+                processRange(records, from, to, ivs, tags, failed);
+                return;
+            }
+            int half = (from + to) >>> 1;
+            invokeAll(new Task(records, from, half, ivs, tags, failed), new Task(records, half, to, ivs, tags, failed));
+        }
+    }
+
+    private void processRange(Records records, int from, int to, byte[] ivs, byte[] tags, BitSet failed) {
+        if (mode == Mode.CBC) {
+            byte[] chain = new byte[16];
+            for (int i = from; i < to; i++) {
+                System.arraycopy(ivs, 16 * i, chain, 0, 16);
+                int blocks = records.length(i) / 16;
+                if (encrypt) {
+                    key.encryptBlocksCbc(chain, records.input(i), records.inputOffset(i), records.output(i), records.outputOffset(i), blocks);
+                } else {
+                    key.decryptBlocksCbc(chain, records.input(i), records.inputOffset(i), records.output(i), records.outputOffset(i), blocks);
+                }
+            }
+            return;
+        }
+        byte[] blocks = new byte[16 * GROUP_BLOCKS];
+        byte[] keystream = mode == Mode.ECB ? blocks : new byte[16 * GROUP_BLOCKS];
+        Ghash ghash = gcm == null ? null : gcm.ghash().segment();
+        BitSet rangeFailed = new BitSet();
+        int i = from;
+        while (i < to) {
+            int first = i;
+            int used = 0;
+            while (i < to && used + blocksOf(records.length(i)) <= GROUP_BLOCKS) {
+                used += gather(records, i++, ivs, blocks, used);
+            }
+            if (i == first) {
+                large(records, i++, ivs, tags, rangeFailed); //A record of more than a group on its own.
+                continue;
+            }
+            if (mode == Mode.ECB && encrypt) {
+                engine.encryptBlocks(key, blocks, 0, keystream, 0, used);
+            } else if (mode == Mode.ECB) {
+                engine.decryptBlocks(key, blocks, 0, keystream, 0, used);
+            } else {
+                engine.encryptBlocks(key, blocks, 0, keystream, 0, used);
+            }
+            int block = 0;
+            for (int r = first; r < i; r++) {
+                block += scatter(records, r, keystream, block, ghash, tags, rangeFailed);
+            }
+        }
+        if (!rangeFailed.isEmpty()) {
+            synchronized (failed) {
+                failed.or(rangeFailed);
+            }
+        }
+    }
+
+    /**
+     * @return blocks of the group a record takes: its own, plus the J0 block for the tag in GCM
+     */
+
+    private int blocksOf(int length) {
+        return (length + 15) / 16 + (mode == Mode.GCM ? 1 : 0);
+    }
+
+    /**
+     * Puts the blocks to encipher for record i into the group: the record itself in ECB, its counter
+     * blocks in CTR and GCM.
+     *
+     * @return the number of blocks added
+     */
+
+    private int gather(Records records, int i, byte[] ivs, byte[] blocks, int at) {
+        int length = records.length(i);
+        if (mode == Mode.ECB) {
+            System.arraycopy(records.input(i), records.inputOffset(i), blocks, 16 * at, length);
+            return length / 16;
+        }
+        int count = blocksOf(length);
+        long high;
+        long low;
+        if (mode == Mode.GCM) {
+            high = getLong(ivs, 16 * i);
+            low = (getLong(ivs, 16 * i + 8) & 0xFFFFFFFF00000000L) | 1; //J0 = IV || 1, then the payload from IV || 2.
+        } else {
+            high = getLong(ivs, 16 * i);
+            low = getLong(ivs, 16 * i + 8);
+        }
+        for (int b = 0; b < count; b++) {
+            long sum = low + b;
+            putLong(Long.compareUnsigned(sum, low) < 0 ? high + 1 : high, blocks, 16 * (at + b));
+            putLong(sum, blocks, 16 * (at + b) + 8);
+        }
+        return count;
+    }
+
+    /**
+     * Writes the output of record i from the enciphered group and, in GCM, writes or checks its tag.
+     *
+     * @return the number of blocks of the group the record took
+     */
+
+    private int scatter(Records records, int i, byte[] keystream, int at, Ghash ghash, byte[] tags, BitSet failed) {
+        byte[] in = records.input(i);
+        byte[] out = records.output(i);
+        int inOff = records.inputOffset(i);
+        int outOff = records.outputOffset(i);
+        int length = records.length(i);
+        if (mode == Mode.ECB) {
+            System.arraycopy(keystream, 16 * at, out, outOff, length);
+            return length / 16;
+        }
+        int stream = 16 * at;
+        if (mode == Mode.GCM) {
+            stream += 16; //The first block is the tag mask.
+            ghash.reset();
+            if (!encrypt) {
+                ghash.update(in, inOff, length);
+            }
+        }
+        for (int b = 0; b < length; b++) {
+            out[outOff + b] = (byte) (in[inOff + b] ^ keystream[stream + b]);
+        }
+        if (mode == Mode.GCM) {
+            if (encrypt) {
+                ghash.update(out, outOff, length);
+            }
+            byte[] tag = ghash.digest(length);
+            for (int b = 0; b < 16; b++) {
+                tag[b] ^= keystream[16 * at + b];
+            }
+            if (encrypt) {
+                System.arraycopy(tag, 0, tags, 16 * i, 16);
+            } else if (!MessageDigest.isEqual(tag, Arrays.copyOfRange(tags, 16 * i, 16 * i + 16))) {
+                Arrays.fill(out, outOff, outOff + length, (byte) 0); //Unauthenticated plaintext must not be left behind.
+                failed.set(i);
+            }
+        }
+        return blocksOf(length);
+    }
+
+    /**
+     * A record too long for one group goes through CounterMode or GaloisCounterMode on its own.
+     */
+
+    private void large(Records records, int i, byte[] ivs, byte[] tags, BitSet failed) {
+        byte[] in = records.input(i);
+        byte[] out = records.output(i);
+        int inOff = records.inputOffset(i);
+        int outOff = records.outputOffset(i);
+        int length = records.length(i);
+        byte[] iv = Arrays.copyOfRange(ivs == null ? new byte[16] : ivs, 16 * i, 16 * i + 16);
+        if (mode == Mode.ECB && encrypt) {
+            engine.encryptBlocks(key, in, inOff, out, outOff, length / 16);
+        } else if (mode == Mode.ECB) {
+            engine.decryptBlocks(key, in, inOff, out, outOff, length / 16);
+        } else if (mode == Mode.CTR) {
+            new CounterMode(key, iv, engine).process(0, in, inOff, out, outOff, length);
+        } else {
+            GaloisCounterMode message = gcm.withIv(iv);
+            if (!encrypt) {
+                message.ghash().update(in, inOff, length);
+            }
+            new CounterMode(key, message.counter(), engine).process(0, in, inOff, out, outOff, length);
+            if (encrypt) {
+                message.ghash().update(out, outOff, length);
+                System.arraycopy(message.tag(length), 0, tags, 16 * i, 16);
+            } else if (!message.verify(Arrays.copyOfRange(tags, 16 * i, 16 * i + 16), length)) {
+                Arrays.fill(out, outOff, outOff + length, (byte) 0);
+                failed.set(i);
+            }
+        }
+    }
+
+    private static long getLong(byte[] b, int off) {
+        long v = 0;
+        for (int i = 0; i < 8; i++) {
+            v = (v << 8) | (b[off + i] & 0xFF);
+        }
+        return v;
+    }
+
+    private static void putLong(long v, byte[] b, int off) {
+        for (int i = 7; i >= 0; i--) {
+            b[off + i] = (byte) v;
+            v >>>= 8;
+        }
+    }
+}
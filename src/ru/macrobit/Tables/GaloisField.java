@@ -0,0 +1,56 @@
+package ru.macrobit.Tables;
+
+/**
+ * Arithmetic in GF(2^8) modulo the AES polynomial x^8 + x^4 + x^3 + x + 1, the field every AES table is
+ * generated from. Products go through logarithm and exponent tables of the generator 0x03, built once at
+ * class initialization; they are meant for building tables, not for the round loops.
+ */
+
+public final class GaloisField {
+
+    private static final int POLYNOMIAL = 0x11b;
+
+    private static final byte[] EXP = new byte[510]; //Two periods, so a sum of two logarithms needs no modulo.
+    private static final byte[] LOG = new byte[256];
+
+    static {
+        int x = 1;
+        for (int i = 0; i < 255; i++) {
+            EXP[i] = (byte) x;
+            EXP[i + 255] = (byte) x;
+            LOG[x] = (byte) i;
+            x ^= xtime(x); //x * 3
+        }
+    }
+
+    private GaloisField() {
+    }
+
+    /**
+     * @return a * 2
+     */
+
+    public static int xtime(int a) {
+        a <<= 1;
+        return (a & 0x100) != 0 ? a ^ POLYNOMIAL : a;
+    }
+
+    /**
+     * @return a * b
+     */
+
+    public static int mul(int a, int b) {
+        if (a == 0 || b == 0) {
+            return 0;
+        }
+        return EXP[(LOG[a] & 0xff) + (LOG[b] & 0xff)] & 0xff;
+    }
+
+    /**
+     * @return the multiplicative inverse of a, 0 for 0 as in the S-box
+     */
+
+    public static int inverse(int a) {
+        return a == 0 ? 0 : EXP[255 - (LOG[a] & 0xff)] & 0xff;
+    }
+}